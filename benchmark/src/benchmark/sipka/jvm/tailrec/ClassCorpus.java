@@ -0,0 +1,170 @@
+package benchmark.sipka.jvm.tailrec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads the class files that are used as the input of the optimizer benchmarks.
+ */
+public class ClassCorpus {
+	private final String name;
+	private final List<byte[]> classes;
+	private final long totalBytes;
+
+	public ClassCorpus(String name, List<byte[]> classes) {
+		this.name = name;
+		this.classes = classes;
+		long total = 0;
+		for (byte[] c : classes) {
+			total += c.length;
+		}
+		this.totalBytes = total;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<byte[]> getClasses() {
+		return classes;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + classes.size() + " classes, " + totalBytes + " bytes)";
+	}
+
+	/**
+	 * Loads the class files in the given package and its subpackages from the classpath location of the anchor class.
+	 * <p>
+	 * The location can be a class directory or a JAR.
+	 */
+	public static ClassCorpus loadPackage(Class<?> anchor, String packagename) throws IOException {
+		Path location;
+		try {
+			location = Paths.get(anchor.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException("Failed to determine the location of " + anchor.getName(), e);
+		}
+		List<byte[]> classes = new ArrayList<>();
+		collectClasses(location, packagename.replace('.', '/') + "/", classes);
+		if (classes.isEmpty()) {
+			throw new IOException("No classes found in package " + packagename + " at " + location);
+		}
+		return new ClassCorpus(packagename, classes);
+	}
+
+	/**
+	 * Loads all class files in the given class directory or JAR.
+	 * <p>
+	 * Can be used to load the classes of a JDK module that were extracted locally. E.g. with
+	 * <code>jmod extract</code>.
+	 */
+	public static ClassCorpus loadPath(Path location) throws IOException {
+		List<byte[]> classes = new ArrayList<>();
+		collectClasses(location, "", classes);
+		if (classes.isEmpty()) {
+			throw new IOException("No classes found at " + location);
+		}
+		return new ClassCorpus(location.getFileName().toString(), classes);
+	}
+
+	/**
+	 * Loads the class files of a module of the running JDK.
+	 * <p>
+	 * Requires a JDK with the <code>jrt:/</code> file system. (Java 9+)
+	 */
+	public static ClassCorpus loadJdkModule(String modulename) throws IOException {
+		FileSystem jrtfs;
+		try {
+			jrtfs = FileSystems.getFileSystem(URI.create("jrt:/"));
+		} catch (FileSystemNotFoundException | IllegalArgumentException e) {
+			throw new IOException("The jrt:/ file system is not available. Run the benchmark on Java 9 or later.", e);
+		}
+		Path moduledir = jrtfs.getPath("/modules", modulename);
+		if (!Files.isDirectory(moduledir)) {
+			throw new IOException("JDK module not found: " + modulename);
+		}
+		List<byte[]> classes = new ArrayList<>();
+		collectClassFiles(moduledir, classes);
+		return new ClassCorpus(modulename, classes);
+	}
+
+	/**
+	 * Checks that all classes of the corpus have a class file version that the optimizer supports.
+	 */
+	public void checkClassVersions(int maxversion) throws IOException {
+		for (byte[] c : classes) {
+			int version = ((c[6] & 0xFF) << 8) | (c[7] & 0xFF);
+			if (version > maxversion) {
+				throw new IOException("Corpus " + name + " contains classes with unsupported class file version: "
+						+ version + " (maximum: " + maxversion + ")");
+			}
+		}
+	}
+
+	private static void collectClasses(Path location, String prefix, List<byte[]> classes) throws IOException {
+		if (Files.isDirectory(location)) {
+			Path dir = prefix.isEmpty() ? location : location.resolve(prefix);
+			if (Files.isDirectory(dir)) {
+				collectClassFiles(dir, classes);
+			}
+			return;
+		}
+		try (ZipFile zf = new ZipFile(location.toFile())) {
+			for (ZipEntry entry : Collections.list(zf.entries())) {
+				String entryname = entry.getName();
+				if (entry.isDirectory() || !entryname.startsWith(prefix) || !entryname.endsWith(".class")
+						|| entryname.endsWith("module-info.class")) {
+					continue;
+				}
+				try (InputStream in = zf.getInputStream(entry)) {
+					classes.add(readFully(in));
+				}
+			}
+		}
+	}
+
+	private static void collectClassFiles(Path directory, final List<byte[]> classes) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String filename = file.getFileName().toString();
+				if (filename.endsWith(".class") && !filename.equals("module-info.class")) {
+					classes.add(Files.readAllBytes(file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024 * 8];
+		for (int read; (read = in.read(buf)) > 0;) {
+			baos.write(buf, 0, read);
+		}
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,103 @@
+package benchmark.sipka.jvm.tailrec;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Opcodes;
+
+/**
+ * Measures the throughput of the optimizer on class corpora.
+ * <p>
+ * One operation optimizes all classes of the corpus. The <code>classes</code> and <code>bytes</code> secondary
+ * results are the number of optimized classes and class bytes per second. Run with <code>-prof gc</code> to see the
+ * allocation rate.
+ * <p>
+ * The corpora are:
+ * <ul>
+ * <li><code>asm</code>: The shaded ASM classes of the library.</li>
+ * <li><code>jdk</code>: The classes of the JDK module specified by the <code>jdkModule</code> parameter. (Java 9+) If
+ * the running JDK is too new for the optimizer, specify a directory or JAR with the extracted classes of a module using
+ * the <code>jdkClasses</code> parameter.</li>
+ * <li><code>synthetic</code>: Generated classes with many large tail recursive methods.</li>
+ * </ul>
+ * The <code>jdk</code> corpus is not run by default, as it depends on the version of the running JDK. Select it with
+ * <code>-p corpus=jdk</code>.
+ */
+@State(Scope.Benchmark)
+public class OptimizerThroughputBenchmark {
+	@Param({ "asm", "synthetic" })
+	public String corpus;
+
+	@Param({ "java.base" })
+	public String jdkModule;
+
+	@Param({ "" })
+	public String jdkClasses;
+
+	private byte[][] classes;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		ClassCorpus loaded;
+		switch (corpus) {
+			case "asm": {
+				loaded = ClassCorpus.loadPackage(TailRecursionOptimizer.class,
+						"sipka.jvm.tailrec.thirdparty.org.objectweb.asm");
+				break;
+			}
+			case "jdk": {
+				if (jdkClasses.isEmpty()) {
+					loaded = ClassCorpus.loadJdkModule(jdkModule);
+				} else {
+					loaded = ClassCorpus.loadPath(Paths.get(jdkClasses));
+				}
+				break;
+			}
+			case "synthetic": {
+				loaded = SyntheticClassGenerator.generateLargeClasses(16, 64, 256);
+				break;
+			}
+			default: {
+				throw new IllegalArgumentException("Unknown corpus: " + corpus);
+			}
+		}
+		loaded.checkClassVersions(Opcodes.V15);
+		classes = loaded.getClasses().toArray(new byte[0][]);
+		System.out.println();
+		System.out.println("Corpus: " + loaded);
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long classes;
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			classes = 0;
+			bytes = 0;
+		}
+	}
+
+	@Benchmark
+	public void optimizeCorpus(Counters counters, Blackhole bh) {
+		long bytes = 0;
+		for (byte[] c : classes) {
+			bh.consume(TailRecursionOptimizer.optimizeMethods(c));
+			bytes += c.length;
+		}
+		counters.classes += classes.length;
+		counters.bytes += bytes;
+	}
+}
@@ -0,0 +1,143 @@
+package benchmark.sipka.jvm.tailrec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import benchmark.sipka.jvm.tailrec.shapes.RecursionShapes;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+
+/**
+ * Measures the runtime of the optimized and unoptimized variants of tail recursive methods at different recursion
+ * depths.
+ * <p>
+ * The methods are in {@link RecursionShapes}. The classes are loaded by a separate class loader for each trial, and
+ * optimized at load time for the <code>optimized</code> variant.
+ * <p>
+ * If the unoptimized variant overflows the stack at the given depth, the <code>stackOverflows</code> secondary result
+ * shows the number of {@link StackOverflowError}s per second, and the primary score is the speed of throwing them.
+ */
+@State(Scope.Benchmark)
+public class RecursionDepthBenchmark {
+	private static final String SHAPES_PACKAGE_PREFIX = RecursionShapes.class.getPackage().getName() + ".";
+
+	@Param({ "StaticCount", "PrivateInstance", "FinalInstance", "LongArguments", "DoubleArguments",
+			"SwitchReturnPath", "LoopReturnPath", "ReceiverChange" })
+	public String shape;
+
+	@Param({ "10", "1000", "100000", "10000000" })
+	public int depth;
+
+	@Param({ "optimized", "unoptimized" })
+	public String variant;
+
+	private RecursionShape recursionShape;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		boolean optimize;
+		switch (variant) {
+			case "optimized": {
+				optimize = true;
+				break;
+			}
+			case "unoptimized": {
+				optimize = false;
+				break;
+			}
+			default: {
+				throw new IllegalArgumentException("Unknown variant: " + variant);
+			}
+		}
+		ShapeClassLoader cl = new ShapeClassLoader(RecursionDepthBenchmark.class.getClassLoader(), optimize);
+		Class<?> shapeclass = Class.forName(RecursionShapes.class.getName() + "$" + shape, false, cl);
+		recursionShape = (RecursionShape) shapeclass.getConstructor().newInstance();
+
+		System.out.println();
+		try {
+			recursionShape.run(depth);
+		} catch (StackOverflowError e) {
+			System.out.println("StackOverflowError: " + shape + " (" + variant + ") at depth " + depth);
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long stackOverflows;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			stackOverflows = 0;
+		}
+	}
+
+	@Benchmark
+	public long recurse(Counters counters) {
+		try {
+			return recursionShape.run(depth);
+		} catch (StackOverflowError e) {
+			++counters.stackOverflows;
+			return -1;
+		}
+	}
+
+	/**
+	 * Class loader that defines the classes in the package of {@link RecursionShapes} itself, optionally optimizing
+	 * them.
+	 */
+	private static final class ShapeClassLoader extends ClassLoader {
+		private final boolean optimize;
+
+		public ShapeClassLoader(ClassLoader parent, boolean optimize) {
+			super(parent);
+			this.optimize = optimize;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.startsWith(SHAPES_PACKAGE_PREFIX)) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					byte[] classbytes = readClassBytes(name);
+					if (optimize) {
+						classbytes = TailRecursionOptimizer.optimizeMethods(classbytes);
+					}
+					c = defineClass(name, classbytes, 0, classbytes.length);
+				}
+				if (resolve) {
+					resolveClass(c);
+				}
+				return c;
+			}
+		}
+
+		private byte[] readClassBytes(String name) throws ClassNotFoundException {
+			String resourcename = name.replace('.', '/') + ".class";
+			try (InputStream in = getParent().getResourceAsStream(resourcename)) {
+				if (in == null) {
+					throw new ClassNotFoundException(name);
+				}
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				byte[] buf = new byte[1024 * 8];
+				for (int read; (read = in.read(buf)) > 0;) {
+					baos.write(buf, 0, read);
+				}
+				return baos.toByteArray();
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+	}
+}
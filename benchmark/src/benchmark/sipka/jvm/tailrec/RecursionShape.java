@@ -0,0 +1,13 @@
+package benchmark.sipka.jvm.tailrec;
+
+/**
+ * A tail recursive method that is run by the {@link RecursionDepthBenchmark}.
+ */
+public interface RecursionShape {
+	/**
+	 * Runs the recursive method with the given recursion depth.
+	 * 
+	 * @return The result of the method.
+	 */
+	public long run(int depth);
+}
@@ -0,0 +1,61 @@
+package benchmark.sipka.jvm.tailrec;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+
+/**
+ * Measures the time it takes to optimize a method with a complex return path after the tail recursive call.
+ * <p>
+ * The optimized method is generated by {@link SyntheticClassGenerator#generateComplexReturnPathClass}, with the
+ * parameters of the benchmark. The number of paths through the method grows exponentially with the branch depth, so
+ * the results show if the analysis of the return paths is super-linear in any of the parameters. Run with
+ * <code>-prof gc</code> to see the allocated memory per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReturnPathComplexityBenchmark {
+	@Param({ "1", "8", "64", "512" })
+	public int branchDepth;
+
+	@Param({ "1", "64", "1024" })
+	public int switchWidth;
+
+	@Param({ "1", "16", "256" })
+	public int localCount;
+
+	private byte[] classBytes;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		classBytes = SyntheticClassGenerator.generateComplexReturnPathClass("benchmark/synthetic/Complex",
+				branchDepth, switchWidth, localCount);
+		if (TailRecursionOptimizer.tryOptimizeMethods(classBytes, 0, classBytes.length) == null) {
+			throw new AssertionError("The generated method was not optimized.");
+		}
+		System.out.println();
+		System.out.println("Class size: " + classBytes.length + " bytes");
+	}
+
+	@Benchmark
+	public byte[] optimize() {
+		return TailRecursionOptimizer.optimizeMethods(classBytes);
+	}
+}
@@ -0,0 +1,233 @@
+package benchmark.sipka.jvm.tailrec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.ClassWriter;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Label;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.MethodVisitor;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Opcodes;
+
+/**
+ * Generates synthetic classes with tail recursive methods as the input of the optimizer benchmarks.
+ */
+public class SyntheticClassGenerator {
+	private static final String METHOD_DESCRIPTOR = "(II)I";
+
+	/**
+	 * The name of the generated method in the return path complexity classes.
+	 */
+	public static final String COMPLEX_METHOD_NAME = "complex";
+	/**
+	 * The descriptor of the generated method in the return path complexity classes.
+	 * <p>
+	 * The parameters are the recursion count, the accumulator, and the value that the branches depend on.
+	 */
+	public static final String COMPLEX_METHOD_DESCRIPTOR = "(III)I";
+
+	private SyntheticClassGenerator() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Generates classes that each have the given number of tail recursive methods with large bodies.
+	 * <p>
+	 * Each method has the following shape, with the accumulator update repeated <code>statementcount</code> times:
+	 *
+	 * <pre>
+	 * static int mN(int n, int acc) {
+	 * 	if (n == 0) {
+	 * 		return acc;
+	 * 	}
+	 * 	acc = acc * 31 + n;
+	 * 	...
+	 * 	return mN(n - 1, acc);
+	 * }
+	 * </pre>
+	 */
+	public static ClassCorpus generateLargeClasses(int classcount, int methodcount, int statementcount) {
+		List<byte[]> classes = new ArrayList<>(classcount);
+		for (int i = 0; i < classcount; i++) {
+			classes.add(generateLargeClass("benchmark/synthetic/Large" + i, methodcount, statementcount));
+		}
+		return new ClassCorpus("synthetic", classes);
+	}
+
+	public static byte[] generateLargeClass(String internalname, int methodcount, int statementcount) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalname, null, "java/lang/Object",
+				null);
+		for (int m = 0; m < methodcount; m++) {
+			String methodname = "m" + m;
+			MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, methodname, METHOD_DESCRIPTOR,
+					null, null);
+			mv.visitCode();
+			Label notzero = new Label();
+			mv.visitVarInsn(Opcodes.ILOAD, 0);
+			mv.visitJumpInsn(Opcodes.IFNE, notzero);
+			mv.visitVarInsn(Opcodes.ILOAD, 1);
+			mv.visitInsn(Opcodes.IRETURN);
+			mv.visitLabel(notzero);
+			for (int s = 0; s < statementcount; s++) {
+				mv.visitVarInsn(Opcodes.ILOAD, 1);
+				mv.visitIntInsn(Opcodes.BIPUSH, 31);
+				mv.visitInsn(Opcodes.IMUL);
+				mv.visitVarInsn(Opcodes.ILOAD, 0);
+				mv.visitInsn(Opcodes.IADD);
+				mv.visitVarInsn(Opcodes.ISTORE, 1);
+			}
+			mv.visitVarInsn(Opcodes.ILOAD, 0);
+			mv.visitInsn(Opcodes.ICONST_1);
+			mv.visitInsn(Opcodes.ISUB);
+			mv.visitVarInsn(Opcodes.ILOAD, 1);
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, internalname, methodname, METHOD_DESCRIPTOR, false);
+			mv.visitInsn(Opcodes.IRETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Generates a class with a tail recursive method that has a complex return path after the self-call.
+	 * <p>
+	 * The method returns <code>acc + n</code>, but the result of the self-call goes through the following before it is
+	 * returned:
+	 * <ul>
+	 * <li><code>branchdepth</code> if-else diamonds in sequence. Each branch copies the result to the next local
+	 * variable, and the first branch also contains a loop. The number of paths through the diamonds is
+	 * 2<sup><code>branchdepth</code></sup>.</li>
+	 * <li>A <code>LOOKUPSWITCH</code> with <code>switchwidth</code> cases, which copy the result to a local
+	 * variable.</li>
+	 * </ul>
+	 * The result is copied between <code>localcount</code> local variables in rotation, so the number of locals that
+	 * the analysis tracks grows with it.
+	 *
+	 * <pre>
+	 * static int complex(int n, int acc, int x) {
+	 * 	if (n == 0) {
+	 * 		return acc;
+	 * 	}
+	 * 	int r0 = complex(n - 1, acc + 1, x);
+	 * 	int i = x;
+	 * 	if (i != 0) {
+	 * 		while (i &gt; 0) {
+	 * 			i--;
+	 * 		}
+	 * 		r1 = r0;
+	 * 	} else {
+	 * 		i++;
+	 * 		r1 = r0;
+	 * 	}
+	 * 	...
+	 * 	switch (x) {
+	 * 		case 0:
+	 * 			rk = r(k-1);
+	 * 			break;
+	 * 		...
+	 * 		default:
+	 * 			rk = r(k-1);
+	 * 			break;
+	 * 	}
+	 * 	return rk;
+	 * }
+	 * </pre>
+	 */
+	public static byte[] generateComplexReturnPathClass(String internalname, int branchdepth, int switchwidth,
+			int localcount) {
+		if (branchdepth < 0 || switchwidth < 0 || localcount < 1) {
+			throw new IllegalArgumentException("Invalid parameters: " + branchdepth + ", " + switchwidth + ", "
+					+ localcount);
+		}
+		final int nvar = 0;
+		final int accvar = 1;
+		final int xvar = 2;
+		final int ivar = 3;
+		final int resultbase = 4;
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalname, null, "java/lang/Object",
+				null);
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, COMPLEX_METHOD_NAME,
+				COMPLEX_METHOD_DESCRIPTOR, null, null);
+		mv.visitCode();
+		//use the last local, so all of them are allocated even if the rotation doesn't reach them
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitVarInsn(Opcodes.ISTORE, resultbase + localcount - 1);
+		Label notzero = new Label();
+		mv.visitVarInsn(Opcodes.ILOAD, nvar);
+		mv.visitJumpInsn(Opcodes.IFNE, notzero);
+		mv.visitVarInsn(Opcodes.ILOAD, accvar);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitLabel(notzero);
+
+		mv.visitVarInsn(Opcodes.ILOAD, nvar);
+		mv.visitInsn(Opcodes.ICONST_1);
+		mv.visitInsn(Opcodes.ISUB);
+		mv.visitVarInsn(Opcodes.ILOAD, accvar);
+		mv.visitInsn(Opcodes.ICONST_1);
+		mv.visitInsn(Opcodes.IADD);
+		mv.visitVarInsn(Opcodes.ILOAD, xvar);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, internalname, COMPLEX_METHOD_NAME, COMPLEX_METHOD_DESCRIPTOR, false);
+		int resultvar = resultbase;
+		mv.visitVarInsn(Opcodes.ISTORE, resultvar);
+		mv.visitVarInsn(Opcodes.ILOAD, xvar);
+		mv.visitVarInsn(Opcodes.ISTORE, ivar);
+
+		int step = 0;
+		for (int d = 0; d < branchdepth; d++) {
+			int nextresultvar = resultbase + (++step % localcount);
+			Label elselabel = new Label();
+			Label looplabel = new Label();
+			Label loopend = new Label();
+			Label endlabel = new Label();
+			mv.visitVarInsn(Opcodes.ILOAD, ivar);
+			mv.visitJumpInsn(Opcodes.IFEQ, elselabel);
+			mv.visitLabel(looplabel);
+			mv.visitVarInsn(Opcodes.ILOAD, ivar);
+			mv.visitJumpInsn(Opcodes.IFLE, loopend);
+			mv.visitIincInsn(ivar, -1);
+			mv.visitJumpInsn(Opcodes.GOTO, looplabel);
+			mv.visitLabel(loopend);
+			mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+			mv.visitVarInsn(Opcodes.ISTORE, nextresultvar);
+			mv.visitJumpInsn(Opcodes.GOTO, endlabel);
+			mv.visitLabel(elselabel);
+			mv.visitIincInsn(ivar, 1);
+			mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+			mv.visitVarInsn(Opcodes.ISTORE, nextresultvar);
+			mv.visitLabel(endlabel);
+			resultvar = nextresultvar;
+		}
+
+		int switchresultvar = resultbase + (++step % localcount);
+		Label switchend = new Label();
+		Label defaultlabel = new Label();
+		int[] keys = new int[switchwidth];
+		Label[] caselabels = new Label[switchwidth];
+		for (int i = 0; i < switchwidth; i++) {
+			//sparse keys so a lookupswitch is used
+			keys[i] = i * 3;
+			caselabels[i] = new Label();
+		}
+		mv.visitVarInsn(Opcodes.ILOAD, xvar);
+		mv.visitLookupSwitchInsn(defaultlabel, keys, caselabels);
+		for (int i = 0; i < switchwidth; i++) {
+			mv.visitLabel(caselabels[i]);
+			mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+			mv.visitVarInsn(Opcodes.ISTORE, switchresultvar);
+			mv.visitJumpInsn(Opcodes.GOTO, switchend);
+		}
+		mv.visitLabel(defaultlabel);
+		mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+		mv.visitVarInsn(Opcodes.ISTORE, switchresultvar);
+		mv.visitLabel(switchend);
+		mv.visitVarInsn(Opcodes.ILOAD, switchresultvar);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+}
@@ -0,0 +1,155 @@
+package benchmark.sipka.jvm.tailrec.shapes;
+
+import benchmark.sipka.jvm.tailrec.RecursionShape;
+
+/**
+ * The tail recursive methods of the {@link benchmark.sipka.jvm.tailrec.RecursionDepthBenchmark}.
+ * <p>
+ * The classes in this package are excluded from the optimization of the benchmark JARs, as the benchmark loads both
+ * the optimized and unoptimized variants of them.
+ */
+public class RecursionShapes {
+	private RecursionShapes() {
+		throw new UnsupportedOperationException();
+	}
+
+	public static class StaticCount implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return count(depth, 0);
+		}
+
+		public static int count(int n, int acc) {
+			if (n == 0) {
+				return acc;
+			}
+			return count(n - 1, acc + 1);
+		}
+	}
+
+	public static class PrivateInstance implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return sum(depth, 0);
+		}
+
+		private long sum(int n, long acc) {
+			if (n == 0) {
+				return acc;
+			}
+			return sum(n - 1, acc + n);
+		}
+	}
+
+	public static class FinalInstance implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return sum(depth, 0);
+		}
+
+		public final long sum(int n, long acc) {
+			if (n == 0) {
+				return acc;
+			}
+			return sum(n - 1, acc + n);
+		}
+	}
+
+	public static class LongArguments implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return sum(depth, 0);
+		}
+
+		public static long sum(long n, long acc) {
+			if (n == 0) {
+				return acc;
+			}
+			return sum(n - 1, acc + n);
+		}
+	}
+
+	public static class DoubleArguments implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return (long) sum(depth, 0);
+		}
+
+		public static double sum(double n, double acc) {
+			if (n <= 0) {
+				return acc;
+			}
+			return sum(n - 1, acc + n * 0.5);
+		}
+	}
+
+	public static class SwitchReturnPath implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return count(depth, depth & 3);
+		}
+
+		public static int count(int n, int sw) {
+			if (n == 0) {
+				return sw;
+			}
+			int v = count(n - 1, (sw + 1) & 3);
+			switch (sw) {
+				case 0:
+					++sw;
+					break;
+				case 1:
+					--sw;
+					break;
+				case 2:
+					sw += 3;
+					break;
+				default:
+					sw += 4;
+					break;
+			}
+			return v;
+		}
+	}
+
+	public static class LoopReturnPath implements RecursionShape {
+		@Override
+		public long run(int depth) {
+			return count(depth);
+		}
+
+		public static int count(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			int v = count(n - 1);
+			for (int i = 0; i < 10; i++) {
+			}
+			return v;
+		}
+	}
+
+	public static class ReceiverChange implements RecursionShape {
+		private final long value;
+
+		public ReceiverChange() {
+			this(0);
+		}
+
+		public ReceiverChange(long value) {
+			this.value = value;
+		}
+
+		@Override
+		public long run(int depth) {
+			return count(depth);
+		}
+
+		public final long count(int n) {
+			if (n == 0) {
+				return value;
+			}
+			return new ReceiverChange(value + n).count(n - 1);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package sipka.jvm.tailrec;
+
+/**
+ * Limits the amount of work the optimizer may spend with analyzing the methods of a class.
+ * <p>
+ * The work is measured in instruction visits of the return path analysis. Each instruction of an analyzed method is
+ * visited at least once, and the instructions in loops may be visited multiple times. Only the methods that contain
+ * self-calls are analyzed. The visits in methods that use more than 63 stack slots and local variables in total
+ * count as multiple visits, as the analyzed state is larger for them.
+ * <p>
+ * The class budget is charged with the visits that were performed. A method that is too large for its limit is
+ * rejected without analyzing it, and doesn't use up the budget of the other methods.
+ * <p>
+ * If a method exceeds its limit, or the class runs out of its budget, the method is left unchanged. These methods are
+ * counted by {@link OptimizationStatistics#getBudgetExceededMethodCount()} and reported by
+ * {@link MethodOptimizationResult#isBudgetExceeded()}.
+ * <p>
+ * The visit counts don't depend on timing or concurrency, so the output of the optimizer is deterministic for the
+ * same budget.
+ */
+public final class AnalysisBudget {
+	/**
+	 * The default number of instruction visits allowed for a single method.
+	 * <p>
+	 * Methods are limited to 64 KiB of bytecode, so typical methods are far below this limit, even the large generated
+	 * ones.
+	 */
+	public static final long DEFAULT_METHOD_VISIT_LIMIT = 1_000_000;
+	/**
+	 * The default number of instruction visits allowed for all methods of a class.
+	 */
+	public static final long DEFAULT_CLASS_VISIT_LIMIT = 4_000_000;
+
+	/**
+	 * The budget that is used if none is specified.
+	 */
+	public static final AnalysisBudget DEFAULT = new AnalysisBudget(DEFAULT_METHOD_VISIT_LIMIT,
+			DEFAULT_CLASS_VISIT_LIMIT);
+	/**
+	 * The budget that doesn't limit the analysis.
+	 */
+	public static final AnalysisBudget UNLIMITED = new AnalysisBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+	private final long methodVisitLimit;
+	private final long classVisitLimit;
+
+	private AnalysisBudget(long methodVisitLimit, long classVisitLimit) {
+		this.methodVisitLimit = methodVisitLimit;
+		this.classVisitLimit = classVisitLimit;
+	}
+
+	/**
+	 * Creates a new budget with the given limits.
+	 *
+	 * @param methodvisitlimit
+	 *            The maximum number of instruction visits for a single method.
+	 * @param classvisitlimit
+	 *            The maximum number of instruction visits for all methods of a class.
+	 * @return The budget.
+	 * @throws IllegalArgumentException
+	 *             If a limit is negative.
+	 */
+	public static AnalysisBudget create(long methodvisitlimit, long classvisitlimit) throws IllegalArgumentException {
+		if (methodvisitlimit < 0) {
+			throw new IllegalArgumentException("Negative method visit limit: " + methodvisitlimit);
+		}
+		if (classvisitlimit < 0) {
+			throw new IllegalArgumentException("Negative class visit limit: " + classvisitlimit);
+		}
+		if (methodvisitlimit == DEFAULT_METHOD_VISIT_LIMIT && classvisitlimit == DEFAULT_CLASS_VISIT_LIMIT) {
+			return DEFAULT;
+		}
+		return new AnalysisBudget(methodvisitlimit, classvisitlimit);
+	}
+
+	/**
+	 * Gets the maximum number of instruction visits for a single method.
+	 */
+	public long getMethodVisitLimit() {
+		return methodVisitLimit;
+	}
+
+	/**
+	 * Gets the maximum number of instruction visits for all methods of a class.
+	 */
+	public long getClassVisitLimit() {
+		return classVisitLimit;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (classVisitLimit ^ (classVisitLimit >>> 32));
+		result = prime * result + (int) (methodVisitLimit ^ (methodVisitLimit >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		AnalysisBudget other = (AnalysisBudget) obj;
+		if (classVisitLimit != other.classVisitLimit)
+			return false;
+		if (methodVisitLimit != other.methodVisitLimit)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[methodVisitLimit=" + methodVisitLimit + ", classVisitLimit="
+				+ classVisitLimit + "]";
+	}
+}
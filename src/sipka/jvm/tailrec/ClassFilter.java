@@ -0,0 +1,271 @@
+package sipka.jvm.tailrec;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Filter that selects the classes which are subject to optimization based on their names.
+ * <p>
+ * The filter consists of include and exclude patterns that are matched against the binary names of the classes. (E.g.
+ * <code>com.example.Outer$Inner</code>) A class is included if it matches any of the include patterns, and doesn't
+ * match any of the exclude patterns. If there are no include patterns, all classes are included that are not
+ * excluded.
+ * <p>
+ * The patterns may contain the following wildcards:
+ * <ul>
+ * <li><code>*</code>: Matches any number of characters in a package or class name. (Doesn't match the <code>.</code>
+ * separator.)</li>
+ * <li><code>**</code>: Matches any number of characters including the package separators.</li>
+ * </ul>
+ * E.g. <code>com.example.*</code> matches the classes in the <code>com.example</code> package, while
+ * <code>com.example.**</code> matches the classes in its subpackages as well. The <code>/</code> separator can also be
+ * used in the patterns instead of <code>.</code>.
+ * <p>
+ * The filter only examines the names of the classes, so it can be evaluated before the contents of the class files
+ * are read.
+ */
+public final class ClassFilter implements Externalizable {
+	private static final long serialVersionUID = 1L;
+
+	private static final String CLASS_FILE_EXTENSION = ".class";
+	private static final String VERSIONED_ENTRY_PREFIX = "META-INF/versions/";
+
+	private static final String[] EMPTY_STRING_ARRAY = {};
+
+	/**
+	 * Filter that includes all classes.
+	 */
+	public static final ClassFilter ALL = new ClassFilter(EMPTY_STRING_ARRAY, EMPTY_STRING_ARRAY);
+
+	private String[] includes;
+	private String[] excludes;
+
+	private transient Pattern[] includePatterns;
+	private transient Pattern[] excludePatterns;
+
+	/**
+	 * For {@link Externalizable}.
+	 */
+	public ClassFilter() {
+	}
+
+	private ClassFilter(String[] includes, String[] excludes) {
+		this.includes = includes;
+		this.excludes = excludes;
+		compilePatterns();
+	}
+
+	/**
+	 * Creates a new filter for the given patterns.
+	 *
+	 * @param includes
+	 *            The include patterns. May be <code>null</code> or empty to include all classes.
+	 * @param excludes
+	 *            The exclude patterns. May be <code>null</code>.
+	 * @return The filter.
+	 * @throws IllegalArgumentException
+	 *             If a pattern is empty.
+	 */
+	public static ClassFilter create(Collection<String> includes, Collection<String> excludes)
+			throws IllegalArgumentException {
+		String[] includearray = toPatternArray(includes);
+		String[] excludearray = toPatternArray(excludes);
+		if (includearray.length == 0 && excludearray.length == 0) {
+			return ALL;
+		}
+		return new ClassFilter(includearray, excludearray);
+	}
+
+	/**
+	 * Checks if this filter includes all classes.
+	 *
+	 * @return <code>true</code> if there are no include or exclude patterns.
+	 */
+	public boolean isAll() {
+		return includes.length == 0 && excludes.length == 0;
+	}
+
+	/**
+	 * Checks if the class with the given binary name is included by this filter.
+	 *
+	 * @param classname
+	 *            The binary name of the class. (Using <code>.</code> as the package separator.)
+	 * @return <code>true</code> if the class should be optimized.
+	 */
+	public boolean isIncludedClass(String classname) {
+		if (includePatterns.length > 0 && !matchesAny(includePatterns, classname)) {
+			return false;
+		}
+		return !matchesAny(excludePatterns, classname);
+	}
+
+	/**
+	 * Checks if the class file at the given resource path is included by this filter.
+	 * <p>
+	 * The resource path is relative to the root of the class directory or archive, using <code>/</code> as the
+	 * separator. (E.g. <code>com/example/Main.class</code>) The class files in the versioned directories of multi-release
+	 * JARs are matched by their class names without the version prefix.
+	 *
+	 * @param resourcepath
+	 *            The path of the resource.
+	 * @return <code>true</code> if the resource is a class file that should be optimized.
+	 */
+	public boolean isIncludedResource(String resourcepath) {
+		String classname = getClassName(resourcepath);
+		if (classname == null) {
+			return false;
+		}
+		return isIncludedClass(classname);
+	}
+
+	/**
+	 * Gets the binary name of the class in the class file at the given resource path.
+	 *
+	 * @param resourcepath
+	 *            The path of the resource relative to the root of the class directory or archive.
+	 * @return The class name, or <code>null</code> if the resource is not a class file.
+	 */
+	public static String getClassName(String resourcepath) {
+		if (!resourcepath.endsWith(CLASS_FILE_EXTENSION)) {
+			return null;
+		}
+		int start = 0;
+		if (resourcepath.startsWith(VERSIONED_ENTRY_PREFIX)) {
+			int versionend = resourcepath.indexOf('/', VERSIONED_ENTRY_PREFIX.length());
+			if (versionend > 0) {
+				start = versionend + 1;
+			}
+		}
+		return resourcepath.substring(start, resourcepath.length() - CLASS_FILE_EXTENSION.length()).replace('/', '.');
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		writeStrings(out, includes);
+		writeStrings(out, excludes);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		includes = readStrings(in);
+		excludes = readStrings(in);
+		compilePatterns();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(excludes);
+		result = prime * result + Arrays.hashCode(includes);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ClassFilter other = (ClassFilter) obj;
+		if (!Arrays.equals(excludes, other.excludes))
+			return false;
+		if (!Arrays.equals(includes, other.includes))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[includes=" + Arrays.toString(includes) + ", excludes="
+				+ Arrays.toString(excludes) + "]";
+	}
+
+	private void compilePatterns() {
+		includePatterns = compilePatterns(includes);
+		excludePatterns = compilePatterns(excludes);
+	}
+
+	private static boolean matchesAny(Pattern[] patterns, String classname) {
+		for (Pattern p : patterns) {
+			if (p.matcher(classname).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String[] toPatternArray(Collection<String> patterns) {
+		if (patterns == null || patterns.isEmpty()) {
+			return EMPTY_STRING_ARRAY;
+		}
+		String[] result = new String[patterns.size()];
+		int i = 0;
+		for (String p : patterns) {
+			if (p == null || p.isEmpty()) {
+				throw new IllegalArgumentException("Empty class filter pattern.");
+			}
+			result[i++] = p.replace('/', '.');
+		}
+		return result;
+	}
+
+	private static Pattern[] compilePatterns(String[] patterns) {
+		Pattern[] result = new Pattern[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			result[i] = compilePattern(patterns[i]);
+		}
+		return result;
+	}
+
+	private static Pattern compilePattern(String pattern) {
+		StringBuilder sb = new StringBuilder();
+		int len = pattern.length();
+		int literalstart = 0;
+		for (int i = 0; i < len; i++) {
+			if (pattern.charAt(i) != '*') {
+				continue;
+			}
+			if (literalstart < i) {
+				sb.append(Pattern.quote(pattern.substring(literalstart, i)));
+			}
+			if (i + 1 < len && pattern.charAt(i + 1) == '*') {
+				sb.append(".*");
+				++i;
+			} else {
+				sb.append("[^.]*");
+			}
+			literalstart = i + 1;
+		}
+		if (literalstart < len) {
+			sb.append(Pattern.quote(pattern.substring(literalstart)));
+		}
+		return Pattern.compile(sb.toString());
+	}
+
+	private static void writeStrings(ObjectOutput out, String[] strings) throws IOException {
+		out.writeInt(strings.length);
+		for (String s : strings) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String[] readStrings(ObjectInput in) throws IOException {
+		int len = in.readInt();
+		if (len == 0) {
+			return EMPTY_STRING_ARRAY;
+		}
+		String[] result = new String[len];
+		for (int i = 0; i < len; i++) {
+			result[i] = in.readUTF();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,193 @@
+package sipka.jvm.tailrec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of optimizing a class, with the records of the methods that contain self-calls and the time spent in the
+ * phases of the optimization.
+ * <p>
+ * Instances are created by {@link TailRecursionOptimizer#optimizeClass(byte[], int, int)} and
+ * {@link TailRecursionOptimizer#scanClass(byte[], int, int)}.
+ */
+public final class ClassOptimizationResult {
+	private final String className;
+	private final int inputLength;
+	private final List<MethodOptimizationResult> methods = new ArrayList<>();
+
+	private byte[] optimizedBytes;
+	boolean optimized;
+	String sourceFile;
+
+	long parseNanos;
+	long analysisNanos;
+	long transformNanos;
+	long writeNanos;
+
+	ClassOptimizationResult(String className, int inputLength) {
+		this.className = className;
+		this.inputLength = inputLength;
+	}
+
+	/**
+	 * Gets the binary name of the class.
+	 * <p>
+	 * E.g. <code>com.example.Main$Inner</code>
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Gets the name of the source file the class was compiled from.
+	 *
+	 * @return The source file name or <code>null</code> if not available, or the class was not parsed.
+	 */
+	public String getSourceFile() {
+		return sourceFile;
+	}
+
+	/**
+	 * Checks if any method in the class was optimized.
+	 * <p>
+	 * If the result was created by scanning the class, this is <code>true</code> if the class would be changed by the
+	 * optimization.
+	 */
+	public boolean isOptimized() {
+		return optimized;
+	}
+
+	/**
+	 * Gets the optimized class bytes.
+	 *
+	 * @return The optimized bytes or <code>null</code> if the class was not changed, or the result was created by
+	 *             scanning the class.
+	 */
+	public byte[] getOptimizedBytes() {
+		return optimizedBytes;
+	}
+
+	/**
+	 * Gets the length of the input class bytes.
+	 */
+	public int getInputLength() {
+		return inputLength;
+	}
+
+	/**
+	 * Gets the length of the output class bytes.
+	 * <p>
+	 * Same as the input length if there are no optimized bytes.
+	 */
+	public int getOutputLength() {
+		return optimizedBytes == null ? inputLength : optimizedBytes.length;
+	}
+
+	/**
+	 * Gets the results of the methods that contain self-calls in declaration order.
+	 * <p>
+	 * The methods which cannot contain optimizable self-calls based on their access flags are only included if
+	 * explaining was requested.
+	 *
+	 * @return An unmodifiable list of method results.
+	 */
+	public List<MethodOptimizationResult> getMethods() {
+		return Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * Gets the number of methods that were optimized.
+	 */
+	public int getOptimizedMethodCount() {
+		int result = 0;
+		for (MethodOptimizationResult m : methods) {
+			if (m.isOptimized()) {
+				++result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of methods that were left unchanged because their analysis exceeded the budget.
+	 *
+	 * @see AnalysisBudget
+	 */
+	public int getBudgetExceededMethodCount() {
+		int result = 0;
+		for (MethodOptimizationResult m : methods) {
+			if (m.isBudgetExceeded()) {
+				++result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of tail recursive calls that were rewritten in the class.
+	 */
+	public int getOptimizedCallCount() {
+		int result = 0;
+		for (MethodOptimizationResult m : methods) {
+			result += m.getOptimizedCallCount();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the time spent with reading the class in nanoseconds.
+	 * <p>
+	 * This includes the examination of the constant pool, and building the tree representation of the candidate
+	 * methods.
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	/**
+	 * Gets the time spent with analyzing the methods in nanoseconds.
+	 */
+	public long getAnalysisNanos() {
+		return analysisNanos;
+	}
+
+	/**
+	 * Gets the time spent with rewriting the instructions of the methods in nanoseconds.
+	 */
+	public long getTransformNanos() {
+		return transformNanos;
+	}
+
+	/**
+	 * Gets the time spent with writing the optimized class in nanoseconds.
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+	/**
+	 * Gets the total time spent with the optimization of the class in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return parseNanos + analysisNanos + transformNanos + writeNanos;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + className + ", optimized=" + optimized + ", methods=" + methods
+				+ "]";
+	}
+
+	void addMethod(MethodOptimizationResult method) {
+		analysisNanos += method.analysisNanos;
+		transformNanos += method.transformNanos;
+		if (method.selfCallCount > 0) {
+			methods.add(method);
+		}
+	}
+
+	void setOptimizedBytes(byte[] optimizedBytes) {
+		this.optimizedBytes = optimizedBytes;
+	}
+}
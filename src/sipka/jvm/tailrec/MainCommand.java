@@ -8,20 +8,34 @@ import java.nio.file.CopyOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import sipka.cmdline.api.Command;
 import sipka.cmdline.api.CommonConverter;
 import sipka.cmdline.api.Flag;
+import sipka.cmdline.api.MultiParameter;
 import sipka.cmdline.api.Parameter;
 import sipka.cmdline.api.PositionalParameter;
 
@@ -111,17 +125,198 @@ public class MainCommand {
 	 * class file that should be optimized.
 	 * 
 	 * All files which have the .class extension will be
-	 * subject to optimization.
+	 * subject to optimization, unless they are filtered by
+	 * the -include and -exclude parameters.
 	 * </pre>
 	 */
 	@Parameter(value = "input", required = true)
 	@PositionalParameter(-1)
 	public Path input;
 
+	/**
+	 * <pre>
+	 * Sets the number of threads that are used to optimize
+	 * the class files concurrently.
+	 * 
+	 * If 0, the number of available processors is used.
+	 * 
+	 * The default is 1, meaning that the classes are optimized
+	 * one after the other.
+	 * </pre>
+	 */
+	@Parameter(value = "-threads")
+	public Integer threads;
+
+	/**
+	 * <pre>
+	 * Sets the directory where the optimization results
+	 * should be cached.
+	 * 
+	 * The results are stored for each input class, based on
+	 * the contents of the class and the version of the optimizer.
+	 * Repeated runs for the same classes will use the cached
+	 * results instead of optimizing them again.
+	 * 
+	 * The cache directory can be shared between multiple
+	 * concurrent runs.
+	 * </pre>
+	 */
+	@Parameter(value = "-cache-dir")
+	public Path cacheDirectory;
+
+	/**
+	 * <pre>
+	 * Adds a pattern for the classes that should be optimized.
+	 * 
+	 * The patterns are matched against the binary names of
+	 * the classes. E.g.:
+	 * 	com.example.Main
+	 * 	com.example.*     (classes in the package)
+	 * 	com.example.**    (classes in the package and subpackages)
+	 * 
+	 * If no include patterns are specified, all classes are
+	 * optimized that are not excluded.
+	 * 
+	 * The classes that are not optimized are copied to the
+	 * output as is. Their contents are not read, and the 
+	 * JAR entries are not decompressed.
+	 * 
+	 * The filters are not applied if the input is a single
+	 * class file.
+	 * </pre>
+	 */
+	@Parameter(value = "-include")
+	@MultiParameter(String.class)
+	public List<String> includes;
+
+	/**
+	 * <pre>
+	 * Adds a pattern for the classes that shouldn't be optimized.
+	 * 
+	 * The pattern format is the same as for -include. The
+	 * exclude patterns take precedence over the include patterns.
+	 * </pre>
+	 */
+	@Parameter(value = "-exclude")
+	@MultiParameter(String.class)
+	public List<String> excludes;
+
+	/**
+	 * <pre>
+	 * Flag to print the results of the optimization as JSON
+	 * to the standard output.
+	 * 
+	 * The report contains the totals for all input classes,
+	 * and the records of the classes that have methods with
+	 * self-calls. The number of self-calls and optimized calls
+	 * are reported for each of these methods, as well as the
+	 * time spent with parsing, analyzing, transforming and 
+	 * writing the classes.
+	 * 
+	 * The -cache-dir parameter is not used if this flag is set,
+	 * as the cache doesn't store the detailed results.
+	 * </pre>
+	 */
+	@Parameter(value = "-stats")
+	@Flag
+	public Boolean stats;
+
+	/**
+	 * <pre>
+	 * Flag to only analyze the input classes without writing
+	 * any output.
+	 * 
+	 * The results are printed as JSON to the standard output
+	 * the same way as for the -stats flag.
+	 * 
+	 * The -output and -overwrite parameters cannot be used 
+	 * with this flag.
+	 * </pre>
+	 */
+	@Parameter(value = "-scan-only")
+	@Flag
+	public Boolean scanOnly;
+
+	/**
+	 * <pre>
+	 * Flag to explain why the self-calls were not optimized.
+	 * 
+	 * The report is printed the same way as for the -stats flag,
+	 * and it contains a record for each self-call that was not
+	 * optimized, with the reason, the bytecode offset and
+	 * source line number of the call, and of the instruction
+	 * that prevents the optimization. The reason codes are:
+	 * 	NON_OPTIMIZABLE_METHOD  (overridable or synchronized method)
+	 * 	TRY_CATCH               (the call is in a try block)
+	 * 	THROW                   (an exception is thrown after the call)
+	 * 	ARRAY_STORE             (an array element is stored)
+	 * 	FIELD_STORE             (a field is set)
+	 * 	MONITOR                 (monitor enter or exit instruction)
+	 * 	METHOD_CALL             (another method is called)
+	 * 	UNKNOWN_INSTRUCTION     (unsupported instruction)
+	 * 	RESULT_NOT_RETURNED     (the result is modified or discarded)
+	 * 	BUDGET_EXCEEDED         (see -method-visit-limit)
+	 * 
+	 * Can be used with -scan-only to only explain the results
+	 * without writing the output.
+	 * </pre>
+	 */
+	@Parameter(value = "-explain")
+	@Flag
+	public Boolean explain;
+
+	/**
+	 * <pre>
+	 * Sets the maximum number of instruction visits the
+	 * analysis may perform for a single method.
+	 * 
+	 * Each instruction of a method that calls itself is
+	 * visited at least once, and the instructions in loops may
+	 * be visited multiple times. If the limit is exceeded,
+	 * the method is left unchanged.
+	 * 
+	 * The default is 1000000.
+	 * </pre>
+	 */
+	@Parameter(value = "-method-visit-limit")
+	public Integer methodVisitLimit;
+
+	/**
+	 * <pre>
+	 * Sets the maximum number of instruction visits the
+	 * analysis may perform for all methods of a class.
+	 * 
+	 * If the limit is exceeded, the remaining methods of the
+	 * class are left unchanged.
+	 * 
+	 * The default is 4000000.
+	 * </pre>
+	 */
+	@Parameter(value = "-class-visit-limit")
+	public Integer classVisitLimit;
+
+	/**
+	 * The number of archive entries per thread that may be submitted for optimization ahead of the entry being
+	 * written.
+	 */
+	private static final int IN_FLIGHT_ENTRIES_PER_THREAD = 4;
+
 	private CopyOption[] copyOptions;
+	private int threadCount;
+	private ExecutorService executor;
+	private OptimizationCache cache;
+	private ClassFilter filter;
+	private AnalysisBudget budget;
+	private OptimizationReport report;
+	private boolean explainResults;
 
 	public void call() throws IOException {
-		if (output == null && overwrite == null) {
+		boolean scanonly = Boolean.TRUE.equals(scanOnly);
+		if (scanonly) {
+			if (output != null || overwrite != null) {
+				throw new IllegalArgumentException("The -scan-only flag cannot be used with -output or -overwrite.");
+			}
+		} else if (output == null && overwrite == null) {
 			throw new IllegalArgumentException("No output specified. Use -output or -overwrite parameters.");
 		}
 		if (Boolean.TRUE.equals(overwrite)) {
@@ -132,19 +327,71 @@ public class MainCommand {
 		} else {
 			copyOptions = new CopyOption[0];
 		}
+		int threadcount = getThreadCount();
+		threadCount = threadcount;
+		filter = ClassFilter.create(includes, excludes);
+		budget = AnalysisBudget.create(
+				methodVisitLimit == null ? AnalysisBudget.DEFAULT_METHOD_VISIT_LIMIT : methodVisitLimit,
+				classVisitLimit == null ? AnalysisBudget.DEFAULT_CLASS_VISIT_LIMIT : classVisitLimit);
 		input = input.toAbsolutePath().normalize();
-		output = output.toAbsolutePath().normalize();
+		if (output != null) {
+			output = output.toAbsolutePath().normalize();
+		}
 		BasicFileAttributes attrs = Files.readAttributes(input, BasicFileAttributes.class);
-		if (attrs.isRegularFile()) {
-			optimizeFile();
-		} else if (attrs.isDirectory()) {
-			optimizeDirectory();
-		} else {
-			throw new IOException("Unrecognized input file type: " + input);
+		explainResults = Boolean.TRUE.equals(explain);
+		if (scanonly || explainResults || Boolean.TRUE.equals(stats)) {
+			report = new OptimizationReport();
+		} else if (cacheDirectory != null) {
+			cache = OptimizationCache.open(cacheDirectory.toAbsolutePath().normalize());
+		}
+		if (threadcount > 1) {
+			executor = new ForkJoinPool(threadcount);
+		}
+		try {
+			if (attrs.isRegularFile()) {
+				if (scanonly) {
+					scanFile();
+				} else {
+					optimizeFile();
+				}
+			} else if (attrs.isDirectory()) {
+				if (scanonly) {
+					scanDirectory();
+				} else {
+					optimizeDirectory();
+				}
+			} else {
+				throw new IOException("Unrecognized input file type: " + input);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+		if (report != null) {
+			report.writeJson(input.toString(), scanonly, System.out);
+			System.out.flush();
+		}
+	}
+
+	private int getThreadCount() {
+		if (threads == null) {
+			return 1;
+		}
+		int result = threads;
+		if (result < 0) {
+			throw new IllegalArgumentException("Invalid thread count: " + result);
 		}
+		if (result == 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return result;
 	}
 
 	private void optimizeDirectory() throws IOException {
+		final List<Path> classfiles = new ArrayList<>();
+		final List<Long> classfilesizes = new ArrayList<>();
 		Files.walkFileTree(input, new FileVisitor<Path>() {
 			@Override
 			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
@@ -153,12 +400,20 @@ public class MainCommand {
 
 			@Override
 			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				Path outputpath = output.resolve(input.relativize(file));
-				if (file.getFileName().toString().endsWith(".class")) {
-					optimizeClassFile(file, outputpath);
+				if (filter.isIncludedResource(toResourcePath(input.relativize(file)))) {
+					if (executor == null) {
+						optimizeClassFile(file, output.resolve(input.relativize(file)),
+								toResourcePath(input.relativize(file)));
+					} else {
+						classfiles.add(file);
+						classfilesizes.add(attrs.size());
+					}
 				} else {
-					Files.createDirectories(outputpath.getParent());
-					Files.copy(file, outputpath, copyOptions);
+					Path outputpath = output.resolve(input.relativize(file));
+					if (!isSameContents(outputpath, file)) {
+						Files.createDirectories(outputpath.getParent());
+						Files.copy(file, outputpath, copyOptions);
+					}
 				}
 				return FileVisitResult.CONTINUE;
 			}
@@ -176,6 +431,24 @@ public class MainCommand {
 				return FileVisitResult.CONTINUE;
 			}
 		});
+		if (classfiles.isEmpty()) {
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>(classfiles.size());
+		for (int idx : getLargestFirstOrder(classfilesizes)) {
+			final Path file = classfiles.get(idx);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					optimizeClassFile(file, output.resolve(input.relativize(file)),
+							toResourcePath(input.relativize(file)));
+					return null;
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			getTaskResult(f);
+		}
 	}
 
 	private void optimizeFile() throws IOException {
@@ -188,61 +461,189 @@ public class MainCommand {
 
 	private void optimizeJar() throws IOException {
 		Path tempout = output.resolveSibling(output.getFileName() + "." + UUID.randomUUID());
+		try {
+			Files.createDirectories(output.getParent());
+			boolean rawcopied;
+			try (RawZipInput zipin = RawZipInput.open(input)) {
+				rawcopied = zipin != null && optimizeJarRaw(zipin, tempout);
+			}
+			if (!rawcopied) {
+				optimizeJarEntries(tempout);
+			}
+		} catch (Throwable e) {
+			//clean up temporary output in case of exception
+			Files.deleteIfExists(tempout);
+			throw e;
+		}
+		try {
+			if (!isSameContents(output, tempout)) {
+				Files.move(tempout, output, copyOptions);
+			}
+		} finally {
+			Files.deleteIfExists(tempout);
+		}
+	}
+
+	/**
+	 * Optimizes the JAR by only decompressing the class entries, and copying the compressed data of all unchanged
+	 * entries to the output.
+	 * 
+	 * @return <code>false</code> if the output couldn't be written in the non-ZIP64 format.
+	 */
+	private boolean optimizeJarRaw(RawZipInput zipin, Path tempout) throws IOException {
+		List<RawZipInput.Entry> entries = zipin.getEntries();
+		//the optimized bytes of the class entries in the order of the entries
+		//    null results are for unchanged classes
+		ClassResultWindow<RawZipInput.Entry> classresults = null;
+		if (executor != null) {
+			List<RawZipInput.Entry> classentries = new ArrayList<>();
+			for (RawZipInput.Entry entry : entries) {
+				if (isOptimizedEntry(entry.getName(), entry.isDirectory())) {
+					classentries.add(entry);
+				}
+			}
+			classresults = new ClassResultWindow<RawZipInput.Entry>(classentries) {
+				@Override
+				protected byte[] optimize(RawZipInput.Entry entry) throws Exception {
+					return optimizeRawJarClass(zipin, entry);
+				}
+			};
+		}
+		try (RawZipOutput zipout = new RawZipOutput(tempout)) {
+			for (RawZipInput.Entry entry : entries) {
+				if (!isOptimizedEntry(entry.getName(), entry.isDirectory())) {
+					zipout.copyRaw(zipin, entry);
+					continue;
+				}
+				byte[] optimizedclassbytes;
+				if (classresults == null) {
+					optimizedclassbytes = optimizeRawJarClass(zipin, entry);
+				} else {
+					optimizedclassbytes = classresults.next();
+				}
+				if (optimizedclassbytes == null) {
+					zipout.copyRaw(zipin, entry);
+				} else {
+					zipout.writeDeflated(zipin, entry, optimizedclassbytes);
+				}
+			}
+			return zipout.finish(zipin.getComment());
+		}
+	}
+
+	/**
+	 * @return The optimized class bytes or <code>null</code> if the class was not changed.
+	 */
+	private byte[] optimizeRawJarClass(RawZipInput zipin, RawZipInput.Entry entry) throws IOException {
+		byte[] entrybytes = zipin.readContents(entry);
+		byte[] optimizedclassbytes = optimizeClassBytes(entry.getName(), entrybytes);
+		if (optimizedclassbytes == entrybytes) {
+			return null;
+		}
+		return optimizedclassbytes;
+	}
+
+	/**
+	 * Optimizes the JAR by decompressing and recompressing all entries.
+	 * <p>
+	 * Used for archives that are not supported by {@link RawZipInput}.
+	 */
+	private void optimizeJarEntries(Path tempout) throws IOException {
 		byte[] bytebuf = new byte[1024 * 8];
 		ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytebuf.length);
-		try (InputStream in = Files.newInputStream(input);
-				ZipInputStream zis = new ZipInputStream(in)) {
-			Files.createDirectories(output.getParent());
+		try (ZipFile zf = new ZipFile(input.toFile())) {
+			List<? extends ZipEntry> entries = Collections.list(zf.entries());
+			//the optimized bytes of the class entries in the order of the entries
+			//    null results are for unchanged classes, they are read again when written
+			ClassResultWindow<ZipEntry> classresults = null;
+			if (executor != null) {
+				List<ZipEntry> classentries = new ArrayList<>();
+				for (ZipEntry entry : entries) {
+					if (isOptimizedEntry(entry.getName(), entry.isDirectory())) {
+						classentries.add(entry);
+					}
+				}
+				classresults = new ClassResultWindow<ZipEntry>(classentries) {
+					@Override
+					protected byte[] optimize(ZipEntry entry) throws Exception {
+						return optimizeJarClass(zf, entry, new ByteArrayOutputStream(), new byte[1024 * 8]);
+					}
+				};
+			}
+
 			try (OutputStream outos = Files.newOutputStream(tempout)) {
 				try (ZipOutputStream zos = new ZipOutputStream(outos)) {
 
-					for (ZipEntry entry; (entry = zis.getNextEntry()) != null;) {
+					for (ZipEntry entry : entries) {
 						if (entry.isDirectory()) {
 							zos.putNextEntry(entry);
 							zos.closeEntry();
 							continue;
 						}
-						if (!entry.getName().endsWith(".class")) {
+						if (!isOptimizedEntry(entry.getName(), false)) {
 							zos.putNextEntry(entry);
-							copyInputStream(bytebuf, zis, zos);
+							try (InputStream entryin = zf.getInputStream(entry)) {
+								copyInputStream(bytebuf, entryin, zos);
+							}
 							zos.closeEntry();
 							continue;
 						}
-						byte[] entrybytes = readInputStreamFully(buffer, bytebuf, zis);
-						byte[] optimizedclassbytes = TailRecursionOptimizer.optimizeMethods(entrybytes);
+						byte[] optimizedclassbytes;
+						if (classresults == null) {
+							optimizedclassbytes = optimizeJarClass(zf, entry, buffer, bytebuf);
+						} else {
+							optimizedclassbytes = classresults.next();
+						}
 
 						zos.putNextEntry(cloneEntry(entry));
-						zos.write(optimizedclassbytes);
+						if (optimizedclassbytes == null) {
+							try (InputStream entryin = zf.getInputStream(entry)) {
+								copyInputStream(bytebuf, entryin, zos);
+							}
+						} else {
+							zos.write(optimizedclassbytes);
+						}
 						zos.closeEntry();
 					}
 				}
 			}
-		} catch (Throwable e) {
-			//clean up temporary output in case of exception
-			Files.deleteIfExists(tempout);
-			throw e;
 		}
-		try {
-			Files.move(tempout, output, copyOptions);
-		} finally {
-			Files.deleteIfExists(tempout);
+	}
+
+	/**
+	 * @return The optimized class bytes or <code>null</code> if the class was not changed.
+	 */
+	private byte[] optimizeJarClass(ZipFile zf, ZipEntry entry, ByteArrayOutputStream buffer, byte[] bytebuf)
+			throws IOException {
+		byte[] entrybytes;
+		try (InputStream entryin = zf.getInputStream(entry)) {
+			entrybytes = readInputStreamFully(buffer, bytebuf, entryin);
+		}
+		byte[] optimizedclassbytes = optimizeClassBytes(entry.getName(), entrybytes);
+		if (optimizedclassbytes == entrybytes) {
+			return null;
 		}
+		return optimizedclassbytes;
 	}
 
 	private void optimizeClassFile() throws IOException {
 		Path inputpath = input;
 		Path outputpath = output;
 
-		optimizeClassFile(inputpath, outputpath);
+		optimizeClassFile(inputpath, outputpath, inputpath.getFileName().toString());
 	}
 
-	private void optimizeClassFile(Path inputpath, Path outputpath) throws IOException {
+	private void optimizeClassFile(Path inputpath, Path outputpath, String resourcepath) throws IOException {
 		Path tempout = outputpath.resolveSibling(outputpath.getFileName() + "." + UUID.randomUUID());
 		byte[] classbytes = Files.readAllBytes(inputpath);
-		byte[] optimizedbytes = TailRecursionOptimizer.optimizeMethods(classbytes);
+		byte[] optimizedbytes = optimizeClassBytes(resourcepath, classbytes);
 		if (classbytes == optimizedbytes && inputpath.equals(outputpath)) {
 			return;
 		}
+		if (isSameContents(outputpath, optimizedbytes)) {
+			//don't touch the output if it is already up to date
+			return;
+		}
 		Files.createDirectories(outputpath.getParent());
 		try {
 			Files.write(tempout, optimizedbytes);
@@ -258,6 +659,173 @@ public class MainCommand {
 		}
 	}
 
+	/**
+	 * Checks if the archive entry is a class file that is included by the filters.
+	 * <p>
+	 * Only the entry name is examined, so the contents of the excluded entries are never read.
+	 */
+	private boolean isOptimizedEntry(String name, boolean directory) {
+		return !directory && filter.isIncludedResource(name);
+	}
+
+	private static String toResourcePath(Path relativepath) {
+		String separator = relativepath.getFileSystem().getSeparator();
+		String result = relativepath.toString();
+		if (!"/".equals(separator)) {
+			result = result.replace(separator, "/");
+		}
+		return result;
+	}
+
+	private void scanFile() throws IOException {
+		if (input.getFileName().toString().endsWith(".class")) {
+			scanClassFile(input, input.getFileName().toString());
+			return;
+		}
+		scanJar();
+	}
+
+	private void scanDirectory() throws IOException {
+		final List<Path> classfiles = new ArrayList<>();
+		Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (filter.isIncludedResource(toResourcePath(input.relativize(file)))) {
+					classfiles.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		List<Future<?>> futures = new ArrayList<>();
+		for (final Path file : classfiles) {
+			if (executor == null) {
+				scanClassFile(file, toResourcePath(input.relativize(file)));
+				continue;
+			}
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					scanClassFile(file, toResourcePath(input.relativize(file)));
+					return null;
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			getTaskResult(f);
+		}
+	}
+
+	private void scanJar() throws IOException {
+		try (ZipFile zf = new ZipFile(input.toFile())) {
+			List<Future<?>> futures = new ArrayList<>();
+			for (final ZipEntry entry : Collections.list(zf.entries())) {
+				if (!isOptimizedEntry(entry.getName(), entry.isDirectory())) {
+					continue;
+				}
+				if (executor == null) {
+					scanJarEntry(zf, entry);
+					continue;
+				}
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						scanJarEntry(zf, entry);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				getTaskResult(f);
+			}
+		}
+	}
+
+	private void scanClassFile(Path file, String resourcepath) throws IOException {
+		byte[] classbytes = Files.readAllBytes(file);
+		report.add(resourcepath,
+				TailRecursionOptimizer.scanClass(classbytes, 0, classbytes.length, explainResults, budget));
+	}
+
+	private void scanJarEntry(ZipFile zf, ZipEntry entry) throws IOException {
+		byte[] entrybytes;
+		try (InputStream entryin = zf.getInputStream(entry)) {
+			entrybytes = readInputStreamFully(new ByteArrayOutputStream(), new byte[1024 * 8], entryin);
+		}
+		report.add(entry.getName(),
+				TailRecursionOptimizer.scanClass(entrybytes, 0, entrybytes.length, explainResults, budget));
+	}
+
+	/**
+	 * @param resourcepath
+	 *            The path of the class file relative to the input, used for reporting.
+	 * @return The optimized class bytes, or the argument if the class was not changed.
+	 */
+	private byte[] optimizeClassBytes(String resourcepath, byte[] classbytes) throws IOException {
+		if (report != null) {
+			ClassOptimizationResult result = TailRecursionOptimizer.optimizeClass(classbytes, 0, classbytes.length,
+					explainResults, budget);
+			report.add(resourcepath, result);
+			byte[] optimizedbytes = result.getOptimizedBytes();
+			return optimizedbytes == null ? classbytes : optimizedbytes;
+		}
+		byte[] optimizedbytes;
+		if (cache != null) {
+			optimizedbytes = cache.tryOptimizeMethods(classbytes, 0, classbytes.length, null, budget);
+		} else {
+			optimizedbytes = TailRecursionOptimizer.tryOptimizeMethods(classbytes, 0, classbytes.length, null,
+					budget);
+		}
+		return optimizedbytes == null ? classbytes : optimizedbytes;
+	}
+
+	private static boolean isSameContents(Path file, byte[] contents) throws IOException {
+		try {
+			if (Files.size(file) != contents.length) {
+				return false;
+			}
+			return Arrays.equals(Files.readAllBytes(file), contents);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private static boolean isSameContents(Path file, Path expectedfile) throws IOException {
+		try {
+			if (Files.size(file) != Files.size(expectedfile)) {
+				return false;
+			}
+			try (InputStream in = Files.newInputStream(file);
+					InputStream expectedin = Files.newInputStream(expectedfile)) {
+				byte[] buf = new byte[1024 * 8];
+				byte[] expectedbuf = new byte[buf.length];
+				while (true) {
+					int read = readFully(in, buf);
+					if (read != readFully(expectedin, expectedbuf)) {
+						return false;
+					}
+					if (read == 0) {
+						return true;
+					}
+					for (int i = 0; i < read; i++) {
+						if (buf[i] != expectedbuf[i]) {
+							return false;
+						}
+					}
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] buf) throws IOException {
+		int len = 0;
+		for (int read; len < buf.length && (read = in.read(buf, len, buf.length - len)) > 0;) {
+			len += read;
+		}
+		return len;
+	}
+
 	private static ZipEntry cloneEntry(ZipEntry entry) {
 		ZipEntry nentry = new ZipEntry(entry.getName());
 		FileTime ctime = entry.getCreationTime();
@@ -281,13 +849,105 @@ public class MainCommand {
 		}
 	}
 
-	private static byte[] readInputStreamFully(ByteArrayOutputStream buffer, byte[] bytebuf, ZipInputStream zis)
+	private static byte[] readInputStreamFully(ByteArrayOutputStream buffer, byte[] bytebuf, InputStream in)
 			throws IOException {
 		buffer.reset();
-		copyInputStream(bytebuf, zis, buffer);
+		copyInputStream(bytebuf, in, buffer);
 		return buffer.toByteArray();
 	}
 
+	/**
+	 * Gets the indexes of the argument sizes in descending order of the sizes.
+	 * <p>
+	 * The larger inputs take longer to optimize, so they are scheduled first for better load balancing.
+	 */
+	private static Integer[] getLargestFirstOrder(final List<Long> sizes) {
+		Integer[] result = new Integer[sizes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = i;
+		}
+		Arrays.sort(result, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer l, Integer r) {
+				return Long.compare(sizes.get(r), sizes.get(l));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Optimizes the class entries of an archive concurrently, and provides the results in the order of the entries.
+	 * <p>
+	 * The results serve as a reorder buffer, as the entries are written in the original order. To bound the memory
+	 * usage, only a limited number of entries are submitted ahead of the one being written, and the window is topped
+	 * up as the results are retrieved.
+	 *
+	 * @param <E>
+	 *            The type of the entries.
+	 */
+	private abstract class ClassResultWindow<E> {
+		private final Iterator<E> entries;
+		private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		private final int maxPendingCount;
+
+		public ClassResultWindow(List<E> entries) {
+			this.entries = entries.iterator();
+			this.maxPendingCount = Math.max(threadCount, 1) * IN_FLIGHT_ENTRIES_PER_THREAD;
+			submitPending();
+		}
+
+		/**
+		 * Optimizes the class entry.
+		 *
+		 * @return The optimized class bytes or <code>null</code> if the class was not changed.
+		 */
+		protected abstract byte[] optimize(E entry) throws Exception;
+
+		/**
+		 * Gets the result of the next class entry.
+		 *
+		 * @return The optimized class bytes or <code>null</code> if the class was not changed.
+		 */
+		public byte[] next() throws IOException {
+			Future<byte[]> future = pending.removeFirst();
+			submitPending();
+			return getTaskResult(future);
+		}
+
+		private void submitPending() {
+			while (pending.size() < maxPendingCount && entries.hasNext()) {
+				final E entry = entries.next();
+				pending.addLast(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws Exception {
+						return optimize(entry);
+					}
+				}));
+			}
+		}
+	}
+
+	private static <T> T getTaskResult(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for optimization.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Failed to optimize.", cause);
+		}
+	}
+
 	/**
 	 * Convers the given argument to a {@link Path}.
 	 * <p>
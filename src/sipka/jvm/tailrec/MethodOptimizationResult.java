@@ -0,0 +1,115 @@
+package sipka.jvm.tailrec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of optimizing a single method that contains self-calls.
+ * <p>
+ * Instances are created by {@link TailRecursionOptimizer} and are part of a {@link ClassOptimizationResult}.
+ */
+public final class MethodOptimizationResult {
+	private final String name;
+	private final String descriptor;
+
+	int selfCallCount;
+	int optimizedCallCount;
+	long analysisNanos;
+	long transformNanos;
+	boolean budgetExceeded;
+	private List<RejectedCall> rejectedCalls = Collections.emptyList();
+
+	MethodOptimizationResult(String name, String descriptor) {
+		this.name = name;
+		this.descriptor = descriptor;
+	}
+
+	/**
+	 * Gets the name of the method.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the descriptor of the method.
+	 */
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	/**
+	 * Checks if any of the self-calls in the method was optimized.
+	 */
+	public boolean isOptimized() {
+		return optimizedCallCount > 0;
+	}
+
+	/**
+	 * Checks if the optimization of the method was given up, because its analysis exceeded the budget.
+	 * <p>
+	 * The method is left unchanged in this case.
+	 *
+	 * @see AnalysisBudget
+	 */
+	public boolean isBudgetExceeded() {
+		return budgetExceeded;
+	}
+
+	/**
+	 * Gets the number of calls in the method that invoke the method itself.
+	 */
+	public int getSelfCallCount() {
+		return selfCallCount;
+	}
+
+	/**
+	 * Gets the number of tail recursive calls that were rewritten.
+	 * <p>
+	 * Calls that were removed as part of the return path of another optimized call are not counted.
+	 */
+	public int getOptimizedCallCount() {
+		return optimizedCallCount;
+	}
+
+	/**
+	 * Gets the time spent with analyzing the method in nanoseconds.
+	 */
+	public long getAnalysisNanos() {
+		return analysisNanos;
+	}
+
+	/**
+	 * Gets the time spent with rewriting the instructions of the method in nanoseconds.
+	 */
+	public long getTransformNanos() {
+		return transformNanos;
+	}
+
+	/**
+	 * Gets the diagnostics of the self-calls that were not optimized, in the order they appear in the method.
+	 * <p>
+	 * The rejected calls are only recorded if explaining was requested when optimizing the class.
+	 *
+	 * @return An unmodifiable list of rejected calls.
+	 * @see TailRecursionOptimizer#optimizeClass(byte[], int, int, boolean)
+	 */
+	public List<RejectedCall> getRejectedCalls() {
+		return Collections.unmodifiableList(rejectedCalls);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + name + descriptor + ", selfCallCount=" + selfCallCount
+				+ ", optimizedCallCount=" + optimizedCallCount + ", budgetExceeded=" + budgetExceeded + ", rejectedCalls="
+				+ rejectedCalls + "]";
+	}
+
+	void addRejectedCall(RejectedCall call) {
+		if (rejectedCalls.isEmpty()) {
+			rejectedCalls = new ArrayList<>();
+		}
+		rejectedCalls.add(call);
+	}
+}
@@ -0,0 +1,513 @@
+package sipka.jvm.tailrec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Persistent content addressed cache of the optimization results.
+ * <p>
+ * The results are stored in files named by the hash of the input class bytes and the optimizer implementation. The
+ * first byte of a file is {@link #RESULT_UNCHANGED} if the optimizer returned the input unchanged, or
+ * {@link #RESULT_OPTIMIZED} followed by the optimized class bytes.
+ * <p>
+ * A cache created with {@link #createInMemory()} keeps the results in memory instead. The number of in-memory entries
+ * is limited, the least recently used ones are evicted, and the results are softly referenced so they can be
+ * reclaimed when the memory is low.
+ * <p>
+ * The cache can be used concurrently, even by multiple processes.
+ */
+public final class OptimizationCache {
+	/**
+	 * The default maximum number of entries of an in-memory cache.
+	 *
+	 * @see #createInMemory(int)
+	 */
+	public static final int DEFAULT_MEMORY_ENTRY_COUNT = 1024 * 16;
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final byte RESULT_UNCHANGED = 0;
+	private static final byte RESULT_OPTIMIZED = 1;
+
+	private static final int CONSTANT_UTF8_TAG = 1;
+	private static final int CONSTANT_INTEGER_TAG = 3;
+	private static final int CONSTANT_FLOAT_TAG = 4;
+	private static final int CONSTANT_LONG_TAG = 5;
+	private static final int CONSTANT_DOUBLE_TAG = 6;
+	private static final int CONSTANT_CLASS_TAG = 7;
+	private static final int CONSTANT_STRING_TAG = 8;
+	private static final int CONSTANT_FIELDREF_TAG = 9;
+	private static final int CONSTANT_METHODREF_TAG = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF_TAG = 11;
+	private static final int CONSTANT_NAME_AND_TYPE_TAG = 12;
+	private static final int CONSTANT_METHOD_HANDLE_TAG = 15;
+	private static final int CONSTANT_METHOD_TYPE_TAG = 16;
+	private static final int CONSTANT_DYNAMIC_TAG = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC_TAG = 18;
+	private static final int CONSTANT_MODULE_TAG = 19;
+	private static final int CONSTANT_PACKAGE_TAG = 20;
+	private static final String OPTIMIZER_PACKAGE_PREFIX = "sipka/jvm/tailrec/";
+
+	/**
+	 * The classes that determine the output of the optimizer.
+	 * <p>
+	 * The contents of these, and of all optimizer classes referenced by them transitively (including the nested
+	 * classes and the shaded ASM classes) are part of the cache keys, so the cached results are invalidated when the
+	 * optimizer implementation changes.
+	 */
+	private static final Class<?>[] OPTIMIZER_CLASSES = { TailRecursionOptimizer.class, ReturnPathAnalyzer.class,
+			AnalysisBudget.class };
+
+	private static volatile byte[] optimizerHash;
+
+	private final Path directory;
+	/**
+	 * The in-memory results in access order, or <code>null</code> if the results are stored in the directory.
+	 * <p>
+	 * Accessed while locked on itself.
+	 */
+	private final Map<String, SoftReference<byte[]>> memoryResults;
+
+	private OptimizationCache(Path directory) {
+		this.directory = directory;
+		this.memoryResults = null;
+	}
+
+	private OptimizationCache(final int maxentrycount) {
+		this.directory = null;
+		this.memoryResults = new LinkedHashMap<String, SoftReference<byte[]>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SoftReference<byte[]>> eldest) {
+				return size() > maxentrycount;
+			}
+		};
+	}
+
+	/**
+	 * Opens the cache in the given directory, creating it if necessary.
+	 *
+	 * @param directory
+	 *            The cache directory.
+	 * @return The cache.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 */
+	public static OptimizationCache open(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		try {
+			getOptimizerHash();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return new OptimizationCache(directory);
+	}
+
+	/**
+	 * Creates a new cache that keeps the results in memory.
+	 * <p>
+	 * The same instance can be shared by multiple optimizing class loaders, so the classes loaded by all of them are
+	 * only optimized once. Only the classes that contain self-calls are stored, others are rejected by the optimizer
+	 * without hashing them.
+	 * <p>
+	 * The cache holds at most {@link #DEFAULT_MEMORY_ENTRY_COUNT} entries.
+	 *
+	 * @return The cache.
+	 * @see #createInMemory(int)
+	 */
+	public static OptimizationCache createInMemory() {
+		return new OptimizationCache(DEFAULT_MEMORY_ENTRY_COUNT);
+	}
+
+	/**
+	 * Creates a new cache that keeps at most the given number of results in memory.
+	 * <p>
+	 * If the limit is reached, the least recently used entries are evicted. The results are softly referenced, so they
+	 * may also be reclaimed by the garbage collector.
+	 *
+	 * @param maxentrycount
+	 *            The maximum number of entries.
+	 * @return The cache.
+	 * @throws IllegalArgumentException
+	 *             If the entry count is less than 1.
+	 * @see #createInMemory()
+	 */
+	public static OptimizationCache createInMemory(int maxentrycount) throws IllegalArgumentException {
+		if (maxentrycount < 1) {
+			throw new IllegalArgumentException("Invalid maximum entry count: " + maxentrycount);
+		}
+		return new OptimizationCache(maxentrycount);
+	}
+
+	/**
+	 * Gets the version identifier of the optimizer implementation.
+	 * <p>
+	 * The identifier is the hash of the optimizer classes, it changes if the output of the optimizer may change.
+	 *
+	 * @return The version identifier.
+	 * @throws UncheckedIOException
+	 *             If the optimizer classes failed to be read.
+	 */
+	public static String getOptimizerVersion() throws UncheckedIOException {
+		return toHexString(getOptimizerHash());
+	}
+
+	/**
+	 * Optimizes the argument class bytes, or retrieves the result from the cache.
+	 *
+	 * @param classbytes
+	 *            The class bytes to optimize.
+	 * @return The optimized class bytes. Same as the argument by identity if the optimizer didn't change the class.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 * @see TailRecursionOptimizer#optimizeMethods(byte[])
+	 */
+	public byte[] optimizeMethods(byte[] classbytes) throws IOException {
+		byte[] result = tryOptimizeMethods(classbytes, 0, classbytes.length);
+		if (result == null) {
+			return classbytes;
+		}
+		return result;
+	}
+
+	/**
+	 * Optimizes the argument class bytes if there are any optimizations to perform, or retrieves the result from the
+	 * cache.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @return The optimized bytecode or <code>null</code> if the optimizer didn't change the class.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 * @see TailRecursionOptimizer#tryOptimizeMethods(byte[], int, int)
+	 */
+	public byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length) throws IOException {
+		return tryOptimizeMethods(classbytes, offset, length, null);
+	}
+
+	/**
+	 * Optimizes the argument class bytes if there are any optimizations to perform, or retrieves the result from the
+	 * cache, and records the statistics of the optimization.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param statistics
+	 *            The statistics to add the results to. May be <code>null</code>.
+	 * @return The optimized bytecode or <code>null</code> if the optimizer didn't change the class.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 * @see TailRecursionOptimizer#tryOptimizeMethods(byte[], int, int, OptimizationStatistics)
+	 */
+	public byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length, OptimizationStatistics statistics)
+			throws IOException {
+		return tryOptimizeMethods(classbytes, offset, length, statistics, AnalysisBudget.DEFAULT);
+	}
+
+	/**
+	 * Optimizes the argument class bytes using the specified analysis budget if there are any optimizations to
+	 * perform, or retrieves the result from the cache, and records the statistics of the optimization.
+	 * <p>
+	 * The results are cached separately for different budgets.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param statistics
+	 *            The statistics to add the results to. May be <code>null</code>.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @return The optimized bytecode or <code>null</code> if the optimizer didn't change the class.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 * @see TailRecursionOptimizer#tryOptimizeMethods(byte[], int, int, OptimizationStatistics, AnalysisBudget)
+	 */
+	public byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length, OptimizationStatistics statistics,
+			AnalysisBudget budget) throws IOException {
+		long starttime = statistics == null ? 0 : System.nanoTime();
+		if (!TailRecursionOptimizer.hasSelfCallCandidates(classbytes, offset, length)) {
+			//most classes are rejected by the optimizer without parsing them, hashing them would be more expensive
+			if (statistics != null) {
+				statistics.addClass(length, length, false, System.nanoTime() - starttime, 0);
+			}
+			return null;
+		}
+		String resultkey = getResultKey(classbytes, offset, length, budget);
+		byte[] cached = readResult(resultkey);
+		if (cached != null) {
+			if (cached[0] == RESULT_UNCHANGED) {
+				if (statistics != null) {
+					statistics.addCachedClass(length, length, false);
+				}
+				return null;
+			}
+			if (statistics != null) {
+				statistics.addCachedClass(length, cached.length - 1, true);
+			}
+			return Arrays.copyOfRange(cached, 1, cached.length);
+		}
+		byte[] result = TailRecursionOptimizer.tryOptimizeMethods(classbytes, offset, length, statistics, budget);
+		byte[] entry;
+		if (result == null) {
+			entry = new byte[] { RESULT_UNCHANGED };
+		} else {
+			entry = new byte[result.length + 1];
+			entry[0] = RESULT_OPTIMIZED;
+			System.arraycopy(result, 0, entry, 1, result.length);
+		}
+		writeResult(resultkey, entry);
+		return result;
+	}
+
+	private String getResultKey(byte[] classbytes, int offset, int length, AnalysisBudget budget) {
+		MessageDigest digest = createDigest();
+		if (directory != null) {
+			//the in-memory results can't outlive the loaded optimizer
+			digest.update(getOptimizerHash());
+		}
+		if (!AnalysisBudget.DEFAULT.equals(budget)) {
+			//the default budget is part of the optimizer hash
+			digest.update(ByteBuffer.allocate(16).putLong(budget.getMethodVisitLimit())
+					.putLong(budget.getClassVisitLimit()).array());
+		}
+		digest.update(classbytes, offset, length);
+		return toHexString(digest.digest());
+	}
+
+	private Path getResultPath(String resultkey) {
+		return directory.resolve(resultkey.substring(0, 2)).resolve(resultkey.substring(2));
+	}
+
+	private byte[] readResult(String resultkey) throws IOException {
+		if (memoryResults != null) {
+			SoftReference<byte[]> ref;
+			synchronized (memoryResults) {
+				ref = memoryResults.get(resultkey);
+			}
+			return ref == null ? null : ref.get();
+		}
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(getResultPath(resultkey));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		if (bytes.length == 0 || (bytes[0] == RESULT_UNCHANGED && bytes.length != 1)
+				|| (bytes[0] != RESULT_UNCHANGED && bytes[0] != RESULT_OPTIMIZED)) {
+			//corrupt entry, will be overwritten
+			return null;
+		}
+		return bytes;
+	}
+
+	private void writeResult(String resultkey, byte[] entry) throws IOException {
+		if (memoryResults != null) {
+			synchronized (memoryResults) {
+				memoryResults.put(resultkey, new SoftReference<>(entry));
+			}
+			return;
+		}
+		Path resultpath = getResultPath(resultkey);
+		Files.createDirectories(resultpath.getParent());
+		Path tempfile = resultpath.resolveSibling(resultpath.getFileName() + "." + UUID.randomUUID());
+		try {
+			Files.write(tempfile, entry);
+			Files.move(tempfile, resultpath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempfile);
+		}
+	}
+
+	private static byte[] getOptimizerHash() throws UncheckedIOException {
+		byte[] result = optimizerHash;
+		if (result == null) {
+			try {
+				result = computeOptimizerHash();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			optimizerHash = result;
+		}
+		return result;
+	}
+
+	private static byte[] computeOptimizerHash() throws IOException {
+		ClassLoader cl = OptimizationCache.class.getClassLoader();
+		//sorted by name, so the hash doesn't depend on the order of the references
+		Map<String, byte[]> classfiles = new TreeMap<>();
+		Deque<String> pending = new ArrayDeque<>();
+		for (Class<?> c : OPTIMIZER_CLASSES) {
+			pending.add(c.getName().replace('.', '/'));
+		}
+		for (String classname; (classname = pending.poll()) != null;) {
+			if (classfiles.containsKey(classname)) {
+				continue;
+			}
+			byte[] bytes = readClassFile(cl, classname);
+			classfiles.put(classname, bytes);
+			for (String referenced : getReferencedClassNames(bytes)) {
+				if (referenced.startsWith(OPTIMIZER_PACKAGE_PREFIX) && !classfiles.containsKey(referenced)) {
+					pending.add(referenced);
+				}
+			}
+		}
+		MessageDigest digest = createDigest();
+		for (Entry<String, byte[]> entry : classfiles.entrySet()) {
+			digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update(entry.getValue());
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Collects the class names in the constant pool of the class file.
+	 * <p>
+	 * The constant pool is parsed directly, as the optimizer classes may have a newer class file version than the
+	 * supported one.
+	 */
+	private static List<String> getReferencedClassNames(byte[] classbytes) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(classbytes);
+		buf.position(8);
+		int itemcount = buf.getShort() & 0xFFFF;
+		int[] utf8offsets = new int[itemcount];
+		List<Integer> classnameitems = new ArrayList<>();
+		for (int i = 1; i < itemcount; i++) {
+			int tag = buf.get();
+			switch (tag) {
+				case CONSTANT_UTF8_TAG: {
+					utf8offsets[i] = buf.position();
+					buf.position(buf.position() + 2 + (buf.getShort(buf.position()) & 0xFFFF));
+					break;
+				}
+				case CONSTANT_CLASS_TAG: {
+					classnameitems.add(buf.getShort() & 0xFFFF);
+					break;
+				}
+				case CONSTANT_LONG_TAG:
+				case CONSTANT_DOUBLE_TAG: {
+					buf.position(buf.position() + 8);
+					//takes two entries
+					++i;
+					break;
+				}
+				case CONSTANT_METHOD_HANDLE_TAG: {
+					buf.position(buf.position() + 3);
+					break;
+				}
+				case CONSTANT_STRING_TAG:
+				case CONSTANT_METHOD_TYPE_TAG:
+				case CONSTANT_MODULE_TAG:
+				case CONSTANT_PACKAGE_TAG: {
+					buf.position(buf.position() + 2);
+					break;
+				}
+				case CONSTANT_INTEGER_TAG:
+				case CONSTANT_FLOAT_TAG:
+				case CONSTANT_FIELDREF_TAG:
+				case CONSTANT_METHODREF_TAG:
+				case CONSTANT_INTERFACE_METHODREF_TAG:
+				case CONSTANT_NAME_AND_TYPE_TAG:
+				case CONSTANT_DYNAMIC_TAG:
+				case CONSTANT_INVOKE_DYNAMIC_TAG: {
+					buf.position(buf.position() + 4);
+					break;
+				}
+				default: {
+					throw new IOException("Unknown constant pool tag: " + tag);
+				}
+			}
+		}
+		List<String> result = new ArrayList<>(classnameitems.size());
+		for (int nameitem : classnameitems) {
+			int offset = utf8offsets[nameitem];
+			int len = ((classbytes[offset] & 0xFF) << 8) | (classbytes[offset + 1] & 0xFF);
+			String name = new DataInputStream(new ByteArrayInputStream(classbytes, offset, len + 2)).readUTF();
+			result.add(getReferencedClassName(name));
+		}
+		return result;
+	}
+
+	private static String getReferencedClassName(String classitem) {
+		//array types are in descriptor format
+		int dims = 0;
+		while (dims < classitem.length() && classitem.charAt(dims) == '[') {
+			++dims;
+		}
+		if (dims == 0) {
+			return classitem;
+		}
+		if (classitem.charAt(dims) != 'L') {
+			//primitive array
+			return "";
+		}
+		return classitem.substring(dims + 1, classitem.length() - 1);
+	}
+
+	private static byte[] readClassFile(ClassLoader cl, String classname) throws IOException {
+		String resname = classname + ".class";
+		try (InputStream in = cl == null ? ClassLoader.getSystemResourceAsStream(resname)
+				: cl.getResourceAsStream(resname)) {
+			if (in == null) {
+				throw new IOException("Optimizer class not found: " + resname);
+			}
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024 * 8];
+			for (int read; (read = in.read(buf)) > 0;) {
+				baos.write(buf, 0, read);
+			}
+			return baos.toByteArray();
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(HASH_ALGORITHM + " is not available.", e);
+		}
+	}
+
+	private static String toHexString(byte[] bytes) {
+		char[] result = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & 0xFF;
+			result[i * 2] = Character.forDigit(b >>> 4, 16);
+			result[i * 2 + 1] = Character.forDigit(b & 0xF, 16);
+		}
+		return new String(result);
+	}
+}
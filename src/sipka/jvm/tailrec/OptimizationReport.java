@@ -0,0 +1,203 @@
+package sipka.jvm.tailrec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the optimization results of the classes processed by the command line interface, and writes them as JSON.
+ * <p>
+ * The class is thread safe.
+ */
+final class OptimizationReport {
+	private final Map<String, ClassOptimizationResult> results = new ConcurrentHashMap<>();
+
+	public OptimizationReport() {
+	}
+
+	/**
+	 * Adds the result of a class.
+	 *
+	 * @param resourcepath
+	 *            The path of the class file relative to the input.
+	 * @param result
+	 *            The optimization result.
+	 */
+	public void add(String resourcepath, ClassOptimizationResult result) {
+		results.put(resourcepath, result);
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 * <p>
+	 * The report contains the totals of all classes, and the records of the classes that have methods with self-calls,
+	 * ordered by their paths. The rejected calls are included for the methods if the results were explained.
+	 */
+	public void writeJson(String input, boolean scanonly, Appendable out) throws IOException {
+		List<Map.Entry<String, ClassOptimizationResult>> entries = new ArrayList<>(results.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, ClassOptimizationResult>>() {
+			@Override
+			public int compare(Map.Entry<String, ClassOptimizationResult> l,
+					Map.Entry<String, ClassOptimizationResult> r) {
+				return l.getKey().compareTo(r.getKey());
+			}
+		});
+		long selfcallclasscount = 0;
+		long optimizedclasscount = 0;
+		long optimizedmethodcount = 0;
+		long optimizedcallcount = 0;
+		long budgetexceededmethodcount = 0;
+		long inputbytes = 0;
+		long outputbytes = 0;
+		long parsenanos = 0;
+		long analysisnanos = 0;
+		long transformnanos = 0;
+		long writenanos = 0;
+		for (Map.Entry<String, ClassOptimizationResult> entry : entries) {
+			ClassOptimizationResult result = entry.getValue();
+			if (!result.getMethods().isEmpty()) {
+				++selfcallclasscount;
+			}
+			if (result.isOptimized()) {
+				++optimizedclasscount;
+			}
+			optimizedmethodcount += result.getOptimizedMethodCount();
+			optimizedcallcount += result.getOptimizedCallCount();
+			budgetexceededmethodcount += result.getBudgetExceededMethodCount();
+			inputbytes += result.getInputLength();
+			outputbytes += result.getOutputLength();
+			parsenanos += result.getParseNanos();
+			analysisnanos += result.getAnalysisNanos();
+			transformnanos += result.getTransformNanos();
+			writenanos += result.getWriteNanos();
+		}
+
+		out.append("{\n");
+		out.append("  \"input\": ").append(toJsonString(input)).append(",\n");
+		out.append("  \"scanOnly\": ").append(Boolean.toString(scanonly)).append(",\n");
+		out.append("  \"classCount\": ").append(Integer.toString(entries.size())).append(",\n");
+		out.append("  \"selfCallClassCount\": ").append(Long.toString(selfcallclasscount)).append(",\n");
+		out.append("  \"optimizedClassCount\": ").append(Long.toString(optimizedclasscount)).append(",\n");
+		out.append("  \"optimizedMethodCount\": ").append(Long.toString(optimizedmethodcount)).append(",\n");
+		out.append("  \"optimizedCallCount\": ").append(Long.toString(optimizedcallcount)).append(",\n");
+		out.append("  \"budgetExceededMethodCount\": ").append(Long.toString(budgetexceededmethodcount))
+				.append(",\n");
+		out.append("  \"inputBytes\": ").append(Long.toString(inputbytes)).append(",\n");
+		out.append("  \"outputBytes\": ").append(Long.toString(outputbytes)).append(",\n");
+		out.append("  \"timings\": ");
+		appendTimings(out, parsenanos, analysisnanos, transformnanos, writenanos);
+		out.append(",\n");
+		out.append("  \"classes\": [");
+		boolean firstclass = true;
+		for (Map.Entry<String, ClassOptimizationResult> entry : entries) {
+			ClassOptimizationResult result = entry.getValue();
+			List<MethodOptimizationResult> methods = result.getMethods();
+			if (methods.isEmpty()) {
+				continue;
+			}
+			out.append(firstclass ? "\n" : ",\n");
+			firstclass = false;
+			out.append("    {\n");
+			out.append("      \"path\": ").append(toJsonString(entry.getKey())).append(",\n");
+			out.append("      \"className\": ").append(toJsonString(result.getClassName())).append(",\n");
+			String sourcefile = result.getSourceFile();
+			if (sourcefile != null) {
+				out.append("      \"sourceFile\": ").append(toJsonString(sourcefile)).append(",\n");
+			}
+			out.append("      \"optimized\": ").append(Boolean.toString(result.isOptimized())).append(",\n");
+			out.append("      \"inputBytes\": ").append(Integer.toString(result.getInputLength())).append(",\n");
+			out.append("      \"outputBytes\": ").append(Integer.toString(result.getOutputLength())).append(",\n");
+			out.append("      \"timings\": ");
+			appendTimings(out, result.getParseNanos(), result.getAnalysisNanos(), result.getTransformNanos(),
+					result.getWriteNanos());
+			out.append(",\n");
+			out.append("      \"methods\": [\n");
+			for (int i = 0; i < methods.size(); i++) {
+				MethodOptimizationResult method = methods.get(i);
+				out.append("        { \"name\": ").append(toJsonString(method.getName()));
+				out.append(", \"descriptor\": ").append(toJsonString(method.getDescriptor()));
+				out.append(", \"selfCallCount\": ").append(Integer.toString(method.getSelfCallCount()));
+				out.append(", \"optimizedCallCount\": ").append(Integer.toString(method.getOptimizedCallCount()));
+				out.append(", \"analysisNanos\": ").append(Long.toString(method.getAnalysisNanos()));
+				out.append(", \"transformNanos\": ").append(Long.toString(method.getTransformNanos()));
+				if (method.isBudgetExceeded()) {
+					out.append(", \"budgetExceeded\": true");
+				}
+				List<RejectedCall> rejectedcalls = method.getRejectedCalls();
+				if (!rejectedcalls.isEmpty()) {
+					out.append(", \"rejectedCalls\": [");
+					for (int j = 0; j < rejectedcalls.size(); j++) {
+						RejectedCall call = rejectedcalls.get(j);
+						out.append(j == 0 ? "\n" : ",\n");
+						out.append("          { \"reason\": ").append(toJsonString(call.getReason().name()));
+						out.append(", \"offset\": ").append(Integer.toString(call.getOffset()));
+						out.append(", \"line\": ").append(Integer.toString(call.getLine()));
+						out.append(", \"blockingOffset\": ").append(Integer.toString(call.getBlockingOffset()));
+						out.append(", \"blockingLine\": ").append(Integer.toString(call.getBlockingLine()));
+						out.append(" }");
+					}
+					out.append("\n        ]");
+				}
+				out.append(" }");
+				out.append(i + 1 < methods.size() ? ",\n" : "\n");
+			}
+			out.append("      ]\n");
+			out.append("    }");
+		}
+		out.append(firstclass ? "]\n" : "\n  ]\n");
+		out.append("}\n");
+	}
+
+	private static void appendTimings(Appendable out, long parsenanos, long analysisnanos, long transformnanos,
+			long writenanos) throws IOException {
+		out.append("{ \"parseNanos\": ").append(Long.toString(parsenanos));
+		out.append(", \"analysisNanos\": ").append(Long.toString(analysisnanos));
+		out.append(", \"transformNanos\": ").append(Long.toString(transformnanos));
+		out.append(", \"writeNanos\": ").append(Long.toString(writenanos));
+		out.append(" }");
+	}
+
+	private static String toJsonString(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': {
+					sb.append("\\\"");
+					break;
+				}
+				case '\\': {
+					sb.append("\\\\");
+					break;
+				}
+				case '\n': {
+					sb.append("\\n");
+					break;
+				}
+				case '\r': {
+					sb.append("\\r");
+					break;
+				}
+				case '\t': {
+					sb.append("\\t");
+					break;
+				}
+				default: {
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+					break;
+				}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,163 @@
+package sipka.jvm.tailrec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timings of the optimizations performed by {@link TailRecursionOptimizer}.
+ * <p>
+ * An instance can be passed to the optimizer to collect the statistics of multiple classes. The class is thread safe,
+ * the same instance can be used by concurrent optimizations.
+ */
+public final class OptimizationStatistics {
+	private final AtomicLong classCount = new AtomicLong();
+	private final AtomicLong parsedClassCount = new AtomicLong();
+	private final AtomicLong optimizedClassCount = new AtomicLong();
+	private final AtomicLong cachedClassCount = new AtomicLong();
+	private final AtomicLong optimizedMethodCount = new AtomicLong();
+	private final AtomicLong optimizedCallCount = new AtomicLong();
+	private final AtomicLong budgetExceededMethodCount = new AtomicLong();
+	private final AtomicLong inputBytes = new AtomicLong();
+	private final AtomicLong outputBytes = new AtomicLong();
+	private final AtomicLong analysisNanos = new AtomicLong();
+	private final AtomicLong writeNanos = new AtomicLong();
+
+	/**
+	 * Creates a new instance with all counters set to zero.
+	 */
+	public OptimizationStatistics() {
+	}
+
+	/**
+	 * Records a class for which the optimization result was retrieved from a cache instead of running the optimizer.
+	 *
+	 * @param inputlength
+	 *            The length of the input class bytes.
+	 * @param outputlength
+	 *            The length of the output class bytes.
+	 * @param optimized
+	 *            <code>true</code> if the cached result is an optimized class.
+	 */
+	public void addCachedClass(int inputlength, int outputlength, boolean optimized) {
+		cachedClassCount.incrementAndGet();
+		addClassBytes(inputlength, outputlength, optimized);
+	}
+
+	/**
+	 * Gets the number of classes that were examined, including the ones retrieved from a cache.
+	 */
+	public long getClassCount() {
+		return classCount.get();
+	}
+
+	/**
+	 * Gets the number of classes that had candidate methods and were parsed by the optimizer.
+	 * <p>
+	 * The other classes were rejected based on their constant pool.
+	 */
+	public long getParsedClassCount() {
+		return parsedClassCount.get();
+	}
+
+	/**
+	 * Gets the number of classes that were changed by the optimizer.
+	 */
+	public long getOptimizedClassCount() {
+		return optimizedClassCount.get();
+	}
+
+	/**
+	 * Gets the number of classes for which the optimization result was retrieved from a cache.
+	 */
+	public long getCachedClassCount() {
+		return cachedClassCount.get();
+	}
+
+	/**
+	 * Gets the number of methods that were optimized.
+	 */
+	public long getOptimizedMethodCount() {
+		return optimizedMethodCount.get();
+	}
+
+	/**
+	 * Gets the number of tail recursive call sites that were rewritten.
+	 */
+	public long getOptimizedCallCount() {
+		return optimizedCallCount.get();
+	}
+
+	/**
+	 * Gets the number of methods that were left unchanged, because their analysis exceeded the budget.
+	 *
+	 * @see AnalysisBudget
+	 */
+	public long getBudgetExceededMethodCount() {
+		return budgetExceededMethodCount.get();
+	}
+
+	/**
+	 * Gets the total length of the input class bytes.
+	 */
+	public long getInputBytes() {
+		return inputBytes.get();
+	}
+
+	/**
+	 * Gets the total length of the output class bytes.
+	 */
+	public long getOutputBytes() {
+		return outputBytes.get();
+	}
+
+	/**
+	 * Gets the time spent with parsing, analyzing and transforming the classes in nanoseconds.
+	 */
+	public long getAnalysisNanos() {
+		return analysisNanos.get();
+	}
+
+	/**
+	 * Gets the time spent with writing the optimized classes in nanoseconds.
+	 */
+	public long getWriteNanos() {
+		return writeNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[classCount=" + classCount + ", parsedClassCount=" + parsedClassCount
+				+ ", optimizedClassCount=" + optimizedClassCount + ", cachedClassCount=" + cachedClassCount
+				+ ", optimizedMethodCount=" + optimizedMethodCount + ", optimizedCallCount=" + optimizedCallCount
+				+ ", budgetExceededMethodCount=" + budgetExceededMethodCount + ", inputBytes=" + inputBytes
+				+ ", outputBytes=" + outputBytes + ", analysisNanos=" + analysisNanos + ", writeNanos=" + writeNanos
+				+ "]";
+	}
+
+	void addClass(int inputlength, int outputlength, boolean optimized, long analysisnanos, long writenanos) {
+		addClassBytes(inputlength, outputlength, optimized);
+		this.analysisNanos.addAndGet(analysisnanos);
+		this.writeNanos.addAndGet(writenanos);
+	}
+
+	void addParsedClass() {
+		parsedClassCount.incrementAndGet();
+	}
+
+	void addOptimizedMethod(int callcount) {
+		optimizedMethodCount.incrementAndGet();
+		optimizedCallCount.addAndGet(callcount);
+	}
+
+	void addBudgetExceededMethod() {
+		budgetExceededMethodCount.incrementAndGet();
+	}
+
+	private void addClassBytes(int inputlength, int outputlength, boolean optimized) {
+		classCount.incrementAndGet();
+		if (optimized) {
+			optimizedClassCount.incrementAndGet();
+		}
+		inputBytes.addAndGet(inputlength);
+		outputBytes.addAndGet(outputlength);
+	}
+}
@@ -0,0 +1,284 @@
+package sipka.jvm.tailrec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * {@link URLClassLoader} that optimizes the tail recursive calls in the classes it defines.
+ * <p>
+ * The classes are optimized in {@link #findClass(String)} before they are defined, so the classes loaded by the
+ * parent class loader are not affected. Most classes have no methods that call themselves, and they are rejected
+ * based on their constant pool without parsing the rest of the class.
+ * <p>
+ * The optimization results can be stored in an {@link OptimizationCache}. The same cache can be shared by multiple
+ * class loaders, e.g. by the loaders of the plugins in a plugin host, to optimize the common classes only once. See
+ * {@link OptimizationCache#createInMemory()}.
+ * <p>
+ * If the optimization of a class fails, the class is defined unchanged. The failures are counted by
+ * {@link #getFailedClassCount()}.
+ * <p>
+ * The class loader is parallel capable.
+ */
+public class OptimizingClassLoader extends URLClassLoader {
+	static {
+		registerAsParallelCapable();
+	}
+
+	private static final String CLASS_FILE_EXTENSION = ".class";
+
+	private final ClassFilter filter;
+	private final OptimizationCache cache;
+	private final AnalysisBudget budget;
+
+	private final OptimizationStatistics statistics = new OptimizationStatistics();
+	private final AtomicLong failedClassCount = new AtomicLong();
+	/**
+	 * The jar files opened by this class loader for reading the classes, mapped to their URLs.
+	 * <p>
+	 * The jar files are not shared with the cache of the URL handler, so they can be closed with the class loader.
+	 */
+	private final ConcurrentMap<String, JarFile> openedJars = new ConcurrentHashMap<>();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new class loader that optimizes all classes it defines.
+	 *
+	 * @param urls
+	 *            The URLs to load the classes and resources from.
+	 * @param parent
+	 *            The parent class loader for delegation.
+	 * @see URLClassLoader#URLClassLoader(URL[], ClassLoader)
+	 */
+	public OptimizingClassLoader(URL[] urls, ClassLoader parent) {
+		this(urls, parent, ClassFilter.ALL, null, AnalysisBudget.DEFAULT);
+	}
+
+	/**
+	 * Creates a new class loader.
+	 *
+	 * @param urls
+	 *            The URLs to load the classes and resources from.
+	 * @param parent
+	 *            The parent class loader for delegation.
+	 * @param filter
+	 *            The filter for the classes that should be optimized.
+	 * @param cache
+	 *            The cache to store the optimization results in. May be <code>null</code>.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @throws NullPointerException
+	 *             If the filter or the budget is <code>null</code>.
+	 * @see URLClassLoader#URLClassLoader(URL[], ClassLoader)
+	 */
+	public OptimizingClassLoader(URL[] urls, ClassLoader parent, ClassFilter filter, OptimizationCache cache,
+			AnalysisBudget budget) throws NullPointerException {
+		super(urls, parent);
+		Objects.requireNonNull(filter, "filter");
+		Objects.requireNonNull(budget, "budget");
+		this.filter = filter;
+		this.cache = cache;
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the statistics of the optimizations performed by this class loader.
+	 * <p>
+	 * The returned object is updated when new classes are loaded.
+	 *
+	 * @return The statistics.
+	 */
+	public final OptimizationStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets the number of classes that failed to be optimized, and were defined unchanged.
+	 */
+	public final long getFailedClassCount() {
+		return failedClassCount.get();
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		if (!filter.isAll() && !filter.isIncludedClass(name)) {
+			return super.findClass(name);
+		}
+		String resourcepath = name.replace('.', '/').concat(CLASS_FILE_EXTENSION);
+		URL url = findResource(resourcepath);
+		if (url == null) {
+			throw new ClassNotFoundException(name);
+		}
+		ClassResource resource;
+		try {
+			resource = readClassResource(url, resourcepath);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		byte[] classbytes = optimizeClass(resource.bytes);
+		int lastdot = name.lastIndexOf('.');
+		if (lastdot > 0) {
+			definePackageIfAbsent(name.substring(0, lastdot), resource.manifest, resource.codeSourceURL);
+		}
+		return defineClass(name, classbytes, 0, classbytes.length,
+				new CodeSource(resource.codeSourceURL, resource.codeSigners));
+	}
+
+	private byte[] optimizeClass(byte[] classbytes) {
+		try {
+			byte[] result;
+			if (cache != null) {
+				result = cache.tryOptimizeMethods(classbytes, 0, classbytes.length, statistics, budget);
+			} else {
+				result = TailRecursionOptimizer.tryOptimizeMethods(classbytes, 0, classbytes.length, statistics,
+						budget);
+			}
+			if (result != null) {
+				return result;
+			}
+		} catch (IOException e) {
+			failedClassCount.incrementAndGet();
+		} catch (RuntimeException e) {
+			failedClassCount.incrementAndGet();
+		}
+		return classbytes;
+	}
+
+	private void definePackageIfAbsent(String packagename, Manifest manifest, URL codesourceurl) {
+		if (getPackage(packagename) != null) {
+			return;
+		}
+		try {
+			if (manifest != null) {
+				definePackage(packagename, manifest, codesourceurl);
+			} else {
+				definePackage(packagename, null, null, null, null, null, null, null);
+			}
+		} catch (IllegalArgumentException e) {
+			//defined concurrently by an other thread
+		}
+	}
+
+	/**
+	 * Closes the class loader and the jar files opened by it.
+	 * <p>
+	 * The classes that are already loaded are still usable, but no new classes and resources can be loaded.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		IOException exc = null;
+		try {
+			super.close();
+		} catch (IOException e) {
+			exc = e;
+		}
+		for (JarFile jar : openedJars.values()) {
+			try {
+				jar.close();
+			} catch (IOException e) {
+				if (exc == null) {
+					exc = e;
+				} else {
+					exc.addSuppressed(e);
+				}
+			}
+		}
+		openedJars.clear();
+		if (exc != null) {
+			throw exc;
+		}
+	}
+
+	private ClassResource readClassResource(URL url, String resourcepath) throws IOException {
+		URLConnection conn = url.openConnection();
+		if (conn instanceof JarURLConnection) {
+			JarURLConnection jarconn = (JarURLConnection) conn;
+			JarFile jar = getJarFile(jarconn);
+			JarEntry entry = jar.getJarEntry(jarconn.getEntryName());
+			if (entry == null) {
+				throw new IOException("Class entry not found: " + url);
+			}
+			byte[] bytes;
+			try (InputStream in = jar.getInputStream(entry)) {
+				bytes = readFully(in);
+			}
+			//the signers are available after the entry is read
+			return new ClassResource(bytes, jarconn.getJarFileURL(), entry.getCodeSigners(), jar.getManifest());
+		}
+		byte[] bytes;
+		try (InputStream in = conn.getInputStream()) {
+			bytes = readFully(in);
+		}
+		return new ClassResource(bytes, getCodeSourceURL(url, resourcepath), null, null);
+	}
+
+	private JarFile getJarFile(JarURLConnection jarconn) throws IOException {
+		String jarurl = jarconn.getJarFileURL().toString();
+		JarFile jar = openedJars.get(jarurl);
+		if (jar != null) {
+			return jar;
+		}
+		//open a new jar file that is owned by this class loader, instead of the JVM wide cached one
+		jarconn.setUseCaches(false);
+		jar = jarconn.getJarFile();
+		JarFile prev = openedJars.putIfAbsent(jarurl, jar);
+		if (prev != null) {
+			//opened concurrently by an other thread
+			jar.close();
+			return prev;
+		}
+		if (closed) {
+			//the class loader was closed concurrently, the jar file may not have been closed by it
+			openedJars.remove(jarurl, jar);
+			jar.close();
+			throw new IOException("Class loader is closed.");
+		}
+		return jar;
+	}
+
+	private static URL getCodeSourceURL(URL url, String resourcepath) throws MalformedURLException {
+		String urlstr = url.toString();
+		if (!urlstr.endsWith(resourcepath)) {
+			return url;
+		}
+		return new URL(urlstr.substring(0, urlstr.length() - resourcepath.length()));
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024 * 8];
+		for (int read; (read = in.read(buffer)) > 0;) {
+			baos.write(buffer, 0, read);
+		}
+		return baos.toByteArray();
+	}
+
+	private static final class ClassResource {
+		final byte[] bytes;
+		final URL codeSourceURL;
+		final CodeSigner[] codeSigners;
+		final Manifest manifest;
+
+		ClassResource(byte[] bytes, URL codeSourceURL, CodeSigner[] codeSigners, Manifest manifest) {
+			this.bytes = bytes;
+			this.codeSourceURL = codeSourceURL;
+			this.codeSigners = codeSigners;
+			this.manifest = manifest;
+		}
+	}
+}
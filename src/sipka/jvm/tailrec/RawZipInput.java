@@ -0,0 +1,342 @@
+package sipka.jvm.tailrec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * ZIP archive reader that provides access to the raw compressed data of the entries based on the central directory.
+ * <p>
+ * Only the common archive formats are supported. ZIP64, multi-disk, and encrypted archives, or archives with
+ * compression methods other than stored and deflated are not. {@link #open(Path)} returns <code>null</code> for these.
+ * <p>
+ * The contents of the entries may be read concurrently.
+ */
+public final class RawZipInput implements Closeable {
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+	static final int LOCAL_HEADER_SIZE = 30;
+	static final int CENTRAL_HEADER_SIZE = 46;
+	static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+	static final int CENTRAL_VERSION_NEEDED_OFFSET = 6;
+	static final int CENTRAL_FLAGS_OFFSET = 8;
+	static final int CENTRAL_METHOD_OFFSET = 10;
+	static final int CENTRAL_CRC_OFFSET = 16;
+	static final int CENTRAL_COMPRESSED_SIZE_OFFSET = 20;
+	static final int CENTRAL_SIZE_OFFSET = 24;
+	static final int CENTRAL_LOCAL_HEADER_OFFSET_OFFSET = 42;
+
+	static final int FLAG_ENCRYPTED = 0x0001;
+	static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	static final int FLAG_UTF8 = 0x0800;
+
+	static final int METHOD_STORED = 0;
+	static final int METHOD_DEFLATED = 8;
+
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+	/**
+	 * An entry in the central directory of the archive.
+	 */
+	public static final class Entry {
+		protected final String name;
+		protected final int flags;
+		protected final int method;
+		protected final long compressedSize;
+		protected final long size;
+		protected final long localHeaderOffset;
+		/**
+		 * The raw bytes of the central directory record, including the name, extra field and comment.
+		 */
+		protected final byte[] centralHeader;
+
+		Entry(String name, int flags, int method, long compressedSize, long size, long localHeaderOffset,
+				byte[] centralHeader) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+			this.centralHeader = centralHeader;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the CRC-32 checksum of the uncompressed contents.
+		 */
+		public long getCrc() {
+			return ByteBuffer.wrap(centralHeader).order(ByteOrder.LITTLE_ENDIAN).getInt(CENTRAL_CRC_OFFSET)
+					& 0xFFFFFFFFL;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+
+	private final FileChannel channel;
+	private final List<Entry> entries;
+	private final byte[] comment;
+
+	private RawZipInput(FileChannel channel, List<Entry> entries, byte[] comment) {
+		this.channel = channel;
+		this.entries = entries;
+		this.comment = comment;
+	}
+
+	/**
+	 * Opens the archive at the given path.
+	 *
+	 * @param path
+	 *            The path to the archive.
+	 * @return The opened archive or <code>null</code> if the archive format is not supported.
+	 * @throws IOException
+	 *             In case of I/O error or if the file is not a ZIP archive.
+	 */
+	public static RawZipInput open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			RawZipInput result = readCentralDirectory(channel);
+			if (result == null) {
+				channel.close();
+			}
+			return result;
+		} catch (Throwable e) {
+			try {
+				channel.close();
+			} catch (Throwable e2) {
+				e.addSuppressed(e2);
+			}
+			throw e;
+		}
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	public byte[] getComment() {
+		return comment;
+	}
+
+	/**
+	 * Reads the uncompressed contents of the entry.
+	 *
+	 * @param entry
+	 *            The entry.
+	 * @return The contents.
+	 * @throws IOException
+	 *             In case of I/O error or if the entry data is malformed.
+	 */
+	public byte[] readContents(Entry entry) throws IOException {
+		byte[] data = readFully(getDataOffset(entry), (int) entry.compressedSize);
+		if (entry.method == METHOD_STORED) {
+			return data;
+		}
+		byte[] result = new byte[(int) entry.size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data);
+			int len = 0;
+			while (len < result.length) {
+				int read = inflater.inflate(result, len, result.length - len);
+				if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				len += read;
+			}
+			if (len != result.length) {
+				throw new IOException("Invalid compressed data for entry: " + entry.name);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed data for entry: " + entry.name, e);
+		} finally {
+			inflater.end();
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the extra field in the local header of the entry.
+	 */
+	public byte[] readLocalExtra(Entry entry) throws IOException {
+		ByteBuffer header = readLocalHeader(entry);
+		int namelen = header.getShort(26) & 0xFFFF;
+		int extralen = header.getShort(28) & 0xFFFF;
+		return readFully(entry.localHeaderOffset + LOCAL_HEADER_SIZE + namelen, extralen);
+	}
+
+	/**
+	 * Transfers the local header, data, and data descriptor of the entry to the argument channel as is.
+	 *
+	 * @return The number of bytes transferred.
+	 */
+	public long transferRawTo(Entry entry, WritableByteChannel target) throws IOException {
+		long dataend = getDataOffset(entry) + entry.compressedSize;
+		long end = dataend;
+		if ((entry.flags & FLAG_DATA_DESCRIPTOR) == FLAG_DATA_DESCRIPTOR) {
+			ByteBuffer sig = readBuffer(dataend, 4);
+			end += sig.getInt(0) == DATA_DESCRIPTOR_SIGNATURE ? 16 : 12;
+		}
+		long count = end - entry.localHeaderOffset;
+		long pos = entry.localHeaderOffset;
+		long remaining = count;
+		while (remaining > 0) {
+			long transferred = channel.transferTo(pos, remaining, target);
+			if (transferred <= 0) {
+				throw new IOException("Failed to transfer entry: " + entry.name);
+			}
+			pos += transferred;
+			remaining -= transferred;
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private long getDataOffset(Entry entry) throws IOException {
+		ByteBuffer header = readLocalHeader(entry);
+		int namelen = header.getShort(26) & 0xFFFF;
+		int extralen = header.getShort(28) & 0xFFFF;
+		return entry.localHeaderOffset + LOCAL_HEADER_SIZE + namelen + extralen;
+	}
+
+	private ByteBuffer readLocalHeader(Entry entry) throws IOException {
+		ByteBuffer header = readBuffer(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Invalid local header for entry: " + entry.name);
+		}
+		return header;
+	}
+
+	private byte[] readFully(long position, int length) throws IOException {
+		return readBuffer(channel, position, length).array();
+	}
+
+	private ByteBuffer readBuffer(long position, int length) throws IOException {
+		return readBuffer(channel, position, length);
+	}
+
+	private static ByteBuffer readBuffer(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			//positional reads are safe to use concurrently
+			int read = channel.read(buf, position + buf.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of archive.");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	private static RawZipInput readCentralDirectory(FileChannel channel) throws IOException {
+		long filesize = channel.size();
+		if (filesize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+			throw new IOException("Not a ZIP archive.");
+		}
+		int tailsize = (int) Math.min(filesize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+		long tailstart = filesize - tailsize;
+		ByteBuffer tail = readBuffer(channel, tailstart, tailsize);
+		int eocd = -1;
+		for (int i = tailsize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				int commentlen = tail.getShort(i + 20) & 0xFFFF;
+				if (i + END_OF_CENTRAL_DIRECTORY_SIZE + commentlen == tailsize) {
+					eocd = i;
+					break;
+				}
+			}
+		}
+		if (eocd < 0) {
+			throw new IOException("Not a ZIP archive.");
+		}
+		if (eocd >= 20 && tail.getInt(eocd - 20) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+			//ZIP64
+			return null;
+		}
+		int disk = tail.getShort(eocd + 4) & 0xFFFF;
+		int cddisk = tail.getShort(eocd + 6) & 0xFFFF;
+		int diskentrycount = tail.getShort(eocd + 8) & 0xFFFF;
+		int entrycount = tail.getShort(eocd + 10) & 0xFFFF;
+		long cdsize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+		long cdoffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+		if (disk != 0 || cddisk != 0 || diskentrycount != entrycount) {
+			//multi-disk archive
+			return null;
+		}
+		if (entrycount == 0xFFFF || cdsize == 0xFFFFFFFFL || cdoffset == 0xFFFFFFFFL) {
+			return null;
+		}
+		if (cdoffset + cdsize > tailstart + eocd) {
+			throw new IOException("Invalid ZIP central directory.");
+		}
+		byte[] comment = new byte[tail.getShort(eocd + 20) & 0xFFFF];
+		tail.position(eocd + END_OF_CENTRAL_DIRECTORY_SIZE);
+		tail.get(comment);
+
+		ByteBuffer cd = readBuffer(channel, cdoffset, (int) cdsize);
+		List<Entry> entries = new ArrayList<>(entrycount);
+		int pos = 0;
+		for (int i = 0; i < entrycount; i++) {
+			if (pos + CENTRAL_HEADER_SIZE > cdsize || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+				throw new IOException("Invalid ZIP central directory.");
+			}
+			int flags = cd.getShort(pos + CENTRAL_FLAGS_OFFSET) & 0xFFFF;
+			int method = cd.getShort(pos + CENTRAL_METHOD_OFFSET) & 0xFFFF;
+			long csize = cd.getInt(pos + CENTRAL_COMPRESSED_SIZE_OFFSET) & 0xFFFFFFFFL;
+			long size = cd.getInt(pos + CENTRAL_SIZE_OFFSET) & 0xFFFFFFFFL;
+			int namelen = cd.getShort(pos + 28) & 0xFFFF;
+			int extralen = cd.getShort(pos + 30) & 0xFFFF;
+			int commentlen = cd.getShort(pos + 32) & 0xFFFF;
+			long lho = cd.getInt(pos + CENTRAL_LOCAL_HEADER_OFFSET_OFFSET) & 0xFFFFFFFFL;
+			if ((flags & FLAG_ENCRYPTED) == FLAG_ENCRYPTED
+					|| (method != METHOD_STORED && method != METHOD_DEFLATED)) {
+				return null;
+			}
+			if (csize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || lho == 0xFFFFFFFFL || size > Integer.MAX_VALUE
+					|| csize > Integer.MAX_VALUE) {
+				return null;
+			}
+			int recordlen = CENTRAL_HEADER_SIZE + namelen + extralen + commentlen;
+			if (pos + recordlen > cdsize) {
+				throw new IOException("Invalid ZIP central directory.");
+			}
+			byte[] record = new byte[recordlen];
+			cd.position(pos);
+			cd.get(record);
+			String name = new String(record, CENTRAL_HEADER_SIZE, namelen,
+					(flags & FLAG_UTF8) == FLAG_UTF8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+			entries.add(new Entry(name, flags, method, csize, size, lho, record));
+			pos += recordlen;
+		}
+		return new RawZipInput(channel, Collections.unmodifiableList(entries), comment);
+	}
+}
@@ -0,0 +1,179 @@
+package sipka.jvm.tailrec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * ZIP archive writer that can copy the entries of a {@link RawZipInput} without decompressing them.
+ * <p>
+ * The central directory records of the entries are copied from the input, only the fields related to the entry data
+ * are updated for entries with new contents.
+ */
+public final class RawZipOutput implements Closeable {
+	private static final int VERSION_NEEDED_DEFLATED = 20;
+	private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+	private final WritableByteChannel channel;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final CRC32 crc = new CRC32();
+	private int entryCount;
+	private long position;
+	private boolean offsetOverflow;
+
+	public RawZipOutput(Path path) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	/**
+	 * Creates a new instance that writes to the argument channel.
+	 * <p>
+	 * The channel is closed when this output is closed.
+	 */
+	public RawZipOutput(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Copies the entry from the input archive without decompressing it.
+	 */
+	public void copyRaw(RawZipInput input, RawZipInput.Entry entry) throws IOException {
+		long offset = position;
+		position += input.transferRawTo(entry, channel);
+		addCentralHeader(entry.centralHeader, offset);
+	}
+
+	/**
+	 * Writes the entry with the given contents, compressing it with the deflate method.
+	 * <p>
+	 * The other attributes of the entry are the same as in the input archive.
+	 */
+	public void writeDeflated(RawZipInput input, RawZipInput.Entry entry, byte[] contents) throws IOException {
+		crc.reset();
+		crc.update(contents, 0, contents.length);
+		int crcvalue = (int) crc.getValue();
+		byte[] compressed = deflate(contents);
+
+		byte[] central = entry.centralHeader.clone();
+		ByteBuffer cbuf = ByteBuffer.wrap(central).order(ByteOrder.LITTLE_ENDIAN);
+		int versionneeded = Math.max(VERSION_NEEDED_DEFLATED,
+				cbuf.getShort(RawZipInput.CENTRAL_VERSION_NEEDED_OFFSET) & 0xFFFF);
+		//sizes are known in advance, no data descriptor is written
+		int flags = entry.flags & ~RawZipInput.FLAG_DATA_DESCRIPTOR;
+		cbuf.putShort(RawZipInput.CENTRAL_VERSION_NEEDED_OFFSET, (short) versionneeded);
+		cbuf.putShort(RawZipInput.CENTRAL_FLAGS_OFFSET, (short) flags);
+		cbuf.putShort(RawZipInput.CENTRAL_METHOD_OFFSET, (short) RawZipInput.METHOD_DEFLATED);
+		cbuf.putInt(RawZipInput.CENTRAL_CRC_OFFSET, crcvalue);
+		cbuf.putInt(RawZipInput.CENTRAL_COMPRESSED_SIZE_OFFSET, compressed.length);
+		cbuf.putInt(RawZipInput.CENTRAL_SIZE_OFFSET, contents.length);
+
+		int namelen = cbuf.getShort(28) & 0xFFFF;
+		byte[] localextra = input.readLocalExtra(entry);
+		ByteBuffer local = ByteBuffer.allocate(RawZipInput.LOCAL_HEADER_SIZE + namelen + localextra.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		local.putInt(RawZipInput.LOCAL_HEADER_SIGNATURE);
+		local.putShort((short) versionneeded);
+		local.putShort((short) flags);
+		local.putShort((short) RawZipInput.METHOD_DEFLATED);
+		//modification time and date
+		local.putInt(cbuf.getInt(12));
+		local.putInt(crcvalue);
+		local.putInt(compressed.length);
+		local.putInt(contents.length);
+		local.putShort((short) namelen);
+		local.putShort((short) localextra.length);
+		local.put(central, RawZipInput.CENTRAL_HEADER_SIZE, namelen);
+		local.put(localextra);
+		local.flip();
+
+		long offset = position;
+		write(local);
+		write(ByteBuffer.wrap(compressed));
+		addCentralHeader(central, offset);
+	}
+
+	/**
+	 * Writes the central directory and finishes the archive.
+	 *
+	 * @param comment
+	 *            The archive comment.
+	 * @return <code>false</code> if the archive cannot be finished as it would require the ZIP64 format.
+	 */
+	public boolean finish(byte[] comment) throws IOException {
+		long cdoffset = position;
+		long cdsize = centralDirectory.size();
+		if (offsetOverflow || entryCount >= 0xFFFF || cdoffset >= MAX_OFFSET || cdsize >= MAX_OFFSET) {
+			return false;
+		}
+		write(ByteBuffer.wrap(centralDirectory.toByteArray()));
+		ByteBuffer eocd = ByteBuffer.allocate(RawZipInput.END_OF_CENTRAL_DIRECTORY_SIZE + comment.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		eocd.putInt(RawZipInput.END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		//disk numbers
+		eocd.putShort((short) 0);
+		eocd.putShort((short) 0);
+		eocd.putShort((short) entryCount);
+		eocd.putShort((short) entryCount);
+		eocd.putInt((int) cdsize);
+		eocd.putInt((int) cdoffset);
+		eocd.putShort((short) comment.length);
+		eocd.put(comment);
+		eocd.flip();
+		write(eocd);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		deflater.end();
+		channel.close();
+	}
+
+	private void addCentralHeader(byte[] header, long localheaderoffset) {
+		if (localheaderoffset >= MAX_OFFSET) {
+			offsetOverflow = true;
+			return;
+		}
+		byte[] record = header;
+		if (localheaderoffset != (ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN)
+				.getInt(RawZipInput.CENTRAL_LOCAL_HEADER_OFFSET_OFFSET) & 0xFFFFFFFFL)) {
+			record = header.clone();
+			ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN)
+					.putInt(RawZipInput.CENTRAL_LOCAL_HEADER_OFFSET_OFFSET, (int) localheaderoffset);
+		}
+		centralDirectory.write(record, 0, record.length);
+		++entryCount;
+	}
+
+	private byte[] deflate(byte[] contents) {
+		deflater.reset();
+		deflater.setInput(contents);
+		deflater.finish();
+		byte[] buf = new byte[Math.max(64, contents.length / 2)];
+		int len = 0;
+		while (!deflater.finished()) {
+			if (len == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			len += deflater.deflate(buf, len, buf.length - len);
+		}
+		return Arrays.copyOf(buf, len);
+	}
+
+	private void write(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package sipka.jvm.tailrec;
+
+/**
+ * Diagnostic information about a self-call that was not optimized.
+ * <p>
+ * The bytecode offsets are relative to the start of the code of the method in the input class, and are
+ * <code>-1</code> if not available. The line numbers are <code>-1</code> if the class contains no line number
+ * information.
+ */
+public final class RejectedCall {
+	private final RejectionReason reason;
+	private final int offset;
+	private final int line;
+	private final int blockingOffset;
+	private final int blockingLine;
+
+	RejectedCall(RejectionReason reason, int offset, int line, int blockingOffset, int blockingLine) {
+		this.reason = reason;
+		this.offset = offset;
+		this.line = line;
+		this.blockingOffset = blockingOffset;
+		this.blockingLine = blockingLine;
+	}
+
+	/**
+	 * Gets the reason why the call was not optimized.
+	 */
+	public RejectionReason getReason() {
+		return reason;
+	}
+
+	/**
+	 * Gets the bytecode offset of the call instruction.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the source line number of the call.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Gets the bytecode offset of the instruction after the call that prevents the optimization.
+	 * <p>
+	 * It is <code>-1</code> if the reason is not related to the instructions after the call. (I.e.
+	 * {@link RejectionReason#NON_OPTIMIZABLE_METHOD} and {@link RejectionReason#TRY_CATCH}.)
+	 */
+	public int getBlockingOffset() {
+		return blockingOffset;
+	}
+
+	/**
+	 * Gets the source line number of the instruction that prevents the optimization.
+	 */
+	public int getBlockingLine() {
+		return blockingLine;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + reason + ", offset=" + offset + ", line=" + line
+				+ ", blockingOffset=" + blockingOffset + ", blockingLine=" + blockingLine + "]";
+	}
+}
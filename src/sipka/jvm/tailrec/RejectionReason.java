@@ -0,0 +1,57 @@
+package sipka.jvm.tailrec;
+
+/**
+ * The reasons why a self-call is not optimized.
+ *
+ * @see RejectedCall
+ */
+public enum RejectionReason {
+	/**
+	 * The method can be overridden, or it is a <code>synchronized</code> instance method.
+	 * <p>
+	 * Only static, private, or final instance methods are optimized, as the recursive calls of other instance methods
+	 * may be dispatched to a subclass.
+	 */
+	NON_OPTIMIZABLE_METHOD,
+	/**
+	 * The call is inside a <code>try</code> block.
+	 */
+	TRY_CATCH,
+	/**
+	 * An exception is thrown after the call with the <code>ATHROW</code> instruction.
+	 */
+	THROW,
+	/**
+	 * An array element is stored after the call.
+	 */
+	ARRAY_STORE,
+	/**
+	 * A field is set after the call.
+	 */
+	FIELD_STORE,
+	/**
+	 * A <code>MONITORENTER</code> or <code>MONITOREXIT</code> instruction is executed after the call.
+	 */
+	MONITOR,
+	/**
+	 * Another method is called after the call.
+	 */
+	METHOD_CALL,
+	/**
+	 * The return path contains an instruction that is not supported by the analysis. (E.g. <code>JSR</code> or
+	 * <code>RET</code>.)
+	 */
+	UNKNOWN_INSTRUCTION,
+	/**
+	 * The result of the call is not returned as is.
+	 * <p>
+	 * The result may be used in a computation, discarded, or another value may be returned on a path after the call.
+	 */
+	RESULT_NOT_RETURNED,
+	/**
+	 * The analysis of the method exceeded the budget, so the optimization of it was given up.
+	 *
+	 * @see AnalysisBudget
+	 */
+	BUDGET_EXCEEDED,
+}
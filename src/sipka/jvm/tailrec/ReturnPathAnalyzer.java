@@ -0,0 +1,1197 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sipka.jvm.tailrec;
+
+import java.util.List;
+import java.util.Objects;
+
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Opcodes;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.AbstractInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.FieldInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.FrameNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.IincInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.InsnList;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.JumpInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LabelNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LdcInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LookupSwitchInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MethodInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MethodNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.TableSwitchInsnNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Backward dataflow analysis that determines which instructions of a method lie on a path that transparently returns
+ * the result of a preceding self-call.
+ * <p>
+ * For every instruction the analysis computes a requirement that the abstract state before the instruction must
+ * satisfy so that all paths starting from it end in a return of the result. A requirement is a set of stack slots
+ * and local variables that must hold the result, or unsatisfiable if there is a path that doesn't return the result.
+ * (E.g. it has side effects, or returns something else.)
+ * <p>
+ * The requirements are computed once per method using a worklist, after which each call site can be decided in
+ * constant time. Cycles in the control flow are handled optimistically, the same way as an infinite loop after the
+ * call doesn't prevent the optimization.
+ * <p>
+ * The number of instructions visited by the worklist can be limited, in which case the analysis is abandoned when the
+ * limit is reached. Every instruction is visited at least once, and the instructions in loops may be visited
+ * multiple times until their requirements stabilize. The visits are weighted by the number of words in the
+ * requirement bitsets, as that determines the cost of a visit.
+ * <p>
+ * The requirements are stored as bitsets in a single array, indexed by the instruction indexes. The first bit is the
+ * unsatisfiable flag, followed by a bit for each stack slot counted from the top of the stack, and a bit for each local
+ * variable. Joining the requirements of branches is a bitwise or.
+ */
+final class ReturnPathAnalyzer {
+	private static final int SOURCE_UNKNOWN = -1;
+	private static final int SOURCE_LOCAL_BASE = -2;
+
+	private static final int BIT_UNSATISFIABLE = 0;
+	private static final int BIT_STACK_BASE = 1;
+
+	private static final int[] PUSH_NOTHING = {};
+	private static final int[] PUSH_UNKNOWN_1 = { SOURCE_UNKNOWN };
+	private static final int[] PUSH_UNKNOWN_2 = { SOURCE_UNKNOWN, SOURCE_UNKNOWN };
+	private static final int[] PUSH_DUP = { 0, 0 };
+	private static final int[] PUSH_DUP_X1 = { 0, 1, 0 };
+	private static final int[] PUSH_DUP_X2 = { 0, 1, 2, 0 };
+	private static final int[] PUSH_DUP2 = { 0, 1, 0, 1 };
+	private static final int[] PUSH_DUP2_X1 = { 0, 1, 2, 0, 1 };
+	private static final int[] PUSH_DUP2_X2 = { 0, 1, 2, 3, 0, 1 };
+	private static final int[] PUSH_SWAP = { 1, 0 };
+
+	private final InsnList instructionList;
+	private final AbstractInsnNode[] instructions;
+	private final Object returnTypeFrameType;
+	private final int returnSize;
+	private final int maxStack;
+	private final int maxLocals;
+	private final int localsBitBase;
+	private final int words;
+
+	/**
+	 * The requirements for each instruction, {@link #words} elements each.
+	 */
+	private final long[] requirements;
+
+	/**
+	 * The successors of the instruction <code>i</code> are in {@link #successorTargets} from
+	 * <code>successorOffsets[i]</code> until <code>successorOffsets[i + 1]</code>.
+	 */
+	private final int[] successorOffsets;
+	private int[] successorTargets;
+	/**
+	 * Whether the last instruction of the method may fall through, running off the end of the method.
+	 */
+	private boolean lastFallsThrough;
+
+	private final long[] after;
+	private final long[] before;
+	/**
+	 * Reused push sources of the local variable loads, so the visits don't allocate.
+	 */
+	private final int[] loadSources1 = new int[1];
+	private final int[] loadSources2 = new int[2];
+
+	private long visitCount;
+
+	private ReturnPathAnalyzer(MethodNode mn, Object returntypeframetype, int returnsize) {
+		this.instructionList = mn.instructions;
+		this.instructions = mn.instructions.toArray();
+		this.returnTypeFrameType = returntypeframetype;
+		this.returnSize = returnsize;
+		this.maxStack = mn.maxStack;
+		this.maxLocals = mn.maxLocals;
+		this.localsBitBase = BIT_STACK_BASE + maxStack;
+		this.words = getWordCount(maxStack, maxLocals);
+		this.requirements = new long[instructions.length * words];
+		this.successorOffsets = new int[instructions.length + 1];
+		this.after = new long[words];
+		this.before = new long[words];
+	}
+
+	/**
+	 * Analyzes the return paths of the argument method.
+	 *
+	 * @param mn
+	 *            The method.
+	 * @param returntypeframetype
+	 *            The frame type of the method return type or <code>null</code> if the method is <code>void</code>.
+	 * @param returnsize
+	 *            The number of stack slots the return value occupies.
+	 * @param visitlimit
+	 *            The maximum number of weighted instruction visits the analysis may perform.
+	 * @return The analyzer that can be queried for the call sites, or <code>null</code> if the analysis exceeded the
+	 *             visit limit.
+	 */
+	public static ReturnPathAnalyzer analyze(MethodNode mn, Object returntypeframetype, int returnsize,
+			long visitlimit) {
+		if (isOverVisitLimit(mn, visitlimit)) {
+			//no need to allocate the requirements
+			return null;
+		}
+		ReturnPathAnalyzer analyzer = new ReturnPathAnalyzer(mn, returntypeframetype, returnsize);
+		if (!analyzer.run(visitlimit)) {
+			return null;
+		}
+		return analyzer;
+	}
+
+	/**
+	 * Checks if the analysis of the argument method would certainly exceed the visit limit.
+	 * <p>
+	 * Each instruction is visited at least once, so the check is based on the size of the method, without performing
+	 * any analysis.
+	 *
+	 * @param mn
+	 *            The method.
+	 * @param visitlimit
+	 *            The maximum number of weighted instruction visits the analysis may perform.
+	 * @return <code>true</code> if {@link #analyze} would return <code>null</code> without analyzing the method.
+	 */
+	public static boolean isOverVisitLimit(MethodNode mn, long visitlimit) {
+		return (long) mn.instructions.size() * getWordCount(mn.maxStack, mn.maxLocals) > visitlimit;
+	}
+
+	/**
+	 * Gets the number of weighted instruction visits the analysis performed.
+	 */
+	public long getVisitCount() {
+		return visitCount;
+	}
+
+	/**
+	 * Checks if the result of the method call at the given index is transparently returned by all of the paths after
+	 * it.
+	 * <p>
+	 * The method call is expected to return the same type as the analyzed method.
+	 *
+	 * @param callindex
+	 *            The index of the method instruction in the instruction list of the analyzed method.
+	 * @return <code>true</code> if the call can be replaced by a jump to the start of the method.
+	 */
+	public boolean isTailOptimizable(int callindex) {
+		int next = callindex + 1;
+		if (next >= instructions.length) {
+			return false;
+		}
+		//only the returned value is on the stack after the call, every other slot and variable is unknown
+		//so only the bits of the returned stack slots may be set
+		int offset = next * words;
+		long allowed = ((1L << Math.min(returnSize, maxStack)) - 1) << BIT_STACK_BASE;
+		if ((requirements[offset] & ~allowed) != 0) {
+			return false;
+		}
+		for (int w = 1; w < words; w++) {
+			if (requirements[offset + w] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the instruction that prevents the optimization of the method call at the given index.
+	 * <p>
+	 * The paths after the call are searched in breadth first order, so the instruction nearest to the call is found.
+	 * An instruction is the blocking one if it has side effects (see {@link #getRejectionReason(AbstractInsnNode)}), or
+	 * the result of the call is lost at it.
+	 *
+	 * @param callindex
+	 *            The index of the method instruction in the instruction list of the analyzed method.
+	 * @return The index of the blocking instruction or <code>-1</code> if the call is tail optimizable.
+	 */
+	public int findBlockingInstruction(int callindex) {
+		if (isTailOptimizable(callindex)) {
+			return -1;
+		}
+		int next = callindex + 1;
+		if (next >= instructions.length) {
+			//running off the end of the method
+			return callindex;
+		}
+		int[] queue = new int[instructions.length];
+		boolean[] visited = new boolean[instructions.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = next;
+		visited[next] = true;
+		while (head < tail) {
+			int idx = queue[head++];
+			if (!isUnsatisfiableRequirement(idx)) {
+				continue;
+			}
+			AbstractInsnNode ins = instructions[idx];
+			if (getRejectionReason(ins) != RejectionReason.RESULT_NOT_RETURNED) {
+				if (ins.getOpcode() == Opcodes.INVOKESPECIAL && "<init>".equals(((MethodInsnNode) ins).name)) {
+					//report throw new Exception(...) as throwing instead of the constructor call
+					int throwidx = findNextInstructionIndex(idx);
+					if (throwidx >= 0 && instructions[throwidx].getOpcode() == Opcodes.ATHROW) {
+						return throwidx;
+					}
+				}
+				return idx;
+			}
+			boolean unsatisfiablesuccessor = false;
+			for (int s = successorOffsets[idx], end = successorOffsets[idx + 1]; s < end; s++) {
+				int target = successorTargets[s];
+				if (!isUnsatisfiableRequirement(target)) {
+					continue;
+				}
+				unsatisfiablesuccessor = true;
+				if (!visited[target]) {
+					visited[target] = true;
+					queue[tail++] = target;
+				}
+			}
+			if (!unsatisfiablesuccessor) {
+				//the result is lost at this instruction
+				return idx;
+			}
+		}
+		//every path returns, but the result is expected in a variable or stack slot other than the one the call pushed
+		return next;
+	}
+
+	/**
+	 * Gets the reason why the argument instruction prevents the optimization if it is on the return path of a call.
+	 *
+	 * @return The reason, or {@link RejectionReason#RESULT_NOT_RETURNED} if the instruction has no side effects.
+	 */
+	public static RejectionReason getRejectionReason(AbstractInsnNode ins) {
+		switch (ins.getType()) {
+			case AbstractInsnNode.INSN: {
+				switch (ins.getOpcode()) {
+					case Opcodes.ATHROW: {
+						return RejectionReason.THROW;
+					}
+					case Opcodes.IASTORE:
+					case Opcodes.LASTORE:
+					case Opcodes.FASTORE:
+					case Opcodes.DASTORE:
+					case Opcodes.AASTORE:
+					case Opcodes.BASTORE:
+					case Opcodes.CASTORE:
+					case Opcodes.SASTORE: {
+						return RejectionReason.ARRAY_STORE;
+					}
+					case Opcodes.MONITORENTER:
+					case Opcodes.MONITOREXIT: {
+						return RejectionReason.MONITOR;
+					}
+					default: {
+						return RejectionReason.RESULT_NOT_RETURNED;
+					}
+				}
+			}
+			case AbstractInsnNode.FIELD_INSN: {
+				switch (ins.getOpcode()) {
+					case Opcodes.PUTFIELD:
+					case Opcodes.PUTSTATIC: {
+						return RejectionReason.FIELD_STORE;
+					}
+					default: {
+						return RejectionReason.RESULT_NOT_RETURNED;
+					}
+				}
+			}
+			case AbstractInsnNode.METHOD_INSN:
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+				return RejectionReason.METHOD_CALL;
+			}
+			case AbstractInsnNode.JUMP_INSN: {
+				return ins.getOpcode() == Opcodes.JSR ? RejectionReason.UNKNOWN_INSTRUCTION
+						: RejectionReason.RESULT_NOT_RETURNED;
+			}
+			case AbstractInsnNode.VAR_INSN: {
+				return ins.getOpcode() == Opcodes.RET ? RejectionReason.UNKNOWN_INSTRUCTION
+						: RejectionReason.RESULT_NOT_RETURNED;
+			}
+			default: {
+				return RejectionReason.RESULT_NOT_RETURNED;
+			}
+		}
+	}
+
+	private int findNextInstructionIndex(int idx) {
+		for (int i = idx + 1; i < instructions.length; i++) {
+			if (instructions[i].getOpcode() >= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int getWordCount(int maxstack, int maxlocals) {
+		return ((BIT_STACK_BASE + maxstack + maxlocals) + 63) >>> 6;
+	}
+
+	private boolean isUnsatisfiableRequirement(int idx) {
+		return (requirements[idx * words] & (1L << BIT_UNSATISFIABLE)) != 0;
+	}
+
+	private boolean run(long visitlimit) {
+		int count = instructions.length;
+		collectSuccessors();
+		int[] predecessoroffsets = new int[count + 1];
+		int[] predecessors = collectPredecessors(predecessoroffsets);
+
+		//start optimistically with empty requirements, so loops on the return path are accepted
+		int[] worklist = new int[count];
+		boolean[] inworklist = new boolean[count];
+		int worklistsize = 0;
+		for (int i = 0; i < count; i++) {
+			worklist[worklistsize++] = i;
+			inworklist[i] = true;
+		}
+		while (worklistsize > 0) {
+			if (visitlimit - visitCount < words) {
+				return false;
+			}
+			visitCount += words;
+			int idx = worklist[--worklistsize];
+			inworklist[idx] = false;
+			computeRequirement(idx);
+			if (!updateRequirement(idx)) {
+				continue;
+			}
+			for (int i = predecessoroffsets[idx], end = predecessoroffsets[idx + 1]; i < end; i++) {
+				int pred = predecessors[i];
+				if (!inworklist[pred]) {
+					inworklist[pred] = true;
+					worklist[worklistsize++] = pred;
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean updateRequirement(int idx) {
+		int offset = idx * words;
+		boolean changed = false;
+		for (int w = 0; w < words; w++) {
+			if (requirements[offset + w] != before[w]) {
+				requirements[offset + w] = before[w];
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private void collectSuccessors() {
+		int count = instructions.length;
+		//most instructions have a single successor
+		successorTargets = new int[count + 16];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			successorOffsets[i] = size;
+			AbstractInsnNode ins = instructions[i];
+			switch (ins.getType()) {
+				case AbstractInsnNode.JUMP_INSN: {
+					switch (ins.getOpcode()) {
+						case Opcodes.JSR: {
+							//no successors, unsupported
+							break;
+						}
+						case Opcodes.GOTO: {
+							size = addSuccessor(size, instructionList.indexOf(((JumpInsnNode) ins).label));
+							break;
+						}
+						default: {
+							size = addSuccessor(size, instructionList.indexOf(((JumpInsnNode) ins).label));
+							size = addFallthroughSuccessor(size, i);
+							break;
+						}
+					}
+					break;
+				}
+				case AbstractInsnNode.TABLESWITCH_INSN: {
+					TableSwitchInsnNode tsn = (TableSwitchInsnNode) ins;
+					size = addSwitchSuccessors(size, tsn.dflt, tsn.labels);
+					break;
+				}
+				case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+					LookupSwitchInsnNode lsn = (LookupSwitchInsnNode) ins;
+					size = addSwitchSuccessors(size, lsn.dflt, lsn.labels);
+					break;
+				}
+				case AbstractInsnNode.INSN: {
+					switch (ins.getOpcode()) {
+						case Opcodes.RETURN:
+						case Opcodes.ARETURN:
+						case Opcodes.FRETURN:
+						case Opcodes.IRETURN:
+						case Opcodes.DRETURN:
+						case Opcodes.LRETURN:
+						case Opcodes.ATHROW: {
+							break;
+						}
+						default: {
+							size = addFallthroughSuccessor(size, i);
+							break;
+						}
+					}
+					break;
+				}
+				default: {
+					size = addFallthroughSuccessor(size, i);
+					break;
+				}
+			}
+		}
+		successorOffsets[count] = size;
+	}
+
+	private int addFallthroughSuccessor(int size, int idx) {
+		if (idx + 1 < instructions.length) {
+			return addSuccessor(size, idx + 1);
+		}
+		lastFallsThrough = true;
+		return size;
+	}
+
+	private int addSwitchSuccessors(int size, LabelNode dflt, List<LabelNode> labels) {
+		if (dflt != null) {
+			size = addSuccessor(size, instructionList.indexOf(dflt));
+		}
+		if (labels != null) {
+			for (LabelNode lbl : labels) {
+				size = addSuccessor(size, instructionList.indexOf(lbl));
+			}
+		}
+		return size;
+	}
+
+	private int addSuccessor(int size, int target) {
+		if (size == successorTargets.length) {
+			int[] ntargets = new int[size * 2];
+			System.arraycopy(successorTargets, 0, ntargets, 0, size);
+			successorTargets = ntargets;
+		}
+		successorTargets[size] = target;
+		return size + 1;
+	}
+
+	private int[] collectPredecessors(int[] predecessoroffsets) {
+		int count = instructions.length;
+		int edgecount = successorOffsets[count];
+		for (int i = 0; i < edgecount; i++) {
+			++predecessoroffsets[successorTargets[i] + 1];
+		}
+		for (int i = 0; i < count; i++) {
+			predecessoroffsets[i + 1] += predecessoroffsets[i];
+		}
+		int[] fill = new int[count];
+		int[] result = new int[edgecount];
+		for (int i = 0; i < count; i++) {
+			for (int s = successorOffsets[i], end = successorOffsets[i + 1]; s < end; s++) {
+				int target = successorTargets[s];
+				result[predecessoroffsets[target] + fill[target]++] = i;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the joined requirements of the successors of the instruction into {@link #after}.
+	 */
+	private void loadSuccessorRequirements(int idx) {
+		int start = successorOffsets[idx];
+		int end = successorOffsets[idx + 1];
+		if (start == end || (lastFallsThrough && idx + 1 == instructions.length)) {
+			//running off the end of the method
+			setUnsatisfiable(after);
+			return;
+		}
+		int offset = successorTargets[start] * words;
+		System.arraycopy(requirements, offset, after, 0, words);
+		for (int s = start + 1; s < end; s++) {
+			offset = successorTargets[s] * words;
+			for (int w = 0; w < words; w++) {
+				after[w] |= requirements[offset + w];
+			}
+		}
+		if (isUnsatisfiable(after)) {
+			setUnsatisfiable(after);
+		}
+	}
+
+	/**
+	 * Computes the requirement of the instruction at the given index into {@link #before}.
+	 */
+	private void computeRequirement(int idx) {
+		AbstractInsnNode ins = instructions[idx];
+		switch (ins.getType()) {
+			case AbstractInsnNode.FRAME: {
+				FrameNode fins = (FrameNode) ins;
+				if (fins.type != Opcodes.F_NEW) {
+					throw new AssertionError(fins.type);
+				}
+				loadSuccessorRequirements(idx);
+				applyFrame(fins);
+				return;
+			}
+			case AbstractInsnNode.LINE:
+			case AbstractInsnNode.LABEL: {
+				loadSuccessorRequirements(idx);
+				copyAfter();
+				return;
+			}
+			case AbstractInsnNode.JUMP_INSN: {
+				switch (ins.getOpcode()) {
+					case Opcodes.GOTO: {
+						loadSuccessorRequirements(idx);
+						copyAfter();
+						return;
+					}
+					case Opcodes.IFNULL:
+					case Opcodes.IFNONNULL:
+					case Opcodes.IFEQ:
+					case Opcodes.IFNE:
+					case Opcodes.IFLT:
+					case Opcodes.IFGE:
+					case Opcodes.IFGT:
+					case Opcodes.IFLE: {
+//						..., value
+//						...
+						loadSuccessorRequirements(idx);
+						stackOperation(1, PUSH_NOTHING);
+						return;
+					}
+					case Opcodes.IF_ICMPEQ:
+					case Opcodes.IF_ICMPNE:
+					case Opcodes.IF_ICMPLT:
+					case Opcodes.IF_ICMPGE:
+					case Opcodes.IF_ICMPGT:
+					case Opcodes.IF_ICMPLE:
+					case Opcodes.IF_ACMPEQ:
+					case Opcodes.IF_ACMPNE: {
+//						..., value1, value2
+//						...
+						loadSuccessorRequirements(idx);
+						stackOperation(2, PUSH_NOTHING);
+						return;
+					}
+					case Opcodes.JSR:
+					default: {
+						//unknown instruction
+						setUnsatisfiable(before);
+						return;
+					}
+				}
+			}
+			case AbstractInsnNode.FIELD_INSN: {
+				FieldInsnNode fins = (FieldInsnNode) ins;
+				int[] push = "J".equals(fins.desc) || "D".equals(fins.desc) ? PUSH_UNKNOWN_2 : PUSH_UNKNOWN_1;
+				switch (ins.getOpcode()) {
+					case Opcodes.GETSTATIC: {
+						loadSuccessorRequirements(idx);
+						stackOperation(0, push);
+						return;
+					}
+					case Opcodes.GETFIELD: {
+						//a field read can be optimized away, if later we don't do anything with it
+						//nullpointer exception can occurr, but it is fine to optimize that away
+						loadSuccessorRequirements(idx);
+						stackOperation(1, push);
+						return;
+					}
+					default: {
+						//unknown instruction
+						setUnsatisfiable(before);
+						return;
+					}
+				}
+			}
+			case AbstractInsnNode.IINC_INSN: {
+				IincInsnNode iincn = (IincInsnNode) ins;
+				loadSuccessorRequirements(idx);
+				copyAfter();
+				if (isBitSet(before, localsBitBase + iincn.var)) {
+					//the variable is modified, it no longer holds the result
+					setUnsatisfiable(before);
+				}
+				return;
+			}
+			case AbstractInsnNode.TYPE_INSN: {
+				switch (ins.getOpcode()) {
+					case Opcodes.CHECKCAST: {
+						//does not modify the stack
+						//XXX create tests which check for any errors if we don't apply the cast to the representation regarding frames
+						//    the optimization might omit the actual casting
+						loadSuccessorRequirements(idx);
+						copyAfter();
+						return;
+					}
+					case Opcodes.NEW: {
+						loadSuccessorRequirements(idx);
+						stackOperation(0, PUSH_UNKNOWN_1);
+						return;
+					}
+					case Opcodes.INSTANCEOF:
+					case Opcodes.ANEWARRAY: {
+//						..., count
+//						..., arrayref
+						loadSuccessorRequirements(idx);
+						stackOperation(1, PUSH_UNKNOWN_1);
+						return;
+					}
+					default: {
+						//unknown instruction
+						setUnsatisfiable(before);
+						return;
+					}
+				}
+			}
+			case AbstractInsnNode.TABLESWITCH_INSN:
+			case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+				loadSuccessorRequirements(idx);
+				stackOperation(1, PUSH_NOTHING);
+				return;
+			}
+			case AbstractInsnNode.INSN: {
+				computeInsnRequirement(idx, ins.getOpcode());
+				return;
+			}
+			case AbstractInsnNode.INT_INSN: {
+				switch (ins.getOpcode()) {
+					case Opcodes.BIPUSH:
+					case Opcodes.SIPUSH: {
+						loadSuccessorRequirements(idx);
+						stackOperation(0, PUSH_UNKNOWN_1);
+						return;
+					}
+					case Opcodes.NEWARRAY: {
+//						..., count
+//						..., arrayref
+						loadSuccessorRequirements(idx);
+						stackOperation(1, PUSH_UNKNOWN_1);
+						return;
+					}
+					default: {
+						//unknown instruction
+						setUnsatisfiable(before);
+						return;
+					}
+				}
+			}
+			case AbstractInsnNode.MULTIANEWARRAY_INSN: {
+//				..., count1, [count2, ...]
+//				..., arrayref
+				MultiANewArrayInsnNode mnanode = (MultiANewArrayInsnNode) ins;
+				loadSuccessorRequirements(idx);
+				stackOperation(mnanode.dims, PUSH_UNKNOWN_1);
+				return;
+			}
+			case AbstractInsnNode.VAR_INSN: {
+				VarInsnNode vins = (VarInsnNode) ins;
+				switch (ins.getOpcode()) {
+					case Opcodes.ALOAD:
+					case Opcodes.FLOAD:
+					case Opcodes.ILOAD: {
+						loadSuccessorRequirements(idx);
+						loadSources1[0] = SOURCE_LOCAL_BASE - vins.var;
+						stackOperation(0, loadSources1);
+						return;
+					}
+					case Opcodes.DLOAD:
+					case Opcodes.LLOAD: {
+						int source = SOURCE_LOCAL_BASE - vins.var;
+						loadSuccessorRequirements(idx);
+						loadSources2[0] = source;
+						loadSources2[1] = source;
+						stackOperation(0, loadSources2);
+						return;
+					}
+					case Opcodes.ASTORE:
+					case Opcodes.FSTORE:
+					case Opcodes.ISTORE: {
+						loadSuccessorRequirements(idx);
+						storeOperation(vins.var, 1);
+						return;
+					}
+					case Opcodes.DSTORE:
+					case Opcodes.LSTORE: {
+						loadSuccessorRequirements(idx);
+						storeOperation(vins.var, 2);
+						return;
+					}
+					default: {
+						//unrecognized instruction, not found
+						setUnsatisfiable(before);
+						return;
+					}
+				}
+			}
+			case AbstractInsnNode.LDC_INSN: {
+				Object cst = ((LdcInsnNode) ins).cst;
+				loadSuccessorRequirements(idx);
+				stackOperation(0, cst instanceof Long || cst instanceof Double ? PUSH_UNKNOWN_2 : PUSH_UNKNOWN_1);
+				return;
+			}
+			default: {
+				//unrecognized node type
+				setUnsatisfiable(before);
+				return;
+			}
+		}
+	}
+
+	private void computeInsnRequirement(int idx, int opcode) {
+		switch (opcode) {
+			case Opcodes.RETURN: {
+				//no need to check the stack
+				clear(before);
+				return;
+			}
+			case Opcodes.ARETURN:
+			case Opcodes.FRETURN:
+			case Opcodes.IRETURN: {
+				clear(before);
+				setBit(before, BIT_STACK_BASE);
+				return;
+			}
+			case Opcodes.DRETURN:
+			case Opcodes.LRETURN: {
+				clear(before);
+				setBit(before, BIT_STACK_BASE);
+				setBit(before, BIT_STACK_BASE + 1);
+				return;
+			}
+			case Opcodes.ATHROW: {
+				//XXX we could optimize throwing as well, but it is probably rarely used, and messes with the stack trace.
+				//    Could be toggleable with an optimization flag
+				setUnsatisfiable(before);
+				return;
+			}
+			case Opcodes.NOP: {
+				loadSuccessorRequirements(idx);
+				copyAfter();
+				return;
+			}
+			default: {
+				break;
+			}
+		}
+		int popcount;
+		int[] pushsources;
+		switch (opcode) {
+			case Opcodes.DUP: {
+//				..., value
+//				..., value, value
+				popcount = 1;
+				pushsources = PUSH_DUP;
+				break;
+			}
+			case Opcodes.DUP_X1: {
+//				..., value2, value1
+//				..., value1, value2, value1
+				popcount = 2;
+				pushsources = PUSH_DUP_X1;
+				break;
+			}
+			case Opcodes.DUP_X2: {
+//				..., value3, value2, value1
+//				..., value1, value3, value2, value1
+				popcount = 3;
+				pushsources = PUSH_DUP_X2;
+				break;
+			}
+			case Opcodes.DUP2: {
+//				..., value2, value1
+//				..., value2, value1, value2, value1
+				popcount = 2;
+				pushsources = PUSH_DUP2;
+				break;
+			}
+			case Opcodes.DUP2_X1: {
+//				..., value3, value2, value1
+//				..., value2, value1, value3, value2, value1
+				popcount = 3;
+				pushsources = PUSH_DUP2_X1;
+				break;
+			}
+			case Opcodes.DUP2_X2: {
+//				..., value4, value3, value2, value1
+//				..., value2, value1, value4, value3, value2, value1
+				popcount = 4;
+				pushsources = PUSH_DUP2_X2;
+				break;
+			}
+			case Opcodes.POP: {
+				popcount = 1;
+				pushsources = PUSH_NOTHING;
+				break;
+			}
+			case Opcodes.POP2: {
+				popcount = 2;
+				pushsources = PUSH_NOTHING;
+				break;
+			}
+			case Opcodes.SWAP: {
+//				..., value2, value1
+//				..., value1, value2
+				popcount = 2;
+				pushsources = PUSH_SWAP;
+				break;
+			}
+			case Opcodes.ICONST_M1:
+			case Opcodes.ICONST_0:
+			case Opcodes.ICONST_1:
+			case Opcodes.ICONST_2:
+			case Opcodes.ICONST_3:
+			case Opcodes.ICONST_4:
+			case Opcodes.ICONST_5:
+			case Opcodes.FCONST_0:
+			case Opcodes.FCONST_1:
+			case Opcodes.FCONST_2:
+			case Opcodes.ACONST_NULL: {
+				popcount = 0;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.LCONST_0:
+			case Opcodes.LCONST_1:
+			case Opcodes.DCONST_0:
+			case Opcodes.DCONST_1: {
+				popcount = 0;
+				pushsources = PUSH_UNKNOWN_2;
+				break;
+			}
+			case Opcodes.ARRAYLENGTH: {
+				//we can optimize array length reading away.
+				//it could trigger a nullpointer exception if the array is null, but users really should rely on that
+				popcount = 1;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.IALOAD:
+			case Opcodes.FALOAD:
+			case Opcodes.AALOAD:
+			case Opcodes.BALOAD:
+			case Opcodes.CALOAD:
+			case Opcodes.SALOAD: {
+				//we can optimize array reading away.
+				//it could trigger a nullpointer exception if the array is null, but users really should rely on that
+//				..., arrayref, index
+//				..., value
+				popcount = 2;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.LALOAD:
+			case Opcodes.DALOAD: {
+				popcount = 2;
+				pushsources = PUSH_UNKNOWN_2;
+				break;
+			}
+			case Opcodes.IADD:
+			case Opcodes.ISUB:
+			case Opcodes.IMUL:
+			case Opcodes.IDIV:
+			case Opcodes.IREM:
+			case Opcodes.ISHL:
+			case Opcodes.ISHR:
+			case Opcodes.IUSHR:
+			case Opcodes.IAND:
+			case Opcodes.IOR:
+			case Opcodes.IXOR:
+			case Opcodes.FADD:
+			case Opcodes.FSUB:
+			case Opcodes.FMUL:
+			case Opcodes.FDIV:
+			case Opcodes.FREM:
+			case Opcodes.FCMPL:
+			case Opcodes.FCMPG: {
+				//size 1, size 1 -> 1
+				popcount = 2;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.D2I:
+			case Opcodes.D2F:
+			case Opcodes.L2I:
+			case Opcodes.L2F: {
+				//size 2 -> 1
+				popcount = 2;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.I2F:
+			case Opcodes.I2B:
+			case Opcodes.I2C:
+			case Opcodes.I2S:
+			case Opcodes.INEG:
+			case Opcodes.FNEG:
+			case Opcodes.F2I: {
+				//size 1 -> 1
+				popcount = 1;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.L2D:
+			case Opcodes.LNEG:
+			case Opcodes.D2L:
+			case Opcodes.DNEG: {
+				//size 2 -> 2
+				popcount = 2;
+				pushsources = PUSH_UNKNOWN_2;
+				break;
+			}
+			case Opcodes.LSHL:
+			case Opcodes.LUSHR:
+			case Opcodes.LSHR: {
+				//size 2, size 1 -> 2
+				popcount = 3;
+				pushsources = PUSH_UNKNOWN_2;
+				break;
+			}
+			case Opcodes.LDIV:
+			case Opcodes.LADD:
+			case Opcodes.LSUB:
+			case Opcodes.LMUL:
+			case Opcodes.LREM:
+			case Opcodes.LAND:
+			case Opcodes.LOR:
+			case Opcodes.LXOR:
+			case Opcodes.DDIV:
+			case Opcodes.DADD:
+			case Opcodes.DSUB:
+			case Opcodes.DMUL:
+			case Opcodes.DREM: {
+				//size 2, size 2 -> 2
+				popcount = 4;
+				pushsources = PUSH_UNKNOWN_2;
+				break;
+			}
+			case Opcodes.LCMP:
+			case Opcodes.DCMPL:
+			case Opcodes.DCMPG: {
+				//size 2, size 2 -> 1
+				popcount = 4;
+				pushsources = PUSH_UNKNOWN_1;
+				break;
+			}
+			case Opcodes.I2L:
+			case Opcodes.I2D:
+			case Opcodes.F2L:
+			case Opcodes.F2D: {
+				//size 1 -> 2
+				popcount = 1;
+				pushsources = PUSH_UNKNOWN_2;
+				break;
+			}
+			case Opcodes.IASTORE:
+			case Opcodes.LASTORE:
+			case Opcodes.FASTORE:
+			case Opcodes.DASTORE:
+			case Opcodes.AASTORE:
+			case Opcodes.BASTORE:
+			case Opcodes.CASTORE:
+			case Opcodes.SASTORE: {
+				//we cannot optimize array storings away, as they are not side effect free
+				//if an array was loaded previously from a field, storing an object to it cannot be omitted
+				setUnsatisfiable(before);
+				return;
+			}
+			//TODO include additional operators and instructions
+			case Opcodes.MONITORENTER:
+			case Opcodes.MONITOREXIT: {
+				//if there are monitor instructions to the return path, it is not optimizable
+				setUnsatisfiable(before);
+				return;
+			}
+			default: {
+				//unrecognized instruction, invalid path
+				setUnsatisfiable(before);
+				return;
+			}
+		}
+		loadSuccessorRequirements(idx);
+		stackOperation(popcount, pushsources);
+	}
+
+	private void copyAfter() {
+		System.arraycopy(after, 0, before, 0, words);
+	}
+
+	/**
+	 * Translates the requirement after the instruction in {@link #after} to a requirement before it in
+	 * {@link #before}.
+	 *
+	 * @param popcount
+	 *            The number of stack slots the instruction pops.
+	 * @param pushsources
+	 *            The source of each pushed stack slot, starting from the top of the stack. Non-negative values are
+	 *            indexes of the popped slots, {@link #SOURCE_UNKNOWN} for values not related to the call result, and
+	 *            values from {@link #SOURCE_LOCAL_BASE} downwards are local variables.
+	 */
+	private void stackOperation(int popcount, int[] pushsources) {
+		if (isUnsatisfiable(after)) {
+			setUnsatisfiable(before);
+			return;
+		}
+		clear(before);
+		int pushcount = pushsources.length;
+		for (int w = 0; w < words; w++) {
+			long bits = after[w];
+			while (bits != 0) {
+				int bit = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (bit >= localsBitBase) {
+					setBit(before, bit);
+					continue;
+				}
+				int depth = bit - BIT_STACK_BASE;
+				if (depth >= pushcount) {
+					if (!setStackBit(before, depth - pushcount + popcount)) {
+						return;
+					}
+					continue;
+				}
+				int src = pushsources[depth];
+				if (src == SOURCE_UNKNOWN) {
+					setUnsatisfiable(before);
+					return;
+				}
+				if (src <= SOURCE_LOCAL_BASE) {
+					if (!setLocalBit(before, SOURCE_LOCAL_BASE - src)) {
+						return;
+					}
+				} else {
+					setBit(before, BIT_STACK_BASE + src);
+				}
+			}
+		}
+	}
+
+	private void storeOperation(int var, int width) {
+		boolean stored = isBitSet(after, localsBitBase + var)
+				|| (width == 2 && isBitSet(after, localsBitBase + var + 1));
+		if (stored) {
+			clearBit(after, localsBitBase + var);
+			if (var + 1 < maxLocals) {
+				clearBit(after, localsBitBase + var + 1);
+			}
+		}
+		stackOperation(width, PUSH_NOTHING);
+		if (stored && !isUnsatisfiable(before)) {
+			//the stored value is the top of the stack
+			setStackBit(before, 0);
+		}
+	}
+
+	private void applyFrame(FrameNode fins) {
+		copyAfter();
+		if (isUnsatisfiable(before)) {
+			return;
+		}
+		//variables which have a different type than the return type can't hold the result after the frame
+		int varidx = 0;
+		int localbit = nextSetBit(before, localsBitBase);
+		if (localbit < 0) {
+			return;
+		}
+		int var = localbit - localsBitBase;
+		for (Object locobj : fins.local) {
+			boolean wide = locobj.equals(Opcodes.LONG) || locobj.equals(Opcodes.DOUBLE);
+			int nextvaridx = varidx + (wide ? 2 : 1);
+			while (var < nextvaridx) {
+				if (!Objects.equals(returnTypeFrameType, locobj)) {
+					setUnsatisfiable(before);
+					return;
+				}
+				localbit = nextSetBit(before, localbit + 1);
+				if (localbit < 0) {
+					return;
+				}
+				var = localbit - localsBitBase;
+			}
+			varidx = nextvaridx;
+		}
+		//variable not present in the frame
+		setUnsatisfiable(before);
+	}
+
+	private boolean setStackBit(long[] bits, int depth) {
+		//slots out of the bounds of the method can never hold the result
+		if (depth >= maxStack) {
+			setUnsatisfiable(bits);
+			return false;
+		}
+		setBit(bits, BIT_STACK_BASE + depth);
+		return true;
+	}
+
+	private boolean setLocalBit(long[] bits, int var) {
+		if (var >= maxLocals) {
+			setUnsatisfiable(bits);
+			return false;
+		}
+		setBit(bits, localsBitBase + var);
+		return true;
+	}
+
+	private int nextSetBit(long[] bits, int from) {
+		int w = from >>> 6;
+		if (w >= words) {
+			return -1;
+		}
+		long word = bits[w] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++w >= words) {
+				return -1;
+			}
+			word = bits[w];
+		}
+	}
+
+	private static boolean isUnsatisfiable(long[] bits) {
+		return (bits[0] & (1L << BIT_UNSATISFIABLE)) != 0;
+	}
+
+	private static void setUnsatisfiable(long[] bits) {
+		//only keep the flag, so unsatisfiable requirements always compare equal
+		clear(bits);
+		bits[0] = 1L << BIT_UNSATISFIABLE;
+	}
+
+	private static void clear(long[] bits) {
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = 0;
+		}
+	}
+
+	private static boolean isBitSet(long[] bits, int bit) {
+		int w = bit >>> 6;
+		if (w >= bits.length) {
+			return false;
+		}
+		return (bits[w] & (1L << bit)) != 0;
+	}
+
+	private static void setBit(long[] bits, int bit) {
+		bits[bit >>> 6] |= 1L << bit;
+	}
+
+	private static void clearBit(long[] bits, int bit) {
+		bits[bit >>> 6] &= ~(1L << bit);
+	}
+}
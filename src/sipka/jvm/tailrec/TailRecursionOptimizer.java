@@ -15,36 +15,31 @@
  */
 package sipka.jvm.tailrec;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
-import java.util.NavigableMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
 
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.ClassReader;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.ClassVisitor;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.ClassWriter;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Label;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.MethodVisitor;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Opcodes;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Type;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.AbstractInsnNode;
-import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.ClassNode;
-import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.FieldInsnNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.FrameNode;
-import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.IincInsnNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.JumpInsnNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LabelNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LineNumberNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LocalVariableNode;
-import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.LookupSwitchInsnNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MethodInsnNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MethodNode;
-import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MultiANewArrayInsnNode;
-import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.TableSwitchInsnNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.TryCatchBlockNode;
 import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.VarInsnNode;
 
@@ -54,6 +49,21 @@ public class TailRecursionOptimizer {
 
 	private static final int ASM_API = Opcodes.ASM8;
 
+	private static final int CONSTANT_METHODREF_TAG = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF_TAG = 11;
+
+	//the opcodes that are not part of the visitor API, as ASM replaces them with the shorter forms
+	private static final int LDC_W_OPCODE = 19;
+	private static final int LDC2_W_OPCODE = 20;
+	private static final int GOTO_W_OPCODE = 200;
+	private static final int JSR_W_OPCODE = 201;
+	private static final int WIDE_OPCODE = 196;
+
+	/**
+	 * Return value of the method optimization if the method was left unchanged because of the analysis budget.
+	 */
+	private static final int ANALYSIS_BUDGET_EXCEEDED = -1;
+
 	/**
 	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode.
 	 * 
@@ -96,765 +106,452 @@ public class TailRecursionOptimizer {
 		return cw.toByteArray();
 	}
 
-	private static ClassWriter optimizeMethods(ClassReader cr) {
-		ClassNode cn = new ClassNode(ASM_API);
-		cr.accept(cn, ClassReader.EXPAND_FRAMES);
-		boolean optimized = false;
-		for (MethodNode mn : cn.methods) {
-			boolean methodoptimized = optimizeMethod(cn, ((cn.access & Opcodes.ACC_INTERFACE) == Opcodes.ACC_INTERFACE),
-					mn);
-			optimized = optimized || methodoptimized;
-		}
-		if (!optimized) {
+	/**
+	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode if there are any.
+	 * <p>
+	 * Unlike {@link #optimizeMethods(byte[], int, int)}, the input bytes are not copied if there were no optimizations
+	 * performed.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @return The optimized bytecode or <code>null</code> if there were no optimizations performed.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 */
+	public static byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length) throws NullPointerException {
+		return tryOptimizeMethods(classbytes, offset, length, null);
+	}
+
+	/**
+	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode if there are any, and records
+	 * the statistics of the optimization.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param statistics
+	 *            The statistics to add the results of the optimization to. May be <code>null</code>.
+	 * @return The optimized bytecode or <code>null</code> if there were no optimizations performed.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 * @see #tryOptimizeMethods(byte[], int, int)
+	 */
+	public static byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length,
+			OptimizationStatistics statistics) throws NullPointerException {
+		return tryOptimizeMethods(classbytes, offset, length, statistics, AnalysisBudget.DEFAULT);
+	}
+
+	/**
+	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode if there are any, using the
+	 * specified analysis budget.
+	 * <p>
+	 * The methods which exceed the budget are left unchanged.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param statistics
+	 *            The statistics to add the results of the optimization to. May be <code>null</code>.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @return The optimized bytecode or <code>null</code> if there were no optimizations performed.
+	 * @throws NullPointerException
+	 *             If the class bytes or the budget is <code>null</code>.
+	 * @see AnalysisBudget#DEFAULT
+	 */
+	public static byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length,
+			OptimizationStatistics statistics, AnalysisBudget budget) throws NullPointerException {
+		Objects.requireNonNull(budget, "budget");
+		long starttime = statistics == null ? 0 : System.nanoTime();
+		ClassWriter cw = optimizeMethods(new ClassReader(classbytes, offset, length), statistics, budget);
+		if (cw == null) {
+			if (statistics != null) {
+				statistics.addClass(length, length, false, System.nanoTime() - starttime, 0);
+			}
 			return null;
 		}
+		long writestarttime = statistics == null ? 0 : System.nanoTime();
+		byte[] result = cw.toByteArray();
+		if (statistics != null) {
+			statistics.addClass(length, result.length, true, writestarttime - starttime,
+					System.nanoTime() - writestarttime);
+		}
+		return result;
+	}
 
-		ClassWriter cw = new ClassWriter(cr, 0);
-
-		cn.accept(cw);
-		return cw;
+	/**
+	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode, and returns the detailed
+	 * results of the optimization.
+	 * <p>
+	 * The result contains the records of the methods that have self-calls, and the time spent in the phases of the
+	 * optimization.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @return The result of the optimization. {@link ClassOptimizationResult#getOptimizedBytes()} is
+	 *             <code>null</code> if there were no optimizations performed.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 */
+	public static ClassOptimizationResult optimizeClass(byte[] classbytes, int offset, int length)
+			throws NullPointerException {
+		return optimizeClass(classbytes, offset, length, false, true, AnalysisBudget.DEFAULT);
 	}
 
-	private static enum VarContents {
-		RESULT,
-		THIS,
-		UNKNOWN,
+	/**
+	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode, and returns the detailed
+	 * results of the optimization, optionally explaining why the self-calls were not optimized.
+	 * <p>
+	 * If explaining is requested, the result contains the methods with self-calls that can't be optimized because of
+	 * their access flags, and a {@link RejectedCall} for each self-call that was not optimized. This requires more
+	 * classes to be parsed, so it is slower than the optimization without it.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param explain
+	 *            <code>true</code> to record the reasons of the self-calls not being optimized.
+	 * @return The result of the optimization.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 * @see MethodOptimizationResult#getRejectedCalls()
+	 */
+	public static ClassOptimizationResult optimizeClass(byte[] classbytes, int offset, int length, boolean explain)
+			throws NullPointerException {
+		return optimizeClass(classbytes, offset, length, explain, true, AnalysisBudget.DEFAULT);
+	}
 
-		;
+	/**
+	 * Optimizes out the possible tail recursive calls in the argument Java class bytecode using the specified analysis
+	 * budget, and returns the detailed results of the optimization.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param explain
+	 *            <code>true</code> to record the reasons of the self-calls not being optimized.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @return The result of the optimization.
+	 * @throws NullPointerException
+	 *             If the class bytes or the budget is <code>null</code>.
+	 * @see #optimizeClass(byte[], int, int, boolean)
+	 * @see MethodOptimizationResult#isBudgetExceeded()
+	 */
+	public static ClassOptimizationResult optimizeClass(byte[] classbytes, int offset, int length, boolean explain,
+			AnalysisBudget budget) throws NullPointerException {
+		Objects.requireNonNull(budget, "budget");
+		return optimizeClass(classbytes, offset, length, explain, true, budget);
 	}
 
-	private static class VisitedLabelState {
-		protected LabelNode labelNode;
-		protected NavigableMap<Integer, Object> variableContents;
+	/**
+	 * Analyzes the argument Java class bytecode for tail recursive calls without writing the optimized class.
+	 * <p>
+	 * The returned result is the same as for {@link #optimizeClass(byte[], int, int)}, but it contains no optimized
+	 * bytes, and no time is spent with writing the class.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to analyze.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @return The result of the analysis.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 */
+	public static ClassOptimizationResult scanClass(byte[] classbytes, int offset, int length)
+			throws NullPointerException {
+		return optimizeClass(classbytes, offset, length, false, false, AnalysisBudget.DEFAULT);
+	}
 
-		public VisitedLabelState(LabelNode labelNode, NavigableMap<Integer, Object> variableContents) {
-			this.labelNode = labelNode;
-			this.variableContents = new TreeMap<>(variableContents);
-		}
+	/**
+	 * Analyzes the argument Java class bytecode for tail recursive calls without writing the optimized class,
+	 * optionally explaining why the self-calls were not optimized.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to analyze.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param explain
+	 *            <code>true</code> to record the reasons of the self-calls not being optimized.
+	 * @return The result of the analysis.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 * @see #optimizeClass(byte[], int, int, boolean)
+	 */
+	public static ClassOptimizationResult scanClass(byte[] classbytes, int offset, int length, boolean explain)
+			throws NullPointerException {
+		return optimizeClass(classbytes, offset, length, explain, false, AnalysisBudget.DEFAULT);
+	}
 
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((labelNode == null) ? 0 : labelNode.hashCode());
-			result = prime * result + ((variableContents == null) ? 0 : variableContents.hashCode());
-			return result;
-		}
+	/**
+	 * Analyzes the argument Java class bytecode for tail recursive calls using the specified analysis budget, without
+	 * writing the optimized class.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to analyze.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param explain
+	 *            <code>true</code> to record the reasons of the self-calls not being optimized.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @return The result of the analysis.
+	 * @throws NullPointerException
+	 *             If the class bytes or the budget is <code>null</code>.
+	 * @see #scanClass(byte[], int, int, boolean)
+	 */
+	public static ClassOptimizationResult scanClass(byte[] classbytes, int offset, int length, boolean explain,
+			AnalysisBudget budget) throws NullPointerException {
+		Objects.requireNonNull(budget, "budget");
+		return optimizeClass(classbytes, offset, length, explain, false, budget);
+	}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			VisitedLabelState other = (VisitedLabelState) obj;
-			if (labelNode == null) {
-				if (other.labelNode != null)
-					return false;
-			} else if (!labelNode.equals(other.labelNode))
-				return false;
-			if (variableContents == null) {
-				if (other.variableContents != null)
-					return false;
-			} else if (!variableContents.equals(other.variableContents))
-				return false;
-			return true;
+	private static ClassOptimizationResult optimizeClass(byte[] classbytes, int offset, int length, boolean explain,
+			boolean write, AnalysisBudget budget) {
+		long starttime = System.nanoTime();
+		ClassReader cr = new ClassReader(classbytes, offset, length);
+		ClassOptimizationResult result = new ClassOptimizationResult(cr.getClassName().replace('/', '.'), length);
+		ClassWriter cw = optimizeMethods(cr, null, result, explain, write, budget);
+		long endtime = System.nanoTime();
+		//the time of the method analysis, transformation and writing was recorded during the reading
+		result.parseNanos = endtime - starttime - result.analysisNanos - result.transformNanos - result.writeNanos;
+		if (cw != null) {
+			result.setOptimizedBytes(cw.toByteArray());
+			result.writeNanos += System.nanoTime() - endtime;
 		}
+		return result;
 	}
 
-	private static boolean isTailOptimizable(AbstractInsnNode startnode, Object returntypeframetype,
-			MethodInsnNode mins) {
-		//we need to keep track of visited labels, so we dont get into an infinite loop if the bytecode represents an infinite loop
-		//e.g.:
-		//public static void infloop() {
-		//	infloop();
-		//	while (true) {
-		//	}
-		//}
-
-		NavigableMap<Integer, Object> varnumcontents = new TreeMap<>();
-		Set<? super VisitedLabelState> visitedlabelcache = new HashSet<>();
-		LinkedList<Object> currentstack = new LinkedList<>();
-		if (returntypeframetype != null) {
-			if (returntypeframetype.equals(Opcodes.LONG) || returntypeframetype.equals(Opcodes.DOUBLE)) {
-				currentstack.push(VarContents.RESULT);
-			}
-			currentstack.push(VarContents.RESULT);
-		} //else no return value of the method, stack doesnt contain the return value
+	private static ClassWriter optimizeMethods(ClassReader cr) {
+		return optimizeMethods(cr, null, AnalysisBudget.DEFAULT);
+	}
 
-		return isTailOptimizableImpl(startnode, returntypeframetype, varnumcontents, visitedlabelcache, currentstack);
+	private static ClassWriter optimizeMethods(ClassReader cr, OptimizationStatistics statistics,
+			AnalysisBudget budget) {
+		return optimizeMethods(cr, statistics, null, false, true, budget);
 	}
 
-	private static boolean isTailOptimizableImpl(AbstractInsnNode startnode, Object returntypeframetype,
-			NavigableMap<Integer, Object> varnumcontents, Set<? super VisitedLabelState> visitedlabelcache,
-			LinkedList<Object> currentstack) throws AssertionError {
-		for (AbstractInsnNode ins = startnode; (ins = ins.getNext()) != null;) {
-			switch (ins.getType()) {
-				case AbstractInsnNode.FRAME: {
-					FrameNode fins = (FrameNode) ins;
-					if (fins.type != Opcodes.F_NEW) {
-						throw new AssertionError(fins.type);
-					}
-					int varidx = 0;
-					for (Object locobj : fins.local) {
-						boolean wide = locobj.equals(Opcodes.LONG) || locobj.equals(Opcodes.DOUBLE);
-						if (!Objects.equals(returntypeframetype, locobj)) {
-							varnumcontents.remove(varidx);
-							if (wide) {
-								varnumcontents.remove(varidx + 1);
-							}
-						}
-						if (wide) {
-							varidx += 2;
-						} else {
-							varidx += 1;
-						}
-					}
-					varnumcontents.tailMap(varidx, true).clear();
-					//we don't modify the stack in case of new frame. It is the job of the JVM to verify its validity
-					break;
-				}
-				case AbstractInsnNode.LINE: {
-					break;
-				}
-				case AbstractInsnNode.LABEL: {
-					VisitedLabelState labelstate = new VisitedLabelState((LabelNode) ins, varnumcontents);
-					if (!visitedlabelcache.add(labelstate)) {
-						//already visited target label, and re-encountered. it is optimizable
-						return true;
-					}
-					break;
-				}
-				case AbstractInsnNode.JUMP_INSN: {
-					switch (ins.getOpcode()) {
-						case Opcodes.GOTO: {
-							JumpInsnNode jmp = (JumpInsnNode) ins;
-							VisitedLabelState labelstate = new VisitedLabelState(jmp.label, varnumcontents);
-							if (!visitedlabelcache.add(labelstate)) {
-								//already visited target label, and re-encountered. it is optimizable
-								return true;
-							}
-							ins = jmp.label; // .getNext() is called as part of the for loop
-							break;
-						}
-						case Opcodes.IFNULL:
-						case Opcodes.IFNONNULL:
-						case Opcodes.IFEQ:
-						case Opcodes.IFNE:
-						case Opcodes.IFLT:
-						case Opcodes.IFGE:
-						case Opcodes.IFGT:
-						case Opcodes.IFLE: {
-//							..., value 
-//							...
-							JumpInsnNode jmp = (JumpInsnNode) ins;
-							VisitedLabelState labelstate = new VisitedLabelState(jmp.label, varnumcontents);
-							if (!visitedlabelcache.add(labelstate)) {
-								//already visited target label, and re-encountered. it is optimizable
-								return true;
-							}
-							currentstack.pollFirst();
-							if (!isTailOptimizableImpl(jmp.label, returntypeframetype, new TreeMap<>(varnumcontents),
-									new HashSet<>(visitedlabelcache), new LinkedList<>(currentstack))) {
-								return false;
-							}
-							//continue checking this branch
-							break;
-						}
-						case Opcodes.IF_ICMPEQ:
-						case Opcodes.IF_ICMPNE:
-						case Opcodes.IF_ICMPLT:
-						case Opcodes.IF_ICMPGE:
-						case Opcodes.IF_ICMPGT:
-						case Opcodes.IF_ICMPLE:
-						case Opcodes.IF_ACMPEQ:
-						case Opcodes.IF_ACMPNE: {
-//							..., value1, value2 
-//							...
-							JumpInsnNode jmp = (JumpInsnNode) ins;
-							VisitedLabelState labelstate = new VisitedLabelState(jmp.label, varnumcontents);
-							if (!visitedlabelcache.add(labelstate)) {
-								//already visited target label, and re-encountered. it is optimizable
-								return true;
-							}
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							if (!isTailOptimizableImpl(jmp.label, returntypeframetype, new TreeMap<>(varnumcontents),
-									new HashSet<>(visitedlabelcache), new LinkedList<>(currentstack))) {
-								return false;
-							}
-							//continue checking this branch
-							break;
-						}
-						case Opcodes.JSR: {
-							return false;
-						}
-						default: {
-							//unknown instruction
-							return false;
-						}
-					}
-					break;
-				}
-				case AbstractInsnNode.FIELD_INSN: {
-					switch (ins.getOpcode()) {
-						case Opcodes.GETSTATIC: {
-							FieldInsnNode fins = (FieldInsnNode) ins;
-							if ("J".equals(fins.desc) || "D".equals(fins.desc)) {
-								//2x size
-								currentstack.addFirst(VarContents.UNKNOWN);
-							}
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.GETFIELD: {
-							//a field read can be optimized away, if later we don't do anything with it
-							//nullpointer exception can occurr, but it is fine to optimize that away
-							currentstack.pollFirst();
-							FieldInsnNode fins = (FieldInsnNode) ins;
-							if ("J".equals(fins.desc) || "D".equals(fins.desc)) {
-								//2x size
-								currentstack.addFirst(VarContents.UNKNOWN);
-							}
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						default: {
-							//unknown instruction
-							return false;
-						}
-					}
-					break;
-				}
-				case AbstractInsnNode.IINC_INSN: {
-					IincInsnNode iincn = (IincInsnNode) ins;
-					//remove the holding var, as it has been modified
-					varnumcontents.remove(iincn.var);
-					//doesn't change the stack
-					break;
-				}
-				case AbstractInsnNode.TYPE_INSN: {
-					switch (ins.getOpcode()) {
-						case Opcodes.INSTANCEOF: {
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.CHECKCAST: {
-							//does not modify the stack
-							//XXX create tests which check for any errors if we don't apply the cast to the representation regarding frames
-							//    the optimization might omit the actual casting
-							break;
-						}
-						case Opcodes.NEW: {
-							currentstack.add(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.ANEWARRAY: {
-//							..., count 
-//							..., arrayref
+	/**
+	 * @param result
+	 *            The result to record the method results and timings to. May be <code>null</code>.
+	 * @param explain
+	 *            <code>true</code> to record the rejected self-calls in the result.
+	 * @param write
+	 *            <code>false</code> if only the analysis should be performed, without writing the class.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @return The writer of the optimized class or <code>null</code> if there were no optimizations performed, or the
+	 *             class is not written.
+	 */
+	private static ClassWriter optimizeMethods(ClassReader cr, OptimizationStatistics statistics,
+			ClassOptimizationResult result, boolean explain, boolean write, AnalysisBudget budget) {
+		Set<String> candidatemethods = collectSelfCallCandidateMethods(cr, explain);
+		if (candidatemethods == null) {
+			//fast path, no need to parse the whole class
+			return null;
+		}
+		if (statistics != null) {
+			statistics.addParsedClass();
+		}
+		//only the candidate methods are read into a tree, the others are copied as is by the writer
+		//    without a writer, the other methods are skipped
+		ClassWriter cw = write ? new ClassWriter(cr, 0) : null;
+		OptimizerClassVisitor cv = new OptimizerClassVisitor(cw, candidatemethods, statistics, result,
+				explain ? cr : null, new BudgetTracker(budget));
+		cr.accept(cv, ClassReader.EXPAND_FRAMES);
+		if (!cv.deferredExplanations.isEmpty()) {
+			explainDeferredMethods(cr, cv);
+		}
+		if (result != null) {
+			for (MethodOptimizationResult methodresult : cv.methodResults) {
+				result.addMethod(methodresult);
+			}
+		}
+		if (!cv.optimized) {
+			return null;
+		}
+		if (result != null) {
+			result.optimized = true;
+		}
+		return cw;
+	}
 
-							currentstack.pollFirst();
-							currentstack.add(VarContents.UNKNOWN);
-							break;
-						}
-						default: {
-							//unknown instruction
-							return false;
-						}
-					}
-					break;
-				}
-				case AbstractInsnNode.TABLESWITCH_INSN: {
-					TableSwitchInsnNode tsn = (TableSwitchInsnNode) ins;
-					currentstack.pollFirst();
-					if (tsn.dflt != null) {
-						VisitedLabelState labelstate = new VisitedLabelState(tsn.dflt, varnumcontents);
-						if (visitedlabelcache.add(labelstate)) {
-							//already visited target label, and re-encountered. it is optimizable
-							if (!isTailOptimizableImpl(tsn.dflt, returntypeframetype, new TreeMap<>(varnumcontents),
-									new HashSet<>(visitedlabelcache), new LinkedList<>(currentstack))) {
-								return false;
-							}
-						}
-					}
-					if (tsn.labels != null) {
-						for (LabelNode lbl : tsn.labels) {
-							VisitedLabelState labelstate = new VisitedLabelState(lbl, varnumcontents);
-							if (visitedlabelcache.add(labelstate)) {
-								//already visited target label, and re-encountered. it is optimizable
-								if (!isTailOptimizableImpl(lbl, returntypeframetype, new TreeMap<>(varnumcontents),
-										new HashSet<>(visitedlabelcache), new LinkedList<>(currentstack))) {
-									return false;
-								}
-							}
-						}
-					}
-					break;
+	/**
+	 * Explains the self-calls of the methods that were copied to the writer as is, because they are not optimizable.
+	 * <p>
+	 * The methods are read in a separate pass, so the output is the same regardless of explaining.
+	 */
+	private static void explainDeferredMethods(final ClassReader cr, final OptimizerClassVisitor optimizervisitor) {
+		cr.accept(new ClassVisitor(ASM_API) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+					String[] exceptions) {
+				final MethodOptimizationResult methodresult = optimizervisitor.deferredExplanations
+						.get(name + descriptor);
+				if (methodresult == null) {
+					return null;
 				}
-				case AbstractInsnNode.LOOKUPSWITCH_INSN: {
-					LookupSwitchInsnNode lsn = (LookupSwitchInsnNode) ins;
-					currentstack.pollFirst();
-					if (lsn.dflt != null) {
-						VisitedLabelState labelstate = new VisitedLabelState(lsn.dflt, varnumcontents);
-						if (visitedlabelcache.add(labelstate)) {
-							//already visited target label, and re-encountered. it is optimizable
-							if (!isTailOptimizableImpl(lsn.dflt, returntypeframetype, new TreeMap<>(varnumcontents),
-									new HashSet<>(visitedlabelcache), new LinkedList<>(currentstack))) {
-								return false;
-							}
-						}
+				return new MethodNode(ASM_API, access, name, descriptor, signature, exceptions) {
+					@Override
+					public void visitEnd() {
+						super.visitEnd();
+						optimizeMethod(optimizervisitor.className, optimizervisitor.classVersion,
+								optimizervisitor.interfaceClass, this, methodresult, cr, null);
 					}
-					if (lsn.labels != null) {
-						for (LabelNode lbl : lsn.labels) {
-							VisitedLabelState labelstate = new VisitedLabelState(lbl, varnumcontents);
-							if (visitedlabelcache.add(labelstate)) {
-								//already visited target label, and re-encountered. it is optimizable
-								if (!isTailOptimizableImpl(lbl, returntypeframetype, new TreeMap<>(varnumcontents),
-										new HashSet<>(visitedlabelcache), new LinkedList<>(currentstack))) {
-									return false;
-								}
-							}
-						}
-					}
-					break;
-				}
-				case AbstractInsnNode.INSN: {
-					switch (ins.getOpcode()) {
-						case Opcodes.RETURN: {
-							//no need to check the stack
-							return true;
-						}
-						case Opcodes.ARETURN:
-						case Opcodes.FRETURN:
-						case Opcodes.IRETURN: {
-							if (currentstack.peekFirst() == VarContents.RESULT) {
-								return true;
-							}
-							return false;
-						}
-						case Opcodes.DRETURN:
-						case Opcodes.LRETURN: {
-							Iterator<?> it = currentstack.iterator();
-							if (it.next() == VarContents.RESULT && it.next() == VarContents.RESULT) {
-								return true;
-							}
-							return false;
-						}
-						case Opcodes.ATHROW: {
-							//XXX we could optimize throwing as well, but it is probably rarely used, and messes with the stack trace. 
-							//    Could be toggleable with an optimization flag
-							return false;
-						}
-
-						case Opcodes.DUP: {
-							Object f = currentstack.peekFirst();
-							if (f != null) {
-								currentstack.addFirst(f);
-							}
-							break;
-						}
-						case Opcodes.DUP_X1: {
-//							..., value2, value1 
-//							..., value1, value2, value1
-							Object f = currentstack.peekFirst();
-							if (f != null) {
-								ListIterator<Object> it = currentstack.listIterator();
-								//first
-								it.next();
-								addStackElementIfDoesntExist(it);
-								//add the first element
-								it.add(f);
-							}
-							break;
-						}
-						case Opcodes.DUP_X2: {
-//							..., value3, value2, value1 
-//							..., value1, value3, value2, value1
-							Object f = currentstack.peekFirst();
-							if (f != null) {
-								ListIterator<Object> it = currentstack.listIterator();
-								//first
-								it.next();
-								addStackElementIfDoesntExist(it);
-								addStackElementIfDoesntExist(it);
-								it.add(f);
-							}
-							break;
-						}
-						case Opcodes.DUP2: {
-//							..., value2, value1 
-//							..., value2, value1, value2, value1
-							Object f = currentstack.peekFirst();
-							if (f != null) {
-								ListIterator<Object> it = currentstack.listIterator();
-								it.next();
-								Object s = addStackElementIfDoesntExist(it);
-								it.add(f);
-								it.add(s);
-							}
-							break;
-						}
-						case Opcodes.DUP2_X1: {
-//							..., value3, value2, value1 
-//							..., value2, value1, value3, value2, value1
-							Object f = currentstack.peekFirst();
-							if (f != null) {
-								ListIterator<Object> it = currentstack.listIterator();
-								it.next();
-								Object s = addStackElementIfDoesntExist(it);
-								addStackElementIfDoesntExist(it);
-								it.add(f);
-								it.add(s);
-							}
-							break;
-						}
-						case Opcodes.DUP2_X2: {
-//							..., value4, value3, value2, value1 
-//							..., value2, value1, value4, value3, value2, value1
-							Object f = currentstack.peekFirst();
-							if (f != null) {
-								ListIterator<Object> it = currentstack.listIterator();
-								it.next();
-								Object s = addStackElementIfDoesntExist(it);
-								addStackElementIfDoesntExist(it);
-								addStackElementIfDoesntExist(it);
-								it.add(f);
-								it.add(s);
-							}
-							break;
-						}
-						case Opcodes.POP: {
-							currentstack.pollFirst();
-							break;
-						}
-						case Opcodes.POP2: {
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							break;
-						}
-						case Opcodes.SWAP: {
-							switch (currentstack.size()) {
-								case 0: {
-									//ignore
-									break;
-								}
-								case 1: {
-									//anything that is first, will be second
-									currentstack.addFirst(VarContents.UNKNOWN);
-									break;
-								}
-								default: {
-									//swap the first 2 values
-									Object first = currentstack.removeFirst();
-									Object second = currentstack.removeFirst();
-									currentstack.addFirst(first);
-									currentstack.addFirst(second);
-									break;
-								}
-							}
-							break;
-						}
-						case Opcodes.ARRAYLENGTH: {
-							//we can optimize array length reading away.
-							//it could trigger a nullpointer exception if the array is null, but users really should rely on that
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.ICONST_M1:
-						case Opcodes.ICONST_0:
-						case Opcodes.ICONST_1:
-						case Opcodes.ICONST_2:
-						case Opcodes.ICONST_3:
-						case Opcodes.ICONST_4:
-						case Opcodes.ICONST_5:
-						case Opcodes.FCONST_0:
-						case Opcodes.FCONST_1:
-						case Opcodes.FCONST_2:
-						case Opcodes.ACONST_NULL: {
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.LCONST_0:
-						case Opcodes.LCONST_1:
-						case Opcodes.DCONST_0:
-						case Opcodes.DCONST_1: {
-							currentstack.addFirst(VarContents.UNKNOWN);
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.IALOAD:
-						case Opcodes.FALOAD:
-						case Opcodes.AALOAD:
-						case Opcodes.BALOAD:
-						case Opcodes.CALOAD:
-						case Opcodes.SALOAD: {
-							//we can optimize array reading away.
-							//it could trigger a nullpointer exception if the array is null, but users really should rely on that
-//							..., arrayref, index 
-//							..., value
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.LALOAD:
-						case Opcodes.DALOAD: {
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.IASTORE:
-						case Opcodes.LASTORE:
-						case Opcodes.FASTORE:
-						case Opcodes.DASTORE:
-						case Opcodes.AASTORE:
-						case Opcodes.BASTORE:
-						case Opcodes.CASTORE:
-						case Opcodes.SASTORE: {
-							//we cannot optimize array storings away, as they are not side effect free
-							//if an array was loaded previously from a field, storing an object to it cannot be omitted
-							return false;
-						}
-
-						case Opcodes.LSHL:
-						case Opcodes.LUSHR:
-						case Opcodes.LSHR: {
-							//size 2, size 1 -> 2
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.IADD:
-						case Opcodes.ISUB:
-						case Opcodes.IMUL:
-						case Opcodes.IDIV:
-						case Opcodes.IREM:
-						case Opcodes.ISHL:
-						case Opcodes.ISHR:
-						case Opcodes.IUSHR:
-						case Opcodes.IAND:
-						case Opcodes.IOR:
-						case Opcodes.IXOR:
-						case Opcodes.FADD:
-						case Opcodes.FSUB:
-						case Opcodes.FMUL:
-						case Opcodes.FDIV:
-						case Opcodes.FREM:
-						case Opcodes.FCMPL:
-						case Opcodes.FCMPG: {
-							//size 1, size 1 -> 1
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-
-						case Opcodes.LDIV:
-						case Opcodes.LADD:
-						case Opcodes.LSUB:
-						case Opcodes.LMUL:
-						case Opcodes.LREM:
-						case Opcodes.LAND:
-						case Opcodes.LOR:
-						case Opcodes.DDIV:
-						case Opcodes.DADD:
-						case Opcodes.DSUB:
-						case Opcodes.DMUL:
-						case Opcodes.DREM: {
-							//size 2, size 2 -> 2
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-
-						case Opcodes.LCMP:
-						case Opcodes.DCMPL:
-						case Opcodes.DCMPG: {
-							//size 2, size 2 -> 1
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
+				};
+			}
+		}, ClassReader.SKIP_FRAMES);
+	}
 
-						case Opcodes.D2I:
-						case Opcodes.D2F:
-						case Opcodes.L2I:
-						case Opcodes.L2F: {
-							//size 2 -> 1
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.I2F:
-						case Opcodes.I2B:
-						case Opcodes.I2C:
-						case Opcodes.I2S:
-						case Opcodes.INEG:
-						case Opcodes.FNEG:
-						case Opcodes.F2I: {
-							//size 1 -> 1
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.LXOR:
-						case Opcodes.L2D:
-						case Opcodes.LNEG:
-						case Opcodes.D2L:
-						case Opcodes.DNEG: {
-							//size 2 -> 2
-							currentstack.pollFirst();
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
+	/**
+	 * Checks if the argument class may contain optimizable self-calls without parsing the method bodies.
+	 * <p>
+	 * This is the same check the optimizer uses to reject most classes based on their constant pool. It can be used
+	 * to avoid more expensive work, like hashing the class for a cache lookup, if the optimizer wouldn't change the
+	 * class anyway.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @return <code>false</code> if the optimizer would return the class unchanged.
+	 * @throws NullPointerException
+	 *             If the class bytes is <code>null</code>.
+	 */
+	public static boolean hasSelfCallCandidates(byte[] classbytes, int offset, int length)
+			throws NullPointerException {
+		return collectSelfCallCandidateMethods(new ClassReader(classbytes, offset, length), false) != null;
+	}
 
-						case Opcodes.I2L:
-						case Opcodes.I2D:
-						case Opcodes.F2L:
-						case Opcodes.F2D: {
-							//size 1 -> 2
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
+	/**
+	 * Collects the methods of the class that may contain an optimizable self-call by examining the constant pool and the
+	 * declared methods.
+	 * <p>
+	 * The method bodies are not parsed, so this is a cheap way of rejecting most classes without building the tree
+	 * representation of them. The check is conservative, the returned methods may not contain any optimizable calls.
+	 * 
+	 * @param includenonoptimizable
+	 *            <code>true</code> to include the methods that are not optimizable based on their access flags.
+	 * @return The name and descriptor concatenations of the candidate methods or <code>null</code> if there are none.
+	 */
+	private static Set<String> collectSelfCallCandidateMethods(ClassReader cr, boolean includenonoptimizable) {
+		int header = cr.header;
+		boolean itf = (cr.readUnsignedShort(header) & Opcodes.ACC_INTERFACE) == Opcodes.ACC_INTERFACE;
+		int methodreftag = itf ? CONSTANT_INTERFACE_METHODREF_TAG : CONSTANT_METHODREF_TAG;
+		int thisclassitem = cr.readUnsignedShort(header + 2);
+		int thisnameitem = cr.readUnsignedShort(cr.getItem(thisclassitem));
 
-						//unary bitwise not is xorring by -1 
-						case Opcodes.NOP: {
-							break;
-						}
-						//TODO include additional operators and instructions
-						case Opcodes.MONITORENTER:
-						case Opcodes.MONITOREXIT: {
-							//if there are monitor instructions to the return path, it is not optimizable
-							return false;
-						}
-						default: {
-							//unrecognized instruction, invalid path
-							return false;
-						}
-					}
-					break;
-				}
-				case AbstractInsnNode.INT_INSN: {
-					switch (ins.getOpcode()) {
-						case Opcodes.BIPUSH:
-						case Opcodes.SIPUSH: {
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						case Opcodes.NEWARRAY: {
-//							..., count 
-//							..., arrayref
-							currentstack.pollFirst();
-							currentstack.addFirst(VarContents.UNKNOWN);
-							break;
-						}
-						default: {
-							//unknown instruction
-							return false;
-						}
-					}
-					break;
+		char[] charbuffer = null;
+		//the name and type items of the methods which are referenced on this class
+		int[] nameandtypeitems = null;
+		int candidatecount = 0;
+		for (int i = 1, itemcount = cr.getItemCount(); i < itemcount; i++) {
+			int offset = cr.getItem(i);
+			if (offset == 0 || cr.readByte(offset - 1) != methodreftag) {
+				continue;
+			}
+			int classitem = cr.readUnsignedShort(offset);
+			if (classitem != thisclassitem && cr.readUnsignedShort(cr.getItem(classitem)) != thisnameitem) {
+				//the constant pool may contain duplicate entries, compare the names as well
+				if (charbuffer == null) {
+					charbuffer = new char[cr.getMaxStringLength()];
 				}
-				case AbstractInsnNode.MULTIANEWARRAY_INSN: {
-//					..., count1, [count2, ...] 
-//					..., arrayref
-					MultiANewArrayInsnNode mnanode = (MultiANewArrayInsnNode) ins;
-					for (int i = 0; i < mnanode.dims; i++) {
-						currentstack.pollFirst();
-					}
-					currentstack.addFirst(VarContents.UNKNOWN);
-					break;
+				if (!cr.getClassName().equals(cr.readClass(offset, charbuffer))) {
+					continue;
 				}
-				case AbstractInsnNode.VAR_INSN: {
-					switch (ins.getOpcode()) {
-						case Opcodes.ALOAD:
-						case Opcodes.FLOAD:
-						case Opcodes.ILOAD: {
-							VarInsnNode vins = (VarInsnNode) ins;
-							currentstack.push(varnumcontents.getOrDefault(vins.var, VarContents.UNKNOWN));
-							break;
-						}
-						case Opcodes.DLOAD:
-						case Opcodes.LLOAD: {
-							VarInsnNode vins = (VarInsnNode) ins;
-							Object holding = varnumcontents.getOrDefault(vins.var, VarContents.UNKNOWN);
-							currentstack.push(holding);
-							currentstack.push(holding);
-							break;
-						}
-						case Opcodes.ASTORE:
-						case Opcodes.FSTORE:
-						case Opcodes.ISTORE: {
-							VarInsnNode vins = (VarInsnNode) ins;
-							Object f = currentstack.pollFirst();
-							if (f == null) {
-								f = VarContents.UNKNOWN;
-							}
-							varnumcontents.put(vins.var, f);
-							break;
-						}
-						case Opcodes.DSTORE:
-						case Opcodes.LSTORE: {
-							VarInsnNode vins = (VarInsnNode) ins;
-							Object f = currentstack.pollFirst();
-							Object f2 = currentstack.pollFirst();
-							if (f == null) {
-								f = VarContents.UNKNOWN;
-							}
-							if (f2 == null) {
-								f2 = VarContents.UNKNOWN;
+			}
+			if (nameandtypeitems == null) {
+				nameandtypeitems = new int[4];
+			} else if (candidatecount == nameandtypeitems.length) {
+				nameandtypeitems = Arrays.copyOf(nameandtypeitems, candidatecount * 2);
+			}
+			nameandtypeitems[candidatecount++] = cr.readUnsignedShort(offset + 2);
+		}
+		if (candidatecount == 0) {
+			return null;
+		}
+		if (charbuffer == null) {
+			charbuffer = new char[cr.getMaxStringLength()];
+		}
+
+		//skip the interfaces and the fields
+		int offset = header + 6;
+		offset += 2 + cr.readUnsignedShort(offset) * 2;
+		int fieldcount = cr.readUnsignedShort(offset);
+		offset += 2;
+		while (fieldcount-- > 0) {
+			offset = skipMemberInfo(cr, offset);
+		}
+		Set<String> result = null;
+		int methodcount = cr.readUnsignedShort(offset);
+		offset += 2;
+		while (methodcount-- > 0) {
+			if (includenonoptimizable || isOptimizableMethodAccess(cr.readUnsignedShort(offset))) {
+				for (int i = 0; i < candidatecount; i++) {
+					int natoffset = cr.getItem(nameandtypeitems[i]);
+					if (isSameUTF8(cr, offset + 2, natoffset, charbuffer)
+							&& isSameUTF8(cr, offset + 4, natoffset + 2, charbuffer)) {
+						String name = cr.readUTF8(offset + 2, charbuffer);
+						if (name.charAt(0) != '<') {
+							if (result == null) {
+								result = new HashSet<>();
 							}
-							varnumcontents.put(vins.var, f);
-							varnumcontents.put(vins.var + 1, f);
-							break;
-						}
-						default: {
-							//unrecognized instruction, not found
-							return false;
+							result.add(name + cr.readUTF8(offset + 4, charbuffer));
 						}
+						break;
 					}
-					break;
-				}
-				case AbstractInsnNode.LDC_INSN: {
-					currentstack.push(VarContents.UNKNOWN);
-					break;
-				}
-				default: {
-					//unrecognized node type
-					return false;
 				}
 			}
+			offset = skipMemberInfo(cr, offset);
 		}
-		return false;
+		return result;
+	}
+
+	private static boolean isSameUTF8(ClassReader cr, int offset1, int offset2, char[] charbuffer) {
+		if (cr.readUnsignedShort(offset1) == cr.readUnsignedShort(offset2)) {
+			return true;
+		}
+		return cr.readUTF8(offset1, charbuffer).equals(cr.readUTF8(offset2, charbuffer));
 	}
 
-	private static Object addStackElementIfDoesntExist(ListIterator<Object> it) {
-		if (!it.hasNext()) {
-			it.add(VarContents.UNKNOWN);
-			return VarContents.UNKNOWN;
+	private static int skipMemberInfo(ClassReader cr, int offset) {
+		//access_flags, name_index, descriptor_index
+		offset += 6;
+		int attributecount = cr.readUnsignedShort(offset);
+		offset += 2;
+		while (attributecount-- > 0) {
+			//attribute_name_index, attribute_length, info
+			offset += 6 + cr.readInt(offset + 2);
 		}
-		return it.next();
+		return offset;
 	}
 
 	private static boolean isOptimizableMethod(MethodNode mn, boolean owneritf) {
@@ -872,7 +569,10 @@ public class TailRecursionOptimizer {
 		//   we can't optimize them, because subclasses can call these methods. the recursive
 		//   calls would dispatch back to the subclass, so the optimization cannot be performed.
 
-		int access = mn.access;
+		return isOptimizableMethodAccess(mn.access);
+	}
+
+	private static boolean isOptimizableMethodAccess(int access) {
 		if (((access & Opcodes.ACC_NATIVE) == Opcodes.ACC_NATIVE)
 				|| ((access & Opcodes.ACC_ABSTRACT) == Opcodes.ACC_ABSTRACT)) {
 			return false;
@@ -919,7 +619,7 @@ public class TailRecursionOptimizer {
 		return false;
 	}
 
-	private static LabelNode insertStartGotoLabel(ClassNode classnode, MethodNode mn) {
+	private static LabelNode insertStartGotoLabel(boolean usingframes, MethodNode mn) {
 		AbstractInsnNode firstinsn = mn.instructions.getFirst();
 		LabelNode firstlabel = null;
 		FrameNode firstframe = null;
@@ -947,7 +647,7 @@ public class TailRecursionOptimizer {
 		}
 
 		if (firstframe == null) {
-			if (isUsingFrames(classnode)) {
+			if (usingframes) {
 				firstframe = new FrameNode(Opcodes.F_SAME, 0, null, 0, null);
 				mn.instructions.insert(firstlabel, firstframe);
 			}
@@ -955,14 +655,39 @@ public class TailRecursionOptimizer {
 		return firstlabel;
 	}
 
-	private static boolean optimizeMethod(ClassNode classnode, boolean owneritf, MethodNode mn) {
+	/**
+	 * Optimizes the tail recursive calls in the method.
+	 * 
+	 * @param methodresult
+	 *            The result to record the self-calls and timings to. May be <code>null</code>.
+	 * @param explainreader
+	 *            The reader of the class if the rejected self-calls should be recorded in the method result, else
+	 *            <code>null</code>.
+	 * @param budget
+	 *            The budget of the analysis. May be <code>null</code> if the method is not optimizable.
+	 * @return The number of optimized calls, or {@link #ANALYSIS_BUDGET_EXCEEDED} if the method was left unchanged
+	 *             because the analysis exceeded the budget.
+	 */
+	private static int optimizeMethod(String classname, int classversion, boolean owneritf, MethodNode mn,
+			MethodOptimizationResult methodresult, ClassReader explainreader, BudgetTracker budget) {
 		if ("<init>".equals(mn.name) || "<clinit>".equals(mn.name)) {
 			//no optimizations for constructors and static initializers
-			return false;
+			return 0;
 		}
 		boolean methodoptimizable = isOptimizableMethod(mn, owneritf);
 		if (!methodoptimizable) {
-			return false;
+			if (explainreader != null) {
+				List<int[]> rejections = new ArrayList<>();
+				int insidx = 0;
+				for (AbstractInsnNode ins = mn.instructions.getFirst(); ins != null; ins = ins.getNext(), ++insidx) {
+					if (isSelfCall(classname, owneritf, mn, ins)) {
+						++methodresult.selfCallCount;
+						rejections.add(new int[] { insidx, -1, RejectionReason.NON_OPTIMIZABLE_METHOD.ordinal() });
+					}
+				}
+				addRejectedCalls(explainreader, mn, methodresult, rejections);
+			}
+			return 0;
 		}
 
 		LabelNode gotolabelnode = null;
@@ -976,15 +701,8 @@ public class TailRecursionOptimizer {
 
 		//the tail-recursion doesnt work if the method call is in a try-catch, as the exception would need the stack trace, and 
 		//    basically anything can happen in the catch block. This would semantically violate the optimization.
-		Set<AbstractInsnNode> trycatchskipinstructions;
-		if (mn.tryCatchBlocks.isEmpty()) {
-			trycatchskipinstructions = Collections.emptySet();
-		} else {
-			trycatchskipinstructions = new HashSet<>();
-			for (TryCatchBlockNode tcb : mn.tryCatchBlocks) {
-				collectTryCatchBodyInstructions(trycatchskipinstructions, tcb);
-			}
-		}
+		//    the bodies are stored as exclusive instruction index ranges, start and end at each consecutive index
+		int[] trycatchranges = collectTryCatchBodyRanges(mn);
 
 		Object returntypeframetype;
 		Type methodreturntype = methodtype.getReturnType();
@@ -1023,103 +741,167 @@ public class TailRecursionOptimizer {
 			}
 		}
 
-		boolean usingframes = isUsingFrames(classnode);
+		boolean usingframes = isUsingFrames(classversion);
 
-		for (AbstractInsnNode ins = mn.instructions.getFirst(); ins != null; ins = ins.getNext()) {
-			if (trycatchskipinstructions.contains(ins)) {
+		long analysisstarttime = methodresult == null ? 0 : System.nanoTime();
+		//collect the optimizable calls before modifying the instructions, as the analysis is based on the original code
+		List<MethodInsnNode> optimizablecalls = new ArrayList<>();
+		//the call index, the blocking instruction index, and the reason ordinal of the rejected calls if explaining
+		List<int[]> rejections = explainreader == null ? null : new ArrayList<int[]>();
+		ReturnPathAnalyzer returnpathanalyzer = null;
+		boolean budgetexceeded = false;
+		int insidx = 0;
+		for (AbstractInsnNode ins = mn.instructions.getFirst(); ins != null; ins = ins.getNext(), ++insidx) {
+			if (!isSelfCall(classname, owneritf, mn, ins)) {
 				continue;
 			}
-			int instype = ins.getType();
-			if (instype == AbstractInsnNode.METHOD_INSN) {
-				MethodInsnNode mins = (MethodInsnNode) ins;
-				if (classnode.name.equals(mins.owner) && mn.name.equals(mins.name) && mn.desc.equals(mins.desc)
-						&& owneritf == mins.itf) {
-					boolean optimizablecall = isTailOptimizable(mins, returntypeframetype, mins);
-					if (optimizablecall) {
-						if (gotolabelnode == null) {
-							gotolabelnode = insertStartGotoLabel(classnode, mn);
-						}
-						JumpInsnNode gotojumpnode = new JumpInsnNode(Opcodes.GOTO, gotolabelnode);
-
-						//the return instruction is directly after the method call, no frame changes or jumps present
-						mn.instructions.insertBefore(mins, gotojumpnode);
-						//remove the method call instruction
-						mn.instructions.remove(mins);
-
-						//the first instruction of the section that is reachable by other jump instructions
-						//this is a frame instruction if we're using frames in this class version
-						//or a label node that is possibly a target of another jump instruction
-						AbstractInsnNode nextsection = null;
-						remover:
-						for (AbstractInsnNode n = gotojumpnode.getNext(); n != null;) {
-							int ntype = n.getType();
-							switch (ntype) {
-								case AbstractInsnNode.FRAME: {
-									nextsection = n;
-									break remover;
-								}
-								case AbstractInsnNode.LABEL: {
-									if (!usingframes) {
-										nextsection = n;
-										break remover;
-									}
-									break;
-								}
-								case AbstractInsnNode.LINE: {
-									break;
-								}
-								case AbstractInsnNode.INSN:
-								case AbstractInsnNode.INT_INSN:
-								case AbstractInsnNode.VAR_INSN:
-								case AbstractInsnNode.TYPE_INSN:
-								case AbstractInsnNode.FIELD_INSN:
-								case AbstractInsnNode.METHOD_INSN:
-								case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
-								case AbstractInsnNode.JUMP_INSN:
-								case AbstractInsnNode.LDC_INSN:
-								case AbstractInsnNode.IINC_INSN:
-								case AbstractInsnNode.TABLESWITCH_INSN:
-								case AbstractInsnNode.LOOKUPSWITCH_INSN:
-								case AbstractInsnNode.MULTIANEWARRAY_INSN: {
-									AbstractInsnNode next = n.getNext();
-									mn.instructions.remove(n);
-									n = next;
-									continue remover;
-								}
-								default: {
-									break;
-								}
-							}
-							n = n.getNext();
-						}
-						if (nextsection == null) {
-							//remove every next node after the goto, as there are no more instructions
-							for (AbstractInsnNode n = gotojumpnode.getNext(); n != null;) {
-								AbstractInsnNode next = n.getNext();
-								if (isInstructionNodeType(n.getType())) {
-									mn.instructions.remove(n);
-								}
-								n = next;
-							}
-						}
+			if (methodresult != null) {
+				++methodresult.selfCallCount;
+			}
+			boolean intrycatch = isInRanges(trycatchranges, insidx);
+			if (intrycatch && rejections == null) {
+				continue;
+			}
+			if (returnpathanalyzer == null && !budgetexceeded) {
+				long visitlimit = budget.getMethodVisitLimit();
+				if (ReturnPathAnalyzer.isOverVisitLimit(mn, visitlimit)) {
+					//rejected based on its size, nothing to charge
+					budgetexceeded = true;
+				} else {
+					returnpathanalyzer = ReturnPathAnalyzer.analyze(mn, returntypeframetype,
+							methodreturntype.getSize(), visitlimit);
+					if (returnpathanalyzer == null) {
+						//the abandoned analysis used up the limit
+						budget.consume(visitlimit);
+						budgetexceeded = true;
+					} else {
+						budget.consume(returnpathanalyzer.getVisitCount());
+					}
+				}
+			}
+			if (budgetexceeded) {
+				if (rejections != null) {
+					RejectionReason reason = intrycatch ? RejectionReason.TRY_CATCH : RejectionReason.BUDGET_EXCEEDED;
+					rejections.add(new int[] { insidx, -1, reason.ordinal() });
+				}
+				continue;
+			}
+			if (!intrycatch && returnpathanalyzer.isTailOptimizable(insidx)) {
+				optimizablecalls.add((MethodInsnNode) ins);
+			} else if (rejections != null) {
+				int blockingidx = returnpathanalyzer.findBlockingInstruction(insidx);
+				RejectionReason reason = blockingidx < 0 ? null
+						: ReturnPathAnalyzer.getRejectionReason(mn.instructions.get(blockingidx));
+				if (intrycatch && reason != RejectionReason.MONITOR) {
+					//synchronized blocks are reported as monitor usages, as they are try-catch blocks in the bytecode
+					reason = RejectionReason.TRY_CATCH;
+					blockingidx = -1;
+				}
+				rejections.add(new int[] { insidx, blockingidx, reason.ordinal() });
+			}
+		}
+		if (rejections != null && !rejections.isEmpty()) {
+			addRejectedCalls(explainreader, mn, methodresult, rejections);
+		}
+		long transformstarttime = 0;
+		if (methodresult != null) {
+			transformstarttime = System.nanoTime();
+			methodresult.analysisNanos = transformstarttime - analysisstarttime;
+		}
+		if (budgetexceeded) {
+			//give up on the method, no instructions were modified yet
+			if (methodresult != null) {
+				methodresult.budgetExceeded = true;
+			}
+			return ANALYSIS_BUDGET_EXCEEDED;
+		}
+		int optimizedcallcount = 0;
+		for (MethodInsnNode mins : optimizablecalls) {
+			if (mins.getPrevious() == null && mins.getNext() == null) {
+				//already removed as part of the return path of a previously optimized call
+				continue;
+			}
+			++optimizedcallcount;
+			if (gotolabelnode == null) {
+				gotolabelnode = insertStartGotoLabel(usingframes, mn);
+			}
+			JumpInsnNode gotojumpnode = new JumpInsnNode(Opcodes.GOTO, gotolabelnode);
 
-						int cvar = allsize;
-						for (int i = argtypes.length - 1; i >= 0; i--) {
-							Type argtype = argtypes[i];
+			//the return instruction is directly after the method call, no frame changes or jumps present
+			mn.instructions.insertBefore(mins, gotojumpnode);
+			//remove the method call instruction
+			mn.instructions.remove(mins);
 
-							cvar -= argtype.getSize();
-							mn.instructions.insertBefore(gotojumpnode,
-									new VarInsnNode(argtype.getOpcode(Opcodes.ISTORE), cvar));
-						}
-						if (!staticcall) {
-							// replace the this variable as well in case if the method is getting called
-							// on a different instance
-							mn.instructions.insertBefore(gotojumpnode, new VarInsnNode(Opcodes.ASTORE, 0));
+			//the first instruction of the section that is reachable by other jump instructions
+			//this is a frame instruction if we're using frames in this class version
+			//or a label node that is possibly a target of another jump instruction
+			AbstractInsnNode nextsection = null;
+			remover:
+			for (AbstractInsnNode n = gotojumpnode.getNext(); n != null;) {
+				int ntype = n.getType();
+				switch (ntype) {
+					case AbstractInsnNode.FRAME: {
+						nextsection = n;
+						break remover;
+					}
+					case AbstractInsnNode.LABEL: {
+						if (!usingframes) {
+							nextsection = n;
+							break remover;
 						}
+						break;
 					}
-
+					case AbstractInsnNode.LINE: {
+						break;
+					}
+					case AbstractInsnNode.INSN:
+					case AbstractInsnNode.INT_INSN:
+					case AbstractInsnNode.VAR_INSN:
+					case AbstractInsnNode.TYPE_INSN:
+					case AbstractInsnNode.FIELD_INSN:
+					case AbstractInsnNode.METHOD_INSN:
+					case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+					case AbstractInsnNode.JUMP_INSN:
+					case AbstractInsnNode.LDC_INSN:
+					case AbstractInsnNode.IINC_INSN:
+					case AbstractInsnNode.TABLESWITCH_INSN:
+					case AbstractInsnNode.LOOKUPSWITCH_INSN:
+					case AbstractInsnNode.MULTIANEWARRAY_INSN: {
+						AbstractInsnNode next = n.getNext();
+						mn.instructions.remove(n);
+						n = next;
+						continue remover;
+					}
+					default: {
+						break;
+					}
+				}
+				n = n.getNext();
+			}
+			if (nextsection == null) {
+				//remove every next node after the goto, as there are no more instructions
+				for (AbstractInsnNode n = gotojumpnode.getNext(); n != null;) {
+					AbstractInsnNode next = n.getNext();
+					if (isInstructionNodeType(n.getType())) {
+						mn.instructions.remove(n);
+					}
+					n = next;
 				}
 			}
+
+			int cvar = allsize;
+			for (int i = argtypes.length - 1; i >= 0; i--) {
+				Type argtype = argtypes[i];
+
+				cvar -= argtype.getSize();
+				mn.instructions.insertBefore(gotojumpnode,
+						new VarInsnNode(argtype.getOpcode(Opcodes.ISTORE), cvar));
+			}
+			if (!staticcall) {
+				// replace the this variable as well in case if the method is getting called
+				// on a different instance
+				mn.instructions.insertBefore(gotojumpnode, new VarInsnNode(Opcodes.ASTORE, 0));
+			}
 		}
 		if (gotolabelnode != null) {
 			//the method was optimized
@@ -1165,13 +947,214 @@ public class TailRecursionOptimizer {
 					}
 				}
 			}
-			return true;
 		}
-		return false;
+		if (methodresult != null) {
+			methodresult.optimizedCallCount = optimizedcallcount;
+			methodresult.transformNanos = System.nanoTime() - transformstarttime;
+		}
+		return optimizedcallcount;
+	}
+
+	private static boolean isSelfCall(String classname, boolean owneritf, MethodNode mn, AbstractInsnNode ins) {
+		if (ins.getType() != AbstractInsnNode.METHOD_INSN) {
+			return false;
+		}
+		MethodInsnNode mins = (MethodInsnNode) ins;
+		return classname.equals(mins.owner) && mn.name.equals(mins.name) && mn.desc.equals(mins.desc)
+				&& owneritf == mins.itf;
+	}
+
+	/**
+	 * Records the rejected calls in the method result with their bytecode offsets and line numbers.
+	 * <p>
+	 * Must be called before the instructions of the method are modified.
+	 *
+	 * @param rejections
+	 *            The call instruction index, blocking instruction index (or -1), and the {@link RejectionReason}
+	 *            ordinal of each rejected call.
+	 */
+	private static void addRejectedCalls(ClassReader cr, MethodNode mn, MethodOptimizationResult methodresult,
+			List<int[]> rejections) {
+		if (rejections.isEmpty()) {
+			return;
+		}
+		AbstractInsnNode[] nodes = mn.instructions.toArray();
+		int[] nodeoffsets = getNodeBytecodeOffsets(cr, mn, nodes);
+		RejectionReason[] reasons = RejectionReason.values();
+		for (int[] rejection : rejections) {
+			int callidx = rejection[0];
+			int blockingidx = rejection[1];
+			methodresult.addRejectedCall(new RejectedCall(reasons[rejection[2]], nodeoffsets[callidx],
+					getLineNumber(nodes, callidx), blockingidx < 0 ? -1 : nodeoffsets[blockingidx],
+					blockingidx < 0 ? -1 : getLineNumber(nodes, blockingidx)));
+		}
+	}
+
+	private static int getLineNumber(AbstractInsnNode[] nodes, int idx) {
+		for (int i = idx; i >= 0; i--) {
+			if (nodes[i].getType() == AbstractInsnNode.LINE) {
+				return ((LineNumberNode) nodes[i]).line;
+			}
+		}
+		return -1;
 	}
 
-	private static boolean isUsingFrames(ClassNode classnode) {
-		return (classnode.version & 0xFFFF) > Opcodes.V1_5;
+	/**
+	 * Gets the bytecode offsets of the argument nodes of the method in the input class.
+	 * <p>
+	 * The tree contains an instruction node for each instruction of the bytecode in the same order, so the offsets are
+	 * determined by decoding the lengths of the instructions in the <code>Code</code> attribute. Other nodes get the
+	 * offset of the next instruction.
+	 *
+	 * @return The offsets for each node. The elements are <code>-1</code> if the offsets are not available.
+	 */
+	private static int[] getNodeBytecodeOffsets(ClassReader cr, MethodNode mn, AbstractInsnNode[] nodes) {
+		int[] result = new int[nodes.length];
+		Arrays.fill(result, -1);
+		int codestart = findCodeStart(cr, mn.name, mn.desc);
+		if (codestart < 0) {
+			return result;
+		}
+		int codeend = codestart + cr.readInt(codestart - 4);
+		int offset = codestart;
+		for (int i = 0; i < nodes.length && offset < codeend; i++) {
+			if (isInstructionNodeType(nodes[i].getType())) {
+				result[i] = offset - codestart;
+				offset += getBytecodeInstructionLength(cr, codestart, offset);
+			}
+		}
+		int nextoffset = -1;
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			if (isInstructionNodeType(nodes[i].getType())) {
+				nextoffset = result[i];
+			} else {
+				result[i] = nextoffset;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the start of the bytecode of the given method in the class file.
+	 *
+	 * @return The offset of the first instruction in the class file buffer or -1 if not found.
+	 */
+	private static int findCodeStart(ClassReader cr, String name, String descriptor) {
+		char[] charbuffer = new char[cr.getMaxStringLength()];
+		int offset = cr.header + 6;
+		offset += 2 + cr.readUnsignedShort(offset) * 2;
+		int fieldcount = cr.readUnsignedShort(offset);
+		offset += 2;
+		while (fieldcount-- > 0) {
+			offset = skipMemberInfo(cr, offset);
+		}
+		int methodcount = cr.readUnsignedShort(offset);
+		offset += 2;
+		while (methodcount-- > 0) {
+			if (name.equals(cr.readUTF8(offset + 2, charbuffer))
+					&& descriptor.equals(cr.readUTF8(offset + 4, charbuffer))) {
+				int attributecount = cr.readUnsignedShort(offset + 6);
+				int attroffset = offset + 8;
+				while (attributecount-- > 0) {
+					if ("Code".equals(cr.readUTF8(attroffset, charbuffer))) {
+						//attribute_name_index, attribute_length, max_stack, max_locals, code_length
+						return attroffset + 14;
+					}
+					attroffset += 6 + cr.readInt(attroffset + 2);
+				}
+				return -1;
+			}
+			offset = skipMemberInfo(cr, offset);
+		}
+		return -1;
+	}
+
+	private static int getBytecodeInstructionLength(ClassReader cr, int codestart, int offset) {
+		int opcode = cr.readByte(offset);
+		switch (opcode) {
+			case Opcodes.BIPUSH:
+			case Opcodes.LDC:
+			case Opcodes.ILOAD:
+			case Opcodes.LLOAD:
+			case Opcodes.FLOAD:
+			case Opcodes.DLOAD:
+			case Opcodes.ALOAD:
+			case Opcodes.ISTORE:
+			case Opcodes.LSTORE:
+			case Opcodes.FSTORE:
+			case Opcodes.DSTORE:
+			case Opcodes.ASTORE:
+			case Opcodes.RET:
+			case Opcodes.NEWARRAY: {
+				return 2;
+			}
+			case Opcodes.SIPUSH:
+			case LDC_W_OPCODE:
+			case LDC2_W_OPCODE:
+			case Opcodes.IINC:
+			case Opcodes.IFEQ:
+			case Opcodes.IFNE:
+			case Opcodes.IFLT:
+			case Opcodes.IFGE:
+			case Opcodes.IFGT:
+			case Opcodes.IFLE:
+			case Opcodes.IF_ICMPEQ:
+			case Opcodes.IF_ICMPNE:
+			case Opcodes.IF_ICMPLT:
+			case Opcodes.IF_ICMPGE:
+			case Opcodes.IF_ICMPGT:
+			case Opcodes.IF_ICMPLE:
+			case Opcodes.IF_ACMPEQ:
+			case Opcodes.IF_ACMPNE:
+			case Opcodes.GOTO:
+			case Opcodes.JSR:
+			case Opcodes.GETSTATIC:
+			case Opcodes.PUTSTATIC:
+			case Opcodes.GETFIELD:
+			case Opcodes.PUTFIELD:
+			case Opcodes.INVOKEVIRTUAL:
+			case Opcodes.INVOKESPECIAL:
+			case Opcodes.INVOKESTATIC:
+			case Opcodes.NEW:
+			case Opcodes.ANEWARRAY:
+			case Opcodes.CHECKCAST:
+			case Opcodes.INSTANCEOF:
+			case Opcodes.IFNULL:
+			case Opcodes.IFNONNULL: {
+				return 3;
+			}
+			case Opcodes.MULTIANEWARRAY: {
+				return 4;
+			}
+			case Opcodes.INVOKEINTERFACE:
+			case Opcodes.INVOKEDYNAMIC:
+			case GOTO_W_OPCODE:
+			case JSR_W_OPCODE: {
+				return 5;
+			}
+			case WIDE_OPCODE: {
+				return cr.readByte(offset + 1) == Opcodes.IINC ? 6 : 4;
+			}
+			case Opcodes.TABLESWITCH: {
+				//the operands are 4 byte aligned
+				int operands = offset + 4 - ((offset - codestart) & 3);
+				int low = cr.readInt(operands + 4);
+				int high = cr.readInt(operands + 8);
+				return operands + 12 + (high - low + 1) * 4 - offset;
+			}
+			case Opcodes.LOOKUPSWITCH: {
+				int operands = offset + 4 - ((offset - codestart) & 3);
+				int npairs = cr.readInt(operands + 4);
+				return operands + 8 + npairs * 8 - offset;
+			}
+			default: {
+				return 1;
+			}
+		}
+	}
+
+	private static boolean isUsingFrames(int classversion) {
+		return (classversion & 0xFFFF) > Opcodes.V1_5;
 	}
 
 	private static boolean isLabelsNextToEachOther(LabelNode first, LabelNode second) {
@@ -1196,13 +1179,158 @@ public class TailRecursionOptimizer {
 		return null;
 	}
 
-	private static void collectTryCatchBodyInstructions(Set<AbstractInsnNode> trycatchskipinstructions,
-			TryCatchBlockNode tcb) {
-		for (AbstractInsnNode ins = tcb.start.getNext(); ins != null; ins = ins.getNext()) {
-			if (ins == tcb.end) {
-				break;
+	private static int[] collectTryCatchBodyRanges(MethodNode mn) {
+		List<TryCatchBlockNode> trycatchblocks = mn.tryCatchBlocks;
+		int[] result = new int[trycatchblocks.size() * 2];
+		int i = 0;
+		for (TryCatchBlockNode tcb : trycatchblocks) {
+			int start = mn.instructions.indexOf(tcb.start);
+			int end = mn.instructions.indexOf(tcb.end);
+			if (end < start) {
+				//the end label is not after the start, the body lasts until the end of the method
+				end = mn.instructions.size();
+			}
+			result[i++] = start;
+			result[i++] = end;
+		}
+		return result;
+	}
+
+	private static boolean isInRanges(int[] ranges, int idx) {
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (idx > ranges[i] && idx < ranges[i + 1]) {
+				return true;
 			}
-			trycatchskipinstructions.add(ins);
+		}
+		return false;
+	}
+
+	/**
+	 * Tracks the instruction visits of the method analyses in a class against an {@link AnalysisBudget}.
+	 */
+	private static final class BudgetTracker {
+		private final long methodVisitLimit;
+		private long remainingClassVisits;
+
+		public BudgetTracker(AnalysisBudget budget) {
+			this.methodVisitLimit = budget.getMethodVisitLimit();
+			this.remainingClassVisits = budget.getClassVisitLimit();
+		}
+
+		/**
+		 * Gets the visit limit for the next method, which is constrained by the remaining visits of the class.
+		 */
+		public long getMethodVisitLimit() {
+			return Math.min(methodVisitLimit, remainingClassVisits);
+		}
+
+		public void consume(long visits) {
+			remainingClassVisits -= visits;
+		}
+	}
+
+	/**
+	 * Class visitor that reads the candidate methods into a tree, optimizes them, and writes them to the delegate
+	 * visitor.
+	 * <p>
+	 * Other methods are passed through to the delegate, so a {@link ClassWriter} can copy them without parsing. If
+	 * there is no delegate, only the candidate methods are read.
+	 */
+	private static final class OptimizerClassVisitor extends ClassVisitor {
+		private final Set<String> candidateMethods;
+		private final OptimizationStatistics statistics;
+		private final ClassOptimizationResult result;
+		private final ClassReader explainReader;
+		private final BudgetTracker budget;
+		/**
+		 * The results of the candidate methods in the order they are declared.
+		 */
+		protected final List<MethodOptimizationResult> methodResults = new ArrayList<>();
+		/**
+		 * The results of the non-optimizable methods that are copied as is, and explained in a separate pass. Mapped
+		 * to the name and descriptor concatenations of the methods.
+		 */
+		protected final Map<String, MethodOptimizationResult> deferredExplanations = new HashMap<>();
+
+		private String className;
+		private int classVersion;
+		private boolean interfaceClass;
+
+		protected boolean optimized;
+
+		public OptimizerClassVisitor(ClassVisitor cv, Set<String> candidatemethods, OptimizationStatistics statistics,
+				ClassOptimizationResult result, ClassReader explainreader, BudgetTracker budget) {
+			super(ASM_API, cv);
+			this.candidateMethods = candidatemethods;
+			this.statistics = statistics;
+			this.result = result;
+			this.explainReader = explainreader;
+			this.budget = budget;
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName,
+				String[] interfaces) {
+			this.className = name;
+			this.classVersion = version;
+			this.interfaceClass = ((access & Opcodes.ACC_INTERFACE) == Opcodes.ACC_INTERFACE);
+			super.visit(version, access, name, signature, superName, interfaces);
+		}
+
+		@Override
+		public void visitSource(String source, String debug) {
+			if (result != null) {
+				result.sourceFile = source;
+			}
+			super.visitSource(source, debug);
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+				String[] exceptions) {
+			final MethodVisitor writermv = super.visitMethod(access, name, descriptor, signature, exceptions);
+			if (!candidateMethods.contains(name + descriptor)) {
+				return writermv;
+			}
+			if (writermv == null && cv != null) {
+				//the delegate is not interested in the method
+				return null;
+			}
+			final MethodOptimizationResult methodresult = result == null ? null
+					: new MethodOptimizationResult(name, descriptor);
+			if (methodresult != null) {
+				methodResults.add(methodresult);
+			}
+			if (explainReader != null && writermv != null && !isOptimizableMethodAccess(access)) {
+				//let the writer copy the method as is, the tree representation would be written differently
+				deferredExplanations.put(name + descriptor, methodresult);
+				return writermv;
+			}
+			return new MethodNode(ASM_API, access, name, descriptor, signature, exceptions) {
+				@Override
+				public void visitEnd() {
+					super.visitEnd();
+					int optimizedcallcount = optimizeMethod(className, classVersion, interfaceClass, this,
+							methodresult, explainReader, budget);
+					if (optimizedcallcount > 0) {
+						optimized = true;
+						if (statistics != null) {
+							statistics.addOptimizedMethod(optimizedcallcount);
+						}
+					} else if (optimizedcallcount == ANALYSIS_BUDGET_EXCEEDED) {
+						if (statistics != null) {
+							statistics.addBudgetExceededMethod();
+						}
+					}
+					if (writermv != null) {
+						long writestarttime = result == null ? 0 : System.nanoTime();
+						accept(writermv);
+						if (result != null) {
+							result.writeNanos += System.nanoTime() - writestarttime;
+						}
+					}
+				}
+			};
 		}
 	}
 
@@ -0,0 +1,171 @@
+package sipka.jvm.tailrec.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sipka.jvm.tailrec.AnalysisBudget;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.OptimizationCache;
+import sipka.jvm.tailrec.OptimizationStatistics;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Opcodes;
+
+/**
+ * {@link ClassFileTransformer} that optimizes the tail recursive calls in the classes when they are loaded.
+ * <p>
+ * Most classes have no methods that call themselves, and they are rejected based on their constant pool without
+ * parsing the rest of the class. The classes of the bootstrap class loader and of the optimizer itself are not
+ * transformed. Classes that are being redefined or retransformed are not changed either.
+ * <p>
+ * If the optimization of a class fails, the class is loaded unchanged, and the failure is printed to the standard
+ * error.
+ * <p>
+ * The class is thread safe, classes may be loaded concurrently.
+ */
+public final class OptimizingClassFileTransformer implements ClassFileTransformer, OptimizingClassFileTransformerMXBean {
+	private static final String OPTIMIZER_PACKAGE_PREFIX = "sipka/jvm/tailrec/";
+
+	private final ClassFilter filter;
+	private final OptimizationCache cache;
+	private final AnalysisBudget budget;
+
+	private final OptimizationStatistics statistics = new OptimizationStatistics();
+	private final AtomicLong seenClassCount = new AtomicLong();
+	private final AtomicLong skippedClassCount = new AtomicLong();
+	private final AtomicLong failedClassCount = new AtomicLong();
+	private final AtomicLong transformNanos = new AtomicLong();
+
+	/**
+	 * Creates a new transformer that optimizes all classes.
+	 */
+	public OptimizingClassFileTransformer() {
+		this(ClassFilter.ALL, null, AnalysisBudget.DEFAULT);
+	}
+
+	/**
+	 * Creates a new transformer.
+	 *
+	 * @param filter
+	 *            The filter for the classes that should be optimized.
+	 * @param cache
+	 *            The cache to store the optimization results in. May be <code>null</code>.
+	 * @param budget
+	 *            The limits of the analysis.
+	 * @throws NullPointerException
+	 *             If the filter or the budget is <code>null</code>.
+	 */
+	public OptimizingClassFileTransformer(ClassFilter filter, OptimizationCache cache, AnalysisBudget budget)
+			throws NullPointerException {
+		Objects.requireNonNull(filter, "filter");
+		Objects.requireNonNull(budget, "budget");
+		this.filter = filter;
+		this.cache = cache;
+		this.budget = budget;
+	}
+
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if (classBeingRedefined != null) {
+			return null;
+		}
+		long starttime = System.nanoTime();
+		seenClassCount.incrementAndGet();
+		try {
+			if (!isTransformable(loader, className, classfileBuffer)) {
+				skippedClassCount.incrementAndGet();
+				return null;
+			}
+			try {
+				if (cache != null) {
+					return cache.tryOptimizeMethods(classfileBuffer, 0, classfileBuffer.length, statistics, budget);
+				}
+				return TailRecursionOptimizer.tryOptimizeMethods(classfileBuffer, 0, classfileBuffer.length,
+						statistics, budget);
+			} catch (IOException e) {
+				failedClassCount.incrementAndGet();
+				System.err.println("Failed to optimize class: " + className + " (" + e + ")");
+				return null;
+			} catch (RuntimeException e) {
+				failedClassCount.incrementAndGet();
+				System.err.println("Failed to optimize class: " + className + " (" + e + ")");
+				return null;
+			}
+		} finally {
+			transformNanos.addAndGet(System.nanoTime() - starttime);
+		}
+	}
+
+	@Override
+	public long getSeenClassCount() {
+		return seenClassCount.get();
+	}
+
+	@Override
+	public long getSkippedClassCount() {
+		return skippedClassCount.get();
+	}
+
+	@Override
+	public long getParsedClassCount() {
+		return statistics.getParsedClassCount();
+	}
+
+	@Override
+	public long getTransformedClassCount() {
+		return statistics.getOptimizedClassCount();
+	}
+
+	@Override
+	public long getCachedClassCount() {
+		return statistics.getCachedClassCount();
+	}
+
+	@Override
+	public long getOptimizedMethodCount() {
+		return statistics.getOptimizedMethodCount();
+	}
+
+	@Override
+	public long getOptimizedCallCount() {
+		return statistics.getOptimizedCallCount();
+	}
+
+	@Override
+	public long getBudgetExceededMethodCount() {
+		return statistics.getBudgetExceededMethodCount();
+	}
+
+	@Override
+	public long getFailedClassCount() {
+		return failedClassCount.get();
+	}
+
+	@Override
+	public long getTransformNanos() {
+		return transformNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[filter=" + filter + ", seenClassCount=" + seenClassCount
+				+ ", skippedClassCount=" + skippedClassCount + ", failedClassCount=" + failedClassCount
+				+ ", transformNanos=" + transformNanos + ", statistics=" + statistics + "]";
+	}
+
+	private boolean isTransformable(ClassLoader loader, String classname, byte[] classbytes) {
+		if (loader == null || classname == null || classname.startsWith(OPTIMIZER_PACKAGE_PREFIX)) {
+			//bootstrap classes, hidden classes, or the optimizer itself, which may be loaded during the transformation
+			return false;
+		}
+		if (!filter.isAll() && !filter.isIncludedClass(classname.replace('/', '.'))) {
+			return false;
+		}
+		//the major version, the optimizer can't read newer class files
+		int version = ((classbytes[6] & 0xFF) << 8) | (classbytes[7] & 0xFF);
+		return version <= Opcodes.V15;
+	}
+}
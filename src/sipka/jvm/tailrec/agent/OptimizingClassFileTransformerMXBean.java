@@ -0,0 +1,60 @@
+package sipka.jvm.tailrec.agent;
+
+/**
+ * Management interface of the counters of an {@link OptimizingClassFileTransformer}.
+ * <p>
+ * The counters are registered in the platform MBean server by the agent with the name
+ * {@value TailRecursionAgent#MBEAN_OBJECT_NAME}.
+ */
+public interface OptimizingClassFileTransformerMXBean {
+	/**
+	 * Gets the number of classes that were passed to the transformer when they were loaded.
+	 */
+	public long getSeenClassCount();
+
+	/**
+	 * Gets the number of classes that were not examined, because they were excluded by the filter, loaded by the
+	 * bootstrap class loader, or have an unsupported class file version.
+	 */
+	public long getSkippedClassCount();
+
+	/**
+	 * Gets the number of classes that had candidate methods and were parsed by the optimizer.
+	 */
+	public long getParsedClassCount();
+
+	/**
+	 * Gets the number of classes that were changed by the optimizer.
+	 */
+	public long getTransformedClassCount();
+
+	/**
+	 * Gets the number of classes for which the result was retrieved from the disk cache.
+	 */
+	public long getCachedClassCount();
+
+	/**
+	 * Gets the number of methods that were optimized.
+	 */
+	public long getOptimizedMethodCount();
+
+	/**
+	 * Gets the number of tail recursive call sites that were rewritten.
+	 */
+	public long getOptimizedCallCount();
+
+	/**
+	 * Gets the number of methods that were left unchanged, because their analysis exceeded the budget.
+	 */
+	public long getBudgetExceededMethodCount();
+
+	/**
+	 * Gets the number of classes that failed to be optimized, and were loaded unchanged.
+	 */
+	public long getFailedClassCount();
+
+	/**
+	 * Gets the total time spent in the transformer in nanoseconds.
+	 */
+	public long getTransformNanos();
+}
@@ -0,0 +1,152 @@
+package sipka.jvm.tailrec.agent;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import sipka.jvm.tailrec.AnalysisBudget;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.OptimizationCache;
+
+/**
+ * Java agent that optimizes the tail recursive calls in the classes when they are loaded.
+ * <p>
+ * The agent can be started with the <code>-javaagent:path/to/optimizer.jar[=options]</code> JVM argument. The options
+ * are comma separated <code>key=value</code> pairs:
+ * <ul>
+ * <li><code>include=pattern</code>: The classes to optimize. Can be specified multiple times.</li>
+ * <li><code>exclude=pattern</code>: The classes to leave unchanged. Can be specified multiple times.</li>
+ * <li><code>cache-dir=path</code>: The directory of the {@link OptimizationCache} to store the results in.</li>
+ * <li><code>jmx=false</code>: To not register the counters in the platform MBean server.</li>
+ * <li><code>method-visit-limit=n</code> and <code>class-visit-limit=n</code>: The limits of the
+ * {@link AnalysisBudget}.</li>
+ * </ul>
+ * The patterns have the same format as the ones accepted by {@link ClassFilter#create}.
+ * <p>
+ * If the agent is attached to a running JVM, only the classes loaded after that are optimized.
+ */
+public final class TailRecursionAgent {
+	/**
+	 * The name of the {@link OptimizingClassFileTransformerMXBean} registered by the agent.
+	 */
+	public static final String MBEAN_OBJECT_NAME = "sipka.jvm.tailrec:type=OptimizingClassFileTransformer";
+
+	private TailRecursionAgent() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Entry point of the agent when it is specified on the command line.
+	 *
+	 * @param agentargs
+	 *            The options of the agent. May be <code>null</code>.
+	 * @param inst
+	 *            The instrumentation instance.
+	 * @throws Exception
+	 *             If the agent failed to start.
+	 */
+	public static void premain(String agentargs, Instrumentation inst) throws Exception {
+		install(agentargs, inst);
+	}
+
+	/**
+	 * Entry point of the agent when it is attached to a running JVM.
+	 *
+	 * @param agentargs
+	 *            The options of the agent. May be <code>null</code>.
+	 * @param inst
+	 *            The instrumentation instance.
+	 * @throws Exception
+	 *             If the agent failed to start.
+	 */
+	public static void agentmain(String agentargs, Instrumentation inst) throws Exception {
+		install(agentargs, inst);
+	}
+
+	/**
+	 * Creates the transformer based on the agent options and adds it to the instrumentation.
+	 *
+	 * @param agentargs
+	 *            The options of the agent. May be <code>null</code>.
+	 * @param inst
+	 *            The instrumentation instance.
+	 * @return The installed transformer.
+	 * @throws IllegalArgumentException
+	 *             If the options are invalid.
+	 * @throws IOException
+	 *             If the cache directory couldn't be created.
+	 * @throws JMException
+	 *             If the counters couldn't be registered in the platform MBean server.
+	 */
+	public static OptimizingClassFileTransformer install(String agentargs, Instrumentation inst)
+			throws IllegalArgumentException, IOException, JMException {
+		List<String> includes = new ArrayList<>();
+		List<String> excludes = new ArrayList<>();
+		String cachedir = null;
+		boolean jmx = true;
+		long methodvisitlimit = AnalysisBudget.DEFAULT_METHOD_VISIT_LIMIT;
+		long classvisitlimit = AnalysisBudget.DEFAULT_CLASS_VISIT_LIMIT;
+		if (agentargs != null && !agentargs.isEmpty()) {
+			for (String option : agentargs.split(",")) {
+				int eqidx = option.indexOf('=');
+				if (eqidx < 0) {
+					throw new IllegalArgumentException("Invalid agent option: " + option);
+				}
+				String key = option.substring(0, eqidx);
+				String value = option.substring(eqidx + 1);
+				switch (key) {
+					case "include": {
+						includes.add(value);
+						break;
+					}
+					case "exclude": {
+						excludes.add(value);
+						break;
+					}
+					case "cache-dir": {
+						cachedir = value;
+						break;
+					}
+					case "jmx": {
+						jmx = Boolean.parseBoolean(value);
+						break;
+					}
+					case "method-visit-limit": {
+						methodvisitlimit = parseLimit(option, value);
+						break;
+					}
+					case "class-visit-limit": {
+						classvisitlimit = parseLimit(option, value);
+						break;
+					}
+					default: {
+						throw new IllegalArgumentException("Unknown agent option: " + option);
+					}
+				}
+			}
+		}
+		OptimizationCache cache = cachedir == null ? null : OptimizationCache.open(Paths.get(cachedir));
+		OptimizingClassFileTransformer transformer = new OptimizingClassFileTransformer(
+				ClassFilter.create(includes, excludes), cache,
+				AnalysisBudget.create(methodvisitlimit, classvisitlimit));
+		if (jmx) {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(transformer, new ObjectName(MBEAN_OBJECT_NAME));
+		}
+		inst.addTransformer(transformer);
+		return transformer;
+	}
+
+	private static long parseLimit(String option, String value) throws IllegalArgumentException {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid agent option: " + option, e);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package sipka.jvm.tailrec.saker.build;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saker.build.cache.CacheKey;
+import saker.build.runtime.environment.SakerEnvironment;
+import sipka.jvm.tailrec.OptimizationCache;
+import sipka.jvm.tailrec.OptimizationStatistics;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+
+/**
+ * In-memory cache of the optimization results keyed by the hash of the input class bytes.
+ * <p>
+ * The optimized bytes are softly referenced, and the number of entries is limited. If a cache directory is set, the
+ * results are also stored persistently in an {@link OptimizationCache}, so identical classes are optimized only once
+ * on the machine.
+ * <p>
+ * The classes that the optimizer rejects based on their constant pool are not hashed or stored, see
+ * {@link TailRecursionOptimizer#hasSelfCallCandidates(byte[], int, int)}.
+ * <p>
+ * Instances are retrieved from the cached data of the build environment, so the results are reused between builds.
+ */
+public final class OptimizationResultCache {
+	/**
+	 * The user parameter of the build environment that specifies the directory of the persistent cache.
+	 * <p>
+	 * E.g. <code>-Esipka.jvm.tailrec.cache.dir=/path/to/cache</code>
+	 */
+	public static final String ENVIRONMENT_PARAMETER_CACHE_DIRECTORY = "sipka.jvm.tailrec.cache.dir";
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final int MAX_ENTRY_COUNT = 1024 * 16;
+
+	/**
+	 * Marker value for the classes that weren't changed by the optimizer.
+	 */
+	private static final byte[] RESULT_UNCHANGED = {};
+	private static final SoftReference<byte[]> UNCHANGED_REFERENCE = new SoftReference<>(RESULT_UNCHANGED);
+
+	private static final OptimizationResultCache SHARED_INSTANCE = new OptimizationResultCache(null);
+
+	private final Map<ContentHash, SoftReference<byte[]>> results = new LinkedHashMap<ContentHash, SoftReference<byte[]>>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ContentHash, SoftReference<byte[]>> eldest) {
+			return size() > MAX_ENTRY_COUNT;
+		}
+	};
+	private final OptimizationCache persistentCache;
+
+	private OptimizationResultCache(OptimizationCache persistentCache) {
+		this.persistentCache = persistentCache;
+	}
+
+	/**
+	 * Gets the cache for the given build environment.
+	 * <p>
+	 * The persistent cache is used if the {@link #ENVIRONMENT_PARAMETER_CACHE_DIRECTORY} user parameter is set for the
+	 * environment.
+	 *
+	 * @param environment
+	 *            The build environment.
+	 * @return The cache.
+	 * @throws Exception
+	 *             If the cache failed to be retrieved.
+	 */
+	public static OptimizationResultCache get(SakerEnvironment environment) throws Exception {
+		String cachedir = environment.getUserParameters().get(ENVIRONMENT_PARAMETER_CACHE_DIRECTORY);
+		Path cachedirpath = cachedir == null ? null : Paths.get(cachedir).toAbsolutePath().normalize();
+		return environment.getCachedData(new EnvironmentCacheKey(cachedirpath));
+	}
+
+	/**
+	 * Gets an in-memory cache that is not bound to a build environment.
+	 * <p>
+	 * Used when the build environment is not accessible.
+	 *
+	 * @return The cache.
+	 */
+	public static OptimizationResultCache getSharedInstance() {
+		return SHARED_INSTANCE;
+	}
+
+	/**
+	 * Optimizes the argument class bytes, or retrieves the result of a previous optimization of the same bytes.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @return The optimized bytecode or <code>null</code> if there were no optimizations performed. The returned array
+	 *             is shared with other callers, it must not be modified.
+	 * @throws IOException
+	 *             If the persistent cache failed to be accessed.
+	 * @see TailRecursionOptimizer#tryOptimizeMethods(byte[], int, int)
+	 */
+	public byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length) throws IOException {
+		return tryOptimizeMethods(classbytes, offset, length, null);
+	}
+
+	/**
+	 * Optimizes the argument class bytes, or retrieves the result of a previous optimization of the same bytes, and
+	 * records the statistics of the optimization.
+	 *
+	 * @param classbytes
+	 *            The Java class bytecode to optimize.
+	 * @param offset
+	 *            The offset in the array at which the class bytes start.
+	 * @param length
+	 *            The number of bytes the class bytecode consists of starting at offset.
+	 * @param statistics
+	 *            The statistics to add the results to. May be <code>null</code>.
+	 * @return The optimized bytecode or <code>null</code> if there were no optimizations performed. The returned array
+	 *             is shared with other callers, it must not be modified.
+	 * @throws IOException
+	 *             If the persistent cache failed to be accessed.
+	 * @see TailRecursionOptimizer#tryOptimizeMethods(byte[], int, int, OptimizationStatistics)
+	 */
+	public byte[] tryOptimizeMethods(byte[] classbytes, int offset, int length, OptimizationStatistics statistics)
+			throws IOException {
+		if (!TailRecursionOptimizer.hasSelfCallCandidates(classbytes, offset, length)) {
+			//most classes are rejected by the optimizer without parsing them
+			//    don't hash them, and don't let them evict the useful entries
+			if (statistics != null) {
+				//records the class, takes the same fast path
+				return TailRecursionOptimizer.tryOptimizeMethods(classbytes, offset, length, statistics);
+			}
+			return null;
+		}
+		ContentHash hash = ContentHash.create(classbytes, offset, length);
+		SoftReference<byte[]> cachedref;
+		synchronized (results) {
+			cachedref = results.get(hash);
+		}
+		if (cachedref != null) {
+			byte[] cached = cachedref.get();
+			if (cached == RESULT_UNCHANGED) {
+				if (statistics != null) {
+					statistics.addCachedClass(length, length, false);
+				}
+				return null;
+			}
+			if (cached != null) {
+				if (statistics != null) {
+					statistics.addCachedClass(length, cached.length, true);
+				}
+				return cached;
+			}
+		}
+		byte[] optimized;
+		if (persistentCache != null) {
+			optimized = persistentCache.tryOptimizeMethods(classbytes, offset, length, statistics);
+		} else {
+			optimized = TailRecursionOptimizer.tryOptimizeMethods(classbytes, offset, length, statistics);
+		}
+		SoftReference<byte[]> resultref = optimized == null ? UNCHANGED_REFERENCE : new SoftReference<>(optimized);
+		synchronized (results) {
+			results.put(hash, resultref);
+		}
+		return optimized;
+	}
+
+	private static final class EnvironmentCacheKey
+			implements CacheKey<OptimizationResultCache, OptimizationResultCache> {
+		private static final long EXPIRY_MILLIS = 30 * 60 * 1000;
+
+		private final Path cacheDirectory;
+
+		public EnvironmentCacheKey(Path cacheDirectory) {
+			this.cacheDirectory = cacheDirectory;
+		}
+
+		@Override
+		public OptimizationResultCache allocate() throws Exception {
+			if (cacheDirectory == null) {
+				return new OptimizationResultCache(null);
+			}
+			return new OptimizationResultCache(OptimizationCache.open(cacheDirectory));
+		}
+
+		@Override
+		public OptimizationResultCache generate(OptimizationResultCache resource) throws Exception {
+			return resource;
+		}
+
+		@Override
+		public boolean validate(OptimizationResultCache data, OptimizationResultCache resource) {
+			return true;
+		}
+
+		@Override
+		public long getExpiry() {
+			return EXPIRY_MILLIS;
+		}
+
+		@Override
+		public void close(OptimizationResultCache data, OptimizationResultCache resource) throws Exception {
+		}
+
+		@Override
+		public int hashCode() {
+			return cacheDirectory == null ? 0 : cacheDirectory.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			EnvironmentCacheKey other = (EnvironmentCacheKey) obj;
+			if (cacheDirectory == null) {
+				if (other.cacheDirectory != null)
+					return false;
+			} else if (!cacheDirectory.equals(other.cacheDirectory))
+				return false;
+			return true;
+		}
+	}
+
+	private static final class ContentHash {
+		private final byte[] hash;
+		private final int hashCode;
+
+		private ContentHash(byte[] hash) {
+			this.hash = hash;
+			this.hashCode = Arrays.hashCode(hash);
+		}
+
+		public static ContentHash create(byte[] bytes, int offset, int length) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError(HASH_ALGORITHM + " is not available.", e);
+			}
+			digest.update(bytes, offset, length);
+			return new ContentHash(digest.digest());
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			ContentHash other = (ContentHash) obj;
+			return Arrays.equals(hash, other.hash);
+		}
+	}
+}
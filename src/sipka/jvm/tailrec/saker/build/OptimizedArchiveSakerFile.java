@@ -0,0 +1,71 @@
+package sipka.jvm.tailrec.saker.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Map;
+
+import saker.build.exception.InvalidPathFormatException;
+import saker.build.file.SakerFileBase;
+import saker.build.file.content.ContentDescriptor;
+import saker.build.thirdparty.saker.util.io.StreamUtils;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.RawZipInput;
+import sipka.jvm.tailrec.RawZipOutput;
+
+/**
+ * Archive file that has the contents of an input archive with the optimized class entries replaced.
+ * <p>
+ * The entries which weren't changed by the optimizer are copied from the input archive without decompressing them.
+ */
+public class OptimizedArchiveSakerFile extends SakerFileBase {
+	private Path inputArchivePath;
+	private ContentDescriptor inputContents;
+	/**
+	 * The filter of the optimized entries, part of the content descriptor.
+	 */
+	private ClassFilter filter;
+	/**
+	 * The optimized contents of the changed class entries by their entry names.
+	 */
+	private Map<String, byte[]> optimizedEntries;
+
+	public OptimizedArchiveSakerFile(String name, Path inputArchivePath, ContentDescriptor inputContents,
+			ClassFilter filter, Map<String, byte[]> optimizedEntries)
+			throws NullPointerException, InvalidPathFormatException {
+		super(name);
+		this.inputArchivePath = inputArchivePath;
+		this.inputContents = inputContents;
+		this.filter = filter;
+		this.optimizedEntries = optimizedEntries;
+	}
+
+	@Override
+	public ContentDescriptor getContentDescriptor() {
+		return new OptimizedContentDescriptor(inputContents, filter);
+	}
+
+	@Override
+	public void writeToStreamImpl(OutputStream os) throws IOException, NullPointerException {
+		try (RawZipInput input = RawZipInput.open(inputArchivePath)) {
+			if (input == null) {
+				throw new IOException("Unsupported archive format: " + inputArchivePath);
+			}
+			try (RawZipOutput output = new RawZipOutput(
+					Channels.newChannel(StreamUtils.closeProtectedOutputStream(os)))) {
+				for (RawZipInput.Entry entry : input.getEntries()) {
+					byte[] optimized = optimizedEntries.get(entry.getName());
+					if (optimized == null) {
+						output.copyRaw(input, entry);
+					} else {
+						output.writeDeflated(input, entry, optimized);
+					}
+				}
+				if (!output.finish(input.getComment())) {
+					throw new IOException("Optimized archive requires ZIP64 format: " + inputArchivePath);
+				}
+			}
+		}
+	}
+}
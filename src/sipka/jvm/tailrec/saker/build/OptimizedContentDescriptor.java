@@ -7,11 +7,25 @@ import java.io.ObjectOutput;
 
 import saker.build.file.content.ContentDescriptor;
 import saker.build.thirdparty.saker.util.io.SerialUtils;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.OptimizationCache;
 
 public class OptimizedContentDescriptor implements ContentDescriptor, Externalizable {
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
 	private ContentDescriptor inputContents;
+	/**
+	 * The version of the optimizer that produced the contents.
+	 * 
+	 * @see OptimizationCache#getOptimizerVersion()
+	 */
+	private String optimizerVersion;
+	/**
+	 * The filter of the optimized classes in the contents.
+	 * <p>
+	 * {@link ClassFilter#ALL} for single class files, as the filter doesn't affect their contents.
+	 */
+	private ClassFilter filter;
 
 	/**
 	 * For {@link Externalizable}.
@@ -20,7 +34,17 @@ public class OptimizedContentDescriptor implements ContentDescriptor, Externaliz
 	}
 
 	public OptimizedContentDescriptor(ContentDescriptor inputContents) {
+		this(inputContents, ClassFilter.ALL);
+	}
+
+	public OptimizedContentDescriptor(ContentDescriptor inputContents, ClassFilter filter) {
+		this(inputContents, OptimizationCache.getOptimizerVersion(), filter);
+	}
+
+	public OptimizedContentDescriptor(ContentDescriptor inputContents, String optimizerVersion, ClassFilter filter) {
 		this.inputContents = inputContents;
+		this.optimizerVersion = optimizerVersion;
+		this.filter = filter;
 	}
 
 	@Override
@@ -29,17 +53,27 @@ public class OptimizedContentDescriptor implements ContentDescriptor, Externaliz
 			return true;
 		}
 		OptimizedContentDescriptor ocd = (OptimizedContentDescriptor) previouscontent;
+		if (!this.optimizerVersion.equals(ocd.optimizerVersion)) {
+			return true;
+		}
+		if (!this.filter.equals(ocd.filter)) {
+			return true;
+		}
 		return this.inputContents.isChanged(ocd.inputContents);
 	}
 
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
 		out.writeObject(inputContents);
+		out.writeUTF(optimizerVersion);
+		out.writeObject(filter);
 	}
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		inputContents = SerialUtils.readExternalObject(in);
+		optimizerVersion = in.readUTF();
+		filter = SerialUtils.readExternalObject(in);
 	}
 
 	@Override
@@ -47,6 +81,8 @@ public class OptimizedContentDescriptor implements ContentDescriptor, Externaliz
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((inputContents == null) ? 0 : inputContents.hashCode());
+		result = prime * result + ((optimizerVersion == null) ? 0 : optimizerVersion.hashCode());
+		result = prime * result + ((filter == null) ? 0 : filter.hashCode());
 		return result;
 	}
 
@@ -64,11 +100,22 @@ public class OptimizedContentDescriptor implements ContentDescriptor, Externaliz
 				return false;
 		} else if (!inputContents.equals(other.inputContents))
 			return false;
+		if (optimizerVersion == null) {
+			if (other.optimizerVersion != null)
+				return false;
+		} else if (!optimizerVersion.equals(other.optimizerVersion))
+			return false;
+		if (filter == null) {
+			if (other.filter != null)
+				return false;
+		} else if (!filter.equals(other.filter))
+			return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "OptimizedContentDescriptor[inputContents=" + inputContents + "]";
+		return "OptimizedContentDescriptor[inputContents=" + inputContents + ", optimizerVersion=" + optimizerVersion
+				+ ", filter=" + filter + "]";
 	}
 }
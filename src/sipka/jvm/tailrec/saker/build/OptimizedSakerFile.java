@@ -3,6 +3,7 @@ package sipka.jvm.tailrec.saker.build;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 
 import saker.build.exception.InvalidPathFormatException;
 import saker.build.file.SakerFile;
@@ -11,14 +12,28 @@ import saker.build.file.content.ContentDescriptor;
 import saker.build.thirdparty.saker.util.io.ByteArrayRegion;
 import saker.build.thirdparty.saker.util.io.ByteSource;
 import saker.build.thirdparty.saker.util.io.UnsyncByteArrayInputStream;
-import sipka.jvm.tailrec.TailRecursionOptimizer;
+import sipka.jvm.tailrec.OptimizationStatistics;
 
 public class OptimizedSakerFile extends SakerFileBase {
 	private SakerFile subject;
+	private OptimizationResultCache resultCache;
+
+	/**
+	 * The optimized contents of the subject file, softly referenced.
+	 * <p>
+	 * The contents are read multiple times during a build, so they're cached to avoid reoptimizing the same bytes.
+	 */
+	private volatile OptimizedContents optimizedContents;
 
 	public OptimizedSakerFile(SakerFile subject) throws NullPointerException, InvalidPathFormatException {
+		this(subject, OptimizationResultCache.getSharedInstance());
+	}
+
+	public OptimizedSakerFile(SakerFile subject, OptimizationResultCache resultCache)
+			throws NullPointerException, InvalidPathFormatException {
 		super(subject.getName());
 		this.subject = subject;
+		this.resultCache = resultCache;
 	}
 
 	@Override
@@ -38,10 +53,39 @@ public class OptimizedSakerFile extends SakerFileBase {
 		return ByteArrayRegion.wrap(optimized);
 	}
 
+	/**
+	 * Optimizes the contents of the subject file and caches the result for later reads.
+	 * 
+	 * @param statistics
+	 *            The statistics to add the results of the optimization to. May be <code>null</code>.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 */
+	public void optimize(OptimizationStatistics statistics) throws IOException {
+		getOptimizedBytes(statistics);
+	}
+
 	private byte[] getOptimizedBytes() throws IOException {
+		return getOptimizedBytes(null);
+	}
+
+	private byte[] getOptimizedBytes(OptimizationStatistics statistics) throws IOException {
+		ContentDescriptor subjectcontents = subject.getContentDescriptor();
+		OptimizedContents cached = optimizedContents;
+		if (cached != null && cached.subjectContents.equals(subjectcontents)) {
+			byte[] bytes = cached.bytes.get();
+			if (bytes != null) {
+				return bytes;
+			}
+		}
 		ByteArrayRegion inbytes = subject.getBytes();
-		byte[] inarray = inbytes.getArray();
-		byte[] optimized = TailRecursionOptimizer.optimizeMethods(inarray, inbytes.getOffset(), inbytes.getLength());
+		byte[] optimized = resultCache.tryOptimizeMethods(inbytes.getArray(), inbytes.getOffset(),
+				inbytes.getLength(), statistics);
+		if (optimized == null) {
+			//not optimized
+			optimized = inbytes.copyOptionally();
+		}
+		optimizedContents = new OptimizedContents(subjectcontents, optimized);
 		return optimized;
 	}
 
@@ -55,4 +99,13 @@ public class OptimizedSakerFile extends SakerFileBase {
 		return new UnsyncByteArrayInputStream(getOptimizedBytes());
 	}
 
+	private static final class OptimizedContents {
+		protected final ContentDescriptor subjectContents;
+		protected final SoftReference<byte[]> bytes;
+
+		public OptimizedContents(ContentDescriptor subjectContents, byte[] bytes) {
+			this.subjectContents = subjectContents;
+			this.bytes = new SoftReference<>(bytes);
+		}
+	}
 }
@@ -0,0 +1,44 @@
+package sipka.jvm.tailrec.saker.build;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saker.build.thirdparty.saker.util.ImmutableUtils;
+import saker.build.trace.BuildTrace;
+import sipka.jvm.tailrec.OptimizationStatistics;
+
+/**
+ * Utility functions for reporting the optimization results to the build trace.
+ */
+public final class OptimizerBuildTraceUtils {
+	private static final String VALUES_KEY = "Tail recursion optimization";
+
+	private OptimizerBuildTraceUtils() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Reports the argument statistics as the build trace values of the current task.
+	 * 
+	 * @param statistics
+	 *            The statistics.
+	 */
+	public static void reportStatistics(OptimizationStatistics statistics) {
+		if (saker.build.meta.Versions.VERSION_FULL_COMPOUND < 8_007) {
+			return;
+		}
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("Classes", statistics.getClassCount());
+		values.put("Parsed classes", statistics.getParsedClassCount());
+		values.put("Optimized classes", statistics.getOptimizedClassCount());
+		values.put("Cached classes", statistics.getCachedClassCount());
+		values.put("Optimized methods", statistics.getOptimizedMethodCount());
+		values.put("Optimized calls", statistics.getOptimizedCallCount());
+		values.put("Methods over analysis budget", statistics.getBudgetExceededMethodCount());
+		values.put("Input bytes", statistics.getInputBytes());
+		values.put("Output bytes", statistics.getOutputBytes());
+		values.put("Analysis time (ms)", statistics.getAnalysisNanos() / 1_000_000);
+		values.put("Write time (ms)", statistics.getWriteNanos() / 1_000_000);
+		BuildTrace.setValues(ImmutableUtils.singletonMap(VALUES_KEY, values), BuildTrace.VALUE_CATEGORY_TASK);
+	}
+}
@@ -0,0 +1,69 @@
+package sipka.jvm.tailrec.saker.build;
+
+import saker.build.task.TaskContext;
+import sipka.jvm.tailrec.ClassOptimizationResult;
+import sipka.jvm.tailrec.MethodOptimizationResult;
+import sipka.jvm.tailrec.RejectedCall;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+
+/**
+ * Utility functions for printing the reasons of the self-calls not being optimized to the build output.
+ */
+public final class OptimizerExplainUtils {
+	private OptimizerExplainUtils() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Analyzes the argument class and prints a line for each self-call that is not optimized.
+	 *
+	 * @param taskcontext
+	 *            The task context to print the lines to.
+	 * @param path
+	 *            The path of the class file to display.
+	 * @param classbytes
+	 *            The class bytes.
+	 * @param offset
+	 *            The offset of the class bytes in the array.
+	 * @param length
+	 *            The length of the class bytes.
+	 */
+	public static void explainClass(TaskContext taskcontext, String path, byte[] classbytes, int offset,
+			int length) {
+		ClassOptimizationResult result = TailRecursionOptimizer.scanClass(classbytes, offset, length, true);
+		String sourcefile = result.getSourceFile();
+		for (MethodOptimizationResult method : result.getMethods()) {
+			for (RejectedCall call : method.getRejectedCalls()) {
+				StringBuilder sb = new StringBuilder();
+				sb.append(path);
+				sb.append(": Not optimized: ");
+				sb.append(result.getClassName());
+				sb.append('.');
+				sb.append(method.getName());
+				sb.append(method.getDescriptor());
+				sb.append(" call at offset ");
+				sb.append(call.getOffset());
+				appendLocation(sb, sourcefile, call.getLine());
+				sb.append(": ");
+				sb.append(call.getReason());
+				if (call.getBlockingOffset() >= 0) {
+					sb.append(" at offset ");
+					sb.append(call.getBlockingOffset());
+					appendLocation(sb, sourcefile, call.getBlockingLine());
+				}
+				taskcontext.println(sb.toString());
+			}
+		}
+	}
+
+	private static void appendLocation(StringBuilder sb, String sourcefile, int line) {
+		if (line < 0) {
+			return;
+		}
+		sb.append(" (");
+		sb.append(sourcefile == null ? "line" : sourcefile);
+		sb.append(':');
+		sb.append(line);
+		sb.append(')');
+	}
+}
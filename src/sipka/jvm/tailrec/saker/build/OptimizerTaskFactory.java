@@ -1,11 +1,12 @@
 package sipka.jvm.tailrec.saker.build;
 
+import java.util.Collection;
+
 import saker.build.file.path.SakerPath;
 import saker.build.file.provider.SakerPathFiles;
 import saker.build.runtime.execution.ExecutionContext;
 import saker.build.task.ParameterizableTask;
 import saker.build.task.TaskContext;
-import saker.build.task.utils.SimpleStructuredObjectTaskResult;
 import saker.build.task.utils.annot.SakerInput;
 import saker.build.task.utils.dependencies.EqualityTaskOutputChangeDetector;
 import saker.build.thirdparty.saker.util.StringUtils;
@@ -16,18 +17,52 @@ import saker.nest.scriptinfo.reflection.annot.NestParameterInformation;
 import saker.nest.scriptinfo.reflection.annot.NestTaskInformation;
 import saker.nest.scriptinfo.reflection.annot.NestTypeUsage;
 import saker.nest.utils.FrontendTaskFactory;
+import sipka.jvm.tailrec.ClassFilter;
 
 @NestTaskInformation(returnType = @NestTypeUsage(SakerPath.class))
-@NestInformation("Performs tail recursion optimizations on the specified class directory.\n"
+@NestInformation("Performs tail recursion optimizations on the specified class directory or archive.\n"
 		+ "The task will optimize all Java .class bytecode files for tail recursions and write the "
 		+ "output to another build directory location with the same hierarchy.\n"
-		+ "The Input for the task must be a class directory.\n" + "The output is the path to the output directory.")
+		+ "The Input for the task must be a class directory or a JAR/ZIP archive. "
+		+ "The entries of an archive which are not changed by the optimizer are copied as is.\n"
+		+ "The output is the path to the output directory or archive.\n"
+		+ "The Path field of the output is the same path, and the Statistics field contains the counters of "
+		+ "the optimizations performed in the build: Classes, ParsedClasses, OptimizedClasses, CachedClasses, "
+		+ "OptimizedMethods, OptimizedCalls, BudgetExceededMethods, InputBytes, and OutputBytes.")
 
 @NestParameterInformation(value = "Directory",
 		aliases = { "", "Input" },
 		required = true,
 		type = @NestTypeUsage(SakerPath.class),
-		info = @NestInformation("The path to the input class directory."))
+		info = @NestInformation("The path to the input class directory or archive."))
+@NestParameterInformation(value = "ClusterDispatch",
+		type = @NestTypeUsage(boolean.class),
+		info = @NestInformation("Specifies whether the optimization can be performed on build clusters.\n"
+				+ "If set to true (default), the optimization may be dispatched to a build cluster daemon "
+				+ "when the build is executed with clusters. The class files are transferred to "
+				+ "the cluster, and the optimized outputs are written back by it."))
+@NestParameterInformation(value = "Includes",
+		type = @NestTypeUsage(value = Collection.class, elementTypes = String.class),
+		info = @NestInformation("Specifies the patterns of the classes that should be optimized.\n"
+				+ "The patterns are matched against the binary names of the classes. The * wildcard matches "
+				+ "any characters in a package or class name, while ** also matches the package separators. "
+				+ "E.g. com.example.** includes the classes in the com.example package and its subpackages.\n"
+				+ "If not specified, all classes are optimized that are not excluded.\n"
+				+ "The class files which are not optimized are copied to the output as is. Their contents "
+				+ "are not examined, and the archive entries are not decompressed."))
+@NestParameterInformation(value = "Excludes",
+		type = @NestTypeUsage(value = Collection.class, elementTypes = String.class),
+		info = @NestInformation("Specifies the patterns of the classes that shouldn't be optimized.\n"
+				+ "The format of the patterns is the same as for the Includes parameter. "
+				+ "The excluded classes are copied to the output as is."))
+@NestParameterInformation(value = "Explain",
+		type = @NestTypeUsage(boolean.class),
+		info = @NestInformation("Specifies whether the reasons of the self-calls not being optimized should be "
+				+ "printed to the build output.\n"
+				+ "If set to true, a line is printed for each recursive call that is not optimized with the "
+				+ "reason code, and the bytecode offset and source line of the call and the instruction "
+				+ "that prevents the optimization.\n"
+				+ "Only the classes that are processed in the build are explained. The option is false by default."))
 public class OptimizerTaskFactory extends FrontendTaskFactory<Object> {
 	private static final long serialVersionUID = 1L;
 
@@ -40,11 +75,24 @@ public class OptimizerTaskFactory extends FrontendTaskFactory<Object> {
 			@SakerInput(value = { "", "Directory", "Input" }, required = true)
 			public SakerPath inputOption;
 
+			@SakerInput(value = "ClusterDispatch")
+			public boolean clusterDispatchOption = true;
+
+			@SakerInput(value = "Includes")
+			public Collection<String> includesOption;
+
+			@SakerInput(value = "Excludes")
+			public Collection<String> excludesOption;
+
+			@SakerInput(value = "Explain")
+			public boolean explainOption;
+
 			@Override
 			public Object run(TaskContext taskcontext) throws Exception {
 				if (saker.build.meta.Versions.VERSION_FULL_COMPOUND >= 8_006) {
 					BuildTrace.classifyTask(BuildTrace.CLASSIFICATION_FRONTEND);
 				}
+				ClassFilter filter = ClassFilter.create(includesOption, excludesOption);
 				SakerPath input = taskcontext.getTaskWorkingDirectoryPath().tryResolve(inputOption);
 
 				SakerPath builddirpath = SakerPathFiles.requireBuildDirectoryPath(taskcontext);
@@ -56,9 +104,10 @@ public class OptimizerTaskFactory extends FrontendTaskFactory<Object> {
 				}
 
 				OptimizerWorkerTaskIdentifier workertaskid = new OptimizerWorkerTaskIdentifier(outputrelpath);
-				taskcontext.startTask(workertaskid, new OptimizerWorkerTaskFactory(input), null);
+				taskcontext.startTask(workertaskid, new OptimizerWorkerTaskFactory(input, clusterDispatchOption, filter,
+						explainOption), null);
 
-				SimpleStructuredObjectTaskResult result = new SimpleStructuredObjectTaskResult(workertaskid);
+				OptimizerTaskResult result = new OptimizerTaskResult(workertaskid);
 				taskcontext.reportSelfTaskOutputChangeDetector(new EqualityTaskOutputChangeDetector(result));
 				return result;
 			}
@@ -0,0 +1,122 @@
+package sipka.jvm.tailrec.saker.build;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saker.build.file.path.SakerPath;
+import sipka.jvm.tailrec.OptimizationStatistics;
+
+/**
+ * The result of the optimizer worker task.
+ * <p>
+ * Contains the path to the output, and the statistics of the optimizations performed in the build. The fields can be
+ * accessed in build scripts, e.g. <code>$result[Statistics][OptimizedMethods]</code>.
+ * <p>
+ * The statistics only contain the counters, not the elapsed times, so the result is the same if the task is executed
+ * again with the same inputs.
+ */
+public final class OptimizerTaskOutput implements Externalizable {
+	private static final long serialVersionUID = 1L;
+
+	private SakerPath path;
+	private Map<String, Long> statistics;
+
+	/**
+	 * For {@link Externalizable}.
+	 */
+	public OptimizerTaskOutput() {
+	}
+
+	public OptimizerTaskOutput(SakerPath path, OptimizationStatistics statistics) {
+		this.path = path;
+		Map<String, Long> values = new LinkedHashMap<>();
+		values.put("Classes", statistics.getClassCount());
+		values.put("ParsedClasses", statistics.getParsedClassCount());
+		values.put("OptimizedClasses", statistics.getOptimizedClassCount());
+		values.put("CachedClasses", statistics.getCachedClassCount());
+		values.put("OptimizedMethods", statistics.getOptimizedMethodCount());
+		values.put("OptimizedCalls", statistics.getOptimizedCallCount());
+		values.put("BudgetExceededMethods", statistics.getBudgetExceededMethodCount());
+		values.put("InputBytes", statistics.getInputBytes());
+		values.put("OutputBytes", statistics.getOutputBytes());
+		this.statistics = Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * Gets the path to the output directory or archive.
+	 */
+	public SakerPath getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the statistics of the optimizations performed in the build.
+	 * <p>
+	 * The statistics only include the classes that were processed in the build. The unchanged classes of an
+	 * incremental build are not counted.
+	 *
+	 * @return The counters mapped to their names.
+	 */
+	public Map<String, Long> getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeObject(path);
+		out.writeInt(statistics.size());
+		for (Map.Entry<String, Long> entry : statistics.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue());
+		}
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		path = (SakerPath) in.readObject();
+		int size = in.readInt();
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			String key = in.readUTF();
+			values.put(key, in.readLong());
+		}
+		statistics = Collections.unmodifiableMap(values);
+	}
+
+	@Override
+	public int hashCode() {
+		return path == null ? 0 : path.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		OptimizerTaskOutput other = (OptimizerTaskOutput) obj;
+		if (path == null) {
+			if (other.path != null)
+				return false;
+		} else if (!path.equals(other.path))
+			return false;
+		if (statistics == null) {
+			if (other.statistics != null)
+				return false;
+		} else if (!statistics.equals(other.statistics))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[path=" + path + ", statistics=" + statistics + "]";
+	}
+}
@@ -0,0 +1,37 @@
+package sipka.jvm.tailrec.saker.build;
+
+import java.io.Externalizable;
+
+import saker.build.task.TaskResultResolver;
+import saker.build.task.identifier.TaskIdentifier;
+import saker.build.task.utils.SimpleStructuredObjectTaskResult;
+
+/**
+ * The result of the optimizer task.
+ * <p>
+ * Resolves to the path of the output directory or archive, so it can be used as a path in build scripts. The fields
+ * of the {@link OptimizerTaskOutput} can be accessed with the subscript operator, e.g.
+ * <code>$result[Statistics]</code>.
+ */
+public class OptimizerTaskResult extends SimpleStructuredObjectTaskResult {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * For {@link Externalizable}.
+	 */
+	public OptimizerTaskResult() {
+	}
+
+	public OptimizerTaskResult(TaskIdentifier workertaskid) {
+		super(workertaskid);
+	}
+
+	@Override
+	public Object toResult(TaskResultResolver results) {
+		Object result = super.toResult(results);
+		if (result instanceof OptimizerTaskOutput) {
+			return ((OptimizerTaskOutput) result).getPath();
+		}
+		return result;
+	}
+}
@@ -5,10 +5,23 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.nio.file.NoSuchFileException;
-import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import saker.build.file.DelegateSakerFile;
 import saker.build.file.SakerDirectory;
@@ -21,14 +34,46 @@ import saker.build.task.CommonTaskContentDescriptors;
 import saker.build.task.Task;
 import saker.build.task.TaskContext;
 import saker.build.task.TaskFactory;
+import saker.build.task.delta.DeltaType;
+import saker.build.task.delta.FileChangeDelta;
 import saker.build.task.utils.dependencies.RecursiveFileCollectionStrategy;
+import saker.build.thirdparty.saker.util.ImmutableUtils;
+import saker.build.thirdparty.saker.util.io.ByteArrayRegion;
 import saker.build.thirdparty.saker.util.io.SerialUtils;
 import saker.build.trace.BuildTrace;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.OptimizationCache;
+import sipka.jvm.tailrec.OptimizationStatistics;
+import sipka.jvm.tailrec.RawZipInput;
 
-public class OptimizerWorkerTaskFactory implements TaskFactory<SakerPath>, Task<SakerPath>, Externalizable {
+public class OptimizerWorkerTaskFactory
+		implements TaskFactory<OptimizerTaskOutput>, Task<OptimizerTaskOutput>, Externalizable {
 	private static final long serialVersionUID = 1L;
 
+	private static final String TAG_INPUT_FILES = "input";
+	private static final String TAG_OUTPUT_FILES = "output";
+
+	private static final NavigableSet<String> CAPABILITIES_REMOTE_DISPATCHABLE = ImmutableUtils
+			.singletonNavigableSet(CAPABILITY_REMOTE_DISPATCHABLE);
+
 	private SakerPath input;
+	/**
+	 * Whether the task may be executed on build clusters.
+	 * <p>
+	 * The input files are transferred to the cluster, and the optimized outputs are written back by it.
+	 */
+	private boolean remoteDispatchable;
+	/**
+	 * The filter for the class files that are optimized.
+	 * <p>
+	 * The class files which are not included are copied to the output as is.
+	 */
+	private ClassFilter filter;
+	/**
+	 * Whether the reasons of the self-calls not being optimized should be printed for the classes processed in the
+	 * build.
+	 */
+	private boolean explain;
 
 	/**
 	 * For {@link Externalizable}.
@@ -37,82 +82,337 @@ public class OptimizerWorkerTaskFactory implements TaskFactory<SakerPath>, Task<
 	}
 
 	public OptimizerWorkerTaskFactory(SakerPath input) {
+		this(input, false);
+	}
+
+	public OptimizerWorkerTaskFactory(SakerPath input, boolean remoteDispatchable) {
+		this(input, remoteDispatchable, ClassFilter.ALL);
+	}
+
+	public OptimizerWorkerTaskFactory(SakerPath input, boolean remoteDispatchable, ClassFilter filter) {
+		this(input, remoteDispatchable, filter, false);
+	}
+
+	public OptimizerWorkerTaskFactory(SakerPath input, boolean remoteDispatchable, ClassFilter filter,
+			boolean explain) {
 		this.input = input;
+		this.remoteDispatchable = remoteDispatchable;
+		this.filter = filter;
+		this.explain = explain;
 	}
 
 	@Override
-	public Task<? extends SakerPath> createTask(ExecutionContext executioncontext) {
+	public Set<String> getCapabilities() {
+		if (remoteDispatchable) {
+			return CAPABILITIES_REMOTE_DISPATCHABLE;
+		}
+		return TaskFactory.super.getCapabilities();
+	}
+
+	@Override
+	public Task<? extends OptimizerTaskOutput> createTask(ExecutionContext executioncontext) {
 		return this;
 	}
 
 	@Override
-	public SakerPath run(TaskContext taskcontext) throws Exception {
+	public OptimizerTaskOutput run(TaskContext taskcontext) throws Exception {
 		if (saker.build.meta.Versions.VERSION_FULL_COMPOUND >= 8_006) {
 			BuildTrace.classifyTask(BuildTrace.CLASSIFICATION_WORKER);
 			BuildTrace.setDisplayInformation("opt.tailrec", OptimizerTaskFactory.TASK_NAME + ":" + input.getFileName());
 		}
-		OptimizerWorkerTaskIdentifier workertaskid = (OptimizerWorkerTaskIdentifier) taskcontext.getTaskId();
-
-		NavigableMap<SakerPath, SakerFile> inputfiles = taskcontext.getTaskUtilities()
-				.collectFilesReportInputFileAndAdditionDependency(null, RecursiveFileCollectionStrategy.create(input));
-		if (inputfiles.isEmpty()) {
-			//check that it is a directory. if not, throw an appropriate exception
-			SakerFile inputfile = taskcontext.getTaskUtilities().resolveAtPath(input);
-			if (inputfile == null) {
-				taskcontext.reportInputFileDependency(null, input, CommonTaskContentDescriptors.NOT_PRESENT);
-				taskcontext.abortExecution(new NoSuchFileException(input.toString()));
-				return null;
-			}
-			if (!(inputfile instanceof SakerDirectory)) {
-				taskcontext.reportInputFileDependency(null, input, CommonTaskContentDescriptors.IS_NOT_DIRECTORY);
-				taskcontext.abortExecution(new NotDirectoryException(input.toString()));
-				return null;
-			}
+		OptimizationStatistics statistics = new OptimizationStatistics();
+		SakerPath outputpath = optimize(taskcontext, statistics);
+		if (outputpath == null) {
+			//aborted
+			return null;
 		}
+		OptimizerBuildTraceUtils.reportStatistics(statistics);
+		return new OptimizerTaskOutput(outputpath, statistics);
+	}
+
+	private SakerPath optimize(TaskContext taskcontext, OptimizationStatistics statistics) throws Exception {
+		OptimizerWorkerTaskIdentifier workertaskid = (OptimizerWorkerTaskIdentifier) taskcontext.getTaskId();
 
 		SakerDirectory outputbuilddir = taskcontext.getTaskUtilities().resolveDirectoryAtRelativePathCreate(
 				taskcontext.getTaskBuildDirectory(),
 				SakerPath.valueOf(OptimizerTaskFactory.TASK_NAME).append(workertaskid.getOutputRelativePath()));
 		SakerPath outputdirpath = outputbuilddir.getSakerPath();
+		OptimizationResultCache resultcache = OptimizationResultCache
+				.get(taskcontext.getExecutionContext().getEnvironment());
+		String optimizerversion = OptimizationCache.getOptimizerVersion();
+		OutputState prevstate = taskcontext.getPreviousTaskOutput(OutputState.class, OutputState.class);
+
+		SakerFile inputfile = taskcontext.getTaskUtilities().resolveAtPath(input);
+		if (inputfile != null && !(inputfile instanceof SakerDirectory)) {
+			return optimizeArchive(taskcontext, inputfile, outputbuilddir, resultcache, optimizerversion, prevstate,
+					statistics);
+		}
+
+		NavigableMap<SakerPath, SakerFile> inputfiles = taskcontext.getTaskUtilities()
+				.collectFilesReportInputFileAndAdditionDependency(TAG_INPUT_FILES,
+						RecursiveFileCollectionStrategy.create(input));
+		if (inputfiles.isEmpty() && inputfile == null) {
+			taskcontext.reportInputFileDependency(null, input, CommonTaskContentDescriptors.NOT_PRESENT);
+			taskcontext.abortExecution(new NoSuchFileException(input.toString()));
+			return null;
+		}
 
 		NavigableMap<SakerPath, SakerFile> relativeinputfiles = SakerPathFiles.relativizeSubPath(inputfiles, input);
-		NavigableMap<SakerPath, ContentDescriptor> outputcontents = new TreeMap<>();
+		//the output content descriptors by the relative paths
+		NavigableMap<SakerPath, ContentDescriptor> outputcontents;
+		List<OptimizedSakerFile> optimizedfiles = new ArrayList<>();
+		//the relative paths of the inputs that are processed in this build
+		NavigableSet<SakerPath> processedpaths;
 
-		//TODO make incremental (although the directory synchronization provides necessary incrementality)
-		outputbuilddir.clear();
-		for (Entry<SakerPath, SakerFile> entry : relativeinputfiles.entrySet()) {
-			SakerFile f = entry.getValue();
-			if (f instanceof SakerDirectory) {
-				//just resolve the path to have the directory created
-				taskcontext.getTaskUtilities().resolveDirectoryAtRelativePathCreate(outputbuilddir, entry.getKey());
-				continue;
+		if (prevstate == null || prevstate.archiveEntries != null
+				|| !outputdirpath.equals(prevstate.outputDirectoryPath)
+				|| !optimizerversion.equals(prevstate.optimizerVersion)
+				|| !taskcontext.getNonFileDeltas().isEmpty()) {
+			//no previous state, the task or the optimizer changed, create all outputs
+			outputcontents = new TreeMap<>();
+			outputbuilddir.clear();
+			processedpaths = relativeinputfiles.navigableKeySet();
+			for (Entry<SakerPath, SakerFile> entry : relativeinputfiles.entrySet()) {
+				addOutputFile(taskcontext, outputbuilddir, entry.getKey(), entry.getValue(), filter, resultcache,
+						outputcontents, optimizedfiles);
 			}
-			SakerDirectory outdir = taskcontext.getTaskUtilities().resolveDirectoryAtRelativePathCreate(outputbuilddir,
-					entry.getKey().getParent());
-			SakerFile outfile;
-			if (f.getName().endsWith(".class")) {
-				outfile = new OptimizedSakerFile(f);
-			} else {
-				outfile = new DelegateSakerFile(f);
+		} else {
+			outputcontents = new TreeMap<>(prevstate.outputContents);
+			//only update the outputs for the changed inputs, or if the outputs were modified
+			NavigableSet<SakerPath> changedpaths = new TreeSet<>();
+			collectChangedRelativePaths(taskcontext, DeltaType.INPUT_FILE_CHANGE, TAG_INPUT_FILES, input,
+					changedpaths);
+			collectChangedRelativePaths(taskcontext, DeltaType.INPUT_FILE_ADDITION, TAG_INPUT_FILES, input,
+					changedpaths);
+			collectChangedRelativePaths(taskcontext, DeltaType.OUTPUT_FILE_CHANGE, TAG_OUTPUT_FILES, outputdirpath,
+					changedpaths);
+			processedpaths = changedpaths;
+			for (SakerPath relpath : changedpaths) {
+				SakerFile f = relativeinputfiles.get(relpath);
+				if (f == null) {
+					//the input was removed
+					outputcontents.remove(relpath);
+					SakerFile outfile = taskcontext.getTaskUtilities().resolveAtRelativePath(outputbuilddir, relpath);
+					if (outfile != null) {
+						outfile.remove();
+					}
+					continue;
+				}
+				addOutputFile(taskcontext, outputbuilddir, relpath, f, filter, resultcache, outputcontents,
+						optimizedfiles);
 			}
-			outdir.add(outfile);
-			outputcontents.put(outputdirpath.resolve(entry.getKey()), outfile.getContentDescriptor());
 		}
 
+		optimizeFiles(taskcontext, optimizedfiles, statistics);
+		if (explain) {
+			for (SakerPath relpath : processedpaths) {
+				SakerFile f = relativeinputfiles.get(relpath);
+				if (f == null || f instanceof SakerDirectory || !filter.isIncludedResource(relpath.toString())) {
+					continue;
+				}
+				ByteArrayRegion bytes = f.getBytes();
+				OptimizerExplainUtils.explainClass(taskcontext, relpath.toString(), bytes.getArray(),
+						bytes.getOffset(), bytes.getLength());
+			}
+		}
 		outputbuilddir.synchronize();
-		taskcontext.getTaskUtilities().reportOutputFileDependency(null, outputcontents);
+		NavigableMap<SakerPath, ContentDescriptor> outputdependencies = new TreeMap<>();
+		for (Entry<SakerPath, ContentDescriptor> entry : outputcontents.entrySet()) {
+			outputdependencies.put(outputdirpath.resolve(entry.getKey()), entry.getValue());
+		}
+		taskcontext.getTaskUtilities().reportOutputFileDependency(TAG_OUTPUT_FILES, outputdependencies);
+		taskcontext.setTaskOutput(OutputState.class,
+				new OutputState(outputdirpath, optimizerversion, outputcontents, null));
 
 		return outputdirpath;
 	}
 
+	private SakerPath optimizeArchive(TaskContext taskcontext, SakerFile inputfile, SakerDirectory outputbuilddir,
+			final OptimizationResultCache resultcache, String optimizerversion, OutputState prevstate,
+			final OptimizationStatistics statistics) throws Exception {
+		ContentDescriptor inputcontents = inputfile.getContentDescriptor();
+		taskcontext.reportInputFileDependency(TAG_INPUT_FILES, input, inputcontents);
+
+		//the previous results of the class entries are reused if the CRC of the entry didn't change
+		NavigableMap<String, ArchiveEntryState> preventries;
+		if (prevstate == null || prevstate.archiveEntries == null
+				|| !optimizerversion.equals(prevstate.optimizerVersion)
+				|| !taskcontext.getNonFileDeltas().isEmpty()) {
+			preventries = Collections.emptyNavigableMap();
+		} else {
+			preventries = prevstate.archiveEntries;
+		}
+
+		Path inputpath = taskcontext.mirror(inputfile);
+		final NavigableMap<String, ArchiveEntryState> entries = new ConcurrentSkipListMap<>();
+		try (final RawZipInput zipinput = RawZipInput.open(inputpath)) {
+			if (zipinput == null) {
+				taskcontext.abortExecution(new IOException("Unsupported archive format: " + input));
+				return null;
+			}
+			List<Callable<?>> tasks = new ArrayList<>();
+			//the entries that are processed in this build
+			List<RawZipInput.Entry> processedentries = new ArrayList<>();
+			for (final RawZipInput.Entry entry : zipinput.getEntries()) {
+				if (entry.isDirectory() || !filter.isIncludedResource(entry.getName())) {
+					//copied without decompressing
+					continue;
+				}
+				ArchiveEntryState prev = preventries.get(entry.getName());
+				if (prev != null && prev.crc == entry.getCrc() && prev.size == entry.getSize()) {
+					entries.put(entry.getName(), prev);
+					int size = (int) entry.getSize();
+					if (prev.optimizedBytes == null) {
+						statistics.addCachedClass(size, size, false);
+					} else {
+						statistics.addCachedClass(size, prev.optimizedBytes.length, true);
+					}
+					continue;
+				}
+				processedentries.add(entry);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						byte[] contents = zipinput.readContents(entry);
+						byte[] optimized = resultcache.tryOptimizeMethods(contents, 0, contents.length,
+								statistics);
+						entries.put(entry.getName(), new ArchiveEntryState(entry.getCrc(), entry.getSize(), optimized));
+						return null;
+					}
+				});
+			}
+			runParallel(taskcontext, tasks);
+			if (explain) {
+				//explained after the optimization so the lines are printed in the order of the entries
+				for (RawZipInput.Entry entry : processedentries) {
+					byte[] contents = zipinput.readContents(entry);
+					OptimizerExplainUtils.explainClass(taskcontext, entry.getName(), contents, 0, contents.length);
+				}
+			}
+		}
+
+		Map<String, byte[]> optimizedentries = new TreeMap<>();
+		for (Entry<String, ArchiveEntryState> entry : entries.entrySet()) {
+			byte[] optimized = entry.getValue().optimizedBytes;
+			if (optimized != null) {
+				optimizedentries.put(entry.getKey(), optimized);
+			}
+		}
+		outputbuilddir.clear();
+		OptimizedArchiveSakerFile outfile = new OptimizedArchiveSakerFile(inputfile.getName(), inputpath,
+				inputcontents, filter, optimizedentries);
+		outputbuilddir.add(outfile);
+		outputbuilddir.synchronize();
+
+		SakerPath outputdirpath = outputbuilddir.getSakerPath();
+		SakerPath outputpath = outfile.getSakerPath();
+		ContentDescriptor outputcontents = outfile.getContentDescriptor();
+		taskcontext.reportOutputFileDependency(TAG_OUTPUT_FILES, outputpath, outputcontents);
+		NavigableMap<SakerPath, ContentDescriptor> outputcontentsmap = new TreeMap<>();
+		outputcontentsmap.put(SakerPath.valueOf(outfile.getName()), outputcontents);
+		taskcontext.setTaskOutput(OutputState.class,
+				new OutputState(outputdirpath, optimizerversion, outputcontentsmap, new TreeMap<>(entries)));
+		return outputpath;
+	}
+
+	private static void addOutputFile(TaskContext taskcontext, SakerDirectory outputbuilddir, SakerPath relpath,
+			SakerFile f, ClassFilter filter, OptimizationResultCache resultcache,
+			NavigableMap<SakerPath, ContentDescriptor> outputcontents, List<OptimizedSakerFile> optimizedfiles) {
+		if (f instanceof SakerDirectory) {
+			//just resolve the path to have the directory created
+			taskcontext.getTaskUtilities().resolveDirectoryAtRelativePathCreate(outputbuilddir, relpath);
+			return;
+		}
+		SakerDirectory outdir = taskcontext.getTaskUtilities().resolveDirectoryAtRelativePathCreate(outputbuilddir,
+				relpath.getParent());
+		SakerFile outfile;
+		if (filter.isIncludedResource(relpath.toString())) {
+			OptimizedSakerFile optimizedfile = new OptimizedSakerFile(f, resultcache);
+			optimizedfiles.add(optimizedfile);
+			outfile = optimizedfile;
+		} else {
+			outfile = new DelegateSakerFile(f);
+		}
+		outdir.add(outfile);
+		outputcontents.put(relpath, outfile.getContentDescriptor());
+	}
+
+	/**
+	 * Optimizes the contents of the files in parallel, so the synchronization of the output directory doesn't need to
+	 * optimize them one by one.
+	 */
+	private static void optimizeFiles(TaskContext taskcontext, List<OptimizedSakerFile> optimizedfiles,
+			final OptimizationStatistics statistics) throws Exception {
+		List<Callable<?>> tasks = new ArrayList<>(optimizedfiles.size());
+		for (final OptimizedSakerFile f : optimizedfiles) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					f.optimize(statistics);
+					return null;
+				}
+			});
+		}
+		runParallel(taskcontext, tasks);
+	}
+
+	/**
+	 * Runs the tasks on a thread pool sized to the thread factor of the build environment.
+	 */
+	private static void runParallel(TaskContext taskcontext, List<? extends Callable<?>> tasks) throws Exception {
+		int threadcount = Math.min(tasks.size(), taskcontext.getExecutionContext().getEnvironment().getThreadFactor());
+		if (threadcount <= 1) {
+			for (Callable<?> task : tasks) {
+				task.call();
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threadcount);
+		try {
+			List<Future<?>> futures = new ArrayList<>(tasks.size());
+			for (Callable<?> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception) {
+						throw (Exception) cause;
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void collectChangedRelativePaths(TaskContext taskcontext, DeltaType deltatype, Object tag,
+			SakerPath basepath, NavigableSet<SakerPath> result) {
+		for (FileChangeDelta delta : taskcontext.getFileDeltas(deltatype).getFileDeltasWithTag(tag)) {
+			SakerPath path = delta.getFilePath();
+			if (path.startsWith(basepath) && !path.equals(basepath)) {
+				result.add(basepath.relativize(path));
+			}
+		}
+	}
+
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
 		out.writeObject(input);
+		out.writeBoolean(remoteDispatchable);
+		out.writeObject(filter);
+		out.writeBoolean(explain);
 	}
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		input = SerialUtils.readExternalObject(in);
+		remoteDispatchable = in.readBoolean();
+		filter = SerialUtils.readExternalObject(in);
+		explain = in.readBoolean();
 	}
 
 	@Override
@@ -120,6 +420,9 @@ public class OptimizerWorkerTaskFactory implements TaskFactory<SakerPath>, Task<
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((input == null) ? 0 : input.hashCode());
+		result = prime * result + ((filter == null) ? 0 : filter.hashCode());
+		result = prime * result + (remoteDispatchable ? 1231 : 1237);
+		result = prime * result + (explain ? 1231 : 1237);
 		return result;
 	}
 
@@ -137,12 +440,108 @@ public class OptimizerWorkerTaskFactory implements TaskFactory<SakerPath>, Task<
 				return false;
 		} else if (!input.equals(other.input))
 			return false;
+		if (filter == null) {
+			if (other.filter != null)
+				return false;
+		} else if (!filter.equals(other.filter))
+			return false;
+		if (remoteDispatchable != other.remoteDispatchable)
+			return false;
+		if (explain != other.explain)
+			return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "OptimizerWorkerTaskFactory[input=" + input + "]";
+		return "OptimizerWorkerTaskFactory[input=" + input + ", remoteDispatchable=" + remoteDispatchable + ", filter="
+				+ filter + ", explain=" + explain + "]";
+	}
+
+	/**
+	 * The output state of the worker task that is used to incrementally update the outputs in the next build.
+	 */
+	public static final class OutputState implements Externalizable {
+		private static final long serialVersionUID = 1L;
+
+		protected SakerPath outputDirectoryPath;
+		protected String optimizerVersion;
+		protected NavigableMap<SakerPath, ContentDescriptor> outputContents;
+		/**
+		 * The states of the class entries by their names if the input was an archive, <code>null</code> otherwise.
+		 */
+		protected NavigableMap<String, ArchiveEntryState> archiveEntries;
+
+		/**
+		 * For {@link Externalizable}.
+		 */
+		public OutputState() {
+		}
+
+		public OutputState(SakerPath outputDirectoryPath, String optimizerVersion,
+				NavigableMap<SakerPath, ContentDescriptor> outputContents,
+				NavigableMap<String, ArchiveEntryState> archiveEntries) {
+			this.outputDirectoryPath = outputDirectoryPath;
+			this.optimizerVersion = optimizerVersion;
+			this.outputContents = outputContents;
+			this.archiveEntries = archiveEntries;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			out.writeObject(outputDirectoryPath);
+			out.writeUTF(optimizerVersion);
+			out.writeObject(outputContents);
+			out.writeObject(archiveEntries);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+			outputDirectoryPath = SerialUtils.readExternalObject(in);
+			optimizerVersion = in.readUTF();
+			outputContents = SerialUtils.readExternalObject(in);
+			archiveEntries = SerialUtils.readExternalObject(in);
+		}
+	}
+
+	/**
+	 * The state of a class entry in an input archive.
+	 */
+	public static final class ArchiveEntryState implements Externalizable {
+		private static final long serialVersionUID = 1L;
+
+		protected long crc;
+		protected long size;
+		/**
+		 * The optimized contents of the entry, or <code>null</code> if the optimizer didn't change it.
+		 */
+		protected byte[] optimizedBytes;
+
+		/**
+		 * For {@link Externalizable}.
+		 */
+		public ArchiveEntryState() {
+		}
+
+		public ArchiveEntryState(long crc, long size, byte[] optimizedBytes) {
+			this.crc = crc;
+			this.size = size;
+			this.optimizedBytes = optimizedBytes;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			out.writeLong(crc);
+			out.writeLong(size);
+			out.writeObject(optimizedBytes);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+			crc = in.readLong();
+			size = in.readLong();
+			optimizedBytes = (byte[]) in.readObject();
+		}
 	}
 
 }
@@ -3,9 +3,19 @@ package sipka.jvm.tailrec.saker.build.zip;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import saker.build.file.path.SakerPath;
 import saker.build.thirdparty.saker.util.ObjectUtils;
@@ -14,12 +24,36 @@ import saker.build.thirdparty.saker.util.io.StreamUtils;
 import saker.zip.api.create.ZipResourceTransformationContext;
 import saker.zip.api.create.ZipResourceTransformer;
 import saker.zip.api.create.ZipResourceTransformerFactory;
-import sipka.jvm.tailrec.TailRecursionOptimizer;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.OptimizationStatistics;
+import sipka.jvm.tailrec.saker.build.OptimizationResultCache;
+import sipka.jvm.tailrec.saker.build.OptimizerBuildTraceUtils;
 
 public class OptimizerZipResourceTransformerFactory implements ZipResourceTransformerFactory, Externalizable {
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
-	public static final OptimizerZipResourceTransformerFactory INSTANCE = new OptimizerZipResourceTransformerFactory();
+	public static final OptimizerZipResourceTransformerFactory INSTANCE = new OptimizerZipResourceTransformerFactory(
+			ClassFilter.ALL);
+
+	/**
+	 * The filter for the class resources that are optimized.
+	 * <p>
+	 * The resources which are not included are not read by the transformer.
+	 */
+	private ClassFilter filter;
+	/**
+	 * The number of threads to optimize the classes with, or 0 to use the number of available processors.
+	 * <p>
+	 * It is the thread factor of the build environment that created the factory. It doesn't affect the output, so it
+	 * is not part of the equality.
+	 */
+	private int threadCount;
+
+	/**
+	 * The thread pool shared by the transformers, so the concurrently created archives don't oversubscribe the
+	 * machine.
+	 */
+	private static ThreadPoolExecutor sharedExecutor;
 
 	/**
 	 * For {@link Externalizable}.
@@ -27,51 +61,222 @@ public class OptimizerZipResourceTransformerFactory implements ZipResourceTransf
 	public OptimizerZipResourceTransformerFactory() {
 	}
 
+	public OptimizerZipResourceTransformerFactory(ClassFilter filter) {
+		this(filter, 0);
+	}
+
+	public OptimizerZipResourceTransformerFactory(ClassFilter filter, int threadCount) {
+		this.filter = filter;
+		this.threadCount = threadCount;
+	}
+
 	@Override
 	public ZipResourceTransformer createTransformer() {
-		return new ZipResourceTransformer() {
-			@Override
-			public boolean process(ZipResourceTransformationContext context, SakerPath resourcepath,
-					InputStream resourceinput) throws IOException {
-				if (!resourcepath.getFileName().endsWith(".class")) {
-					return false;
-				}
-				ByteArrayRegion contents = StreamUtils.readStreamFully(resourceinput);
-				byte[] array = contents.copyOptionally();
-				byte[] optimized = TailRecursionOptimizer.optimizeMethods(array);
-				if (array == optimized) {
-					//not optimized
-					return false;
-				}
-				try (OutputStream out = context.appendFile(resourcepath, null)) {
-					out.write(optimized);
-				}
-				return true;
-			}
-		};
+		int threadcount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+		return new OptimizerZipResourceTransformer(filter, threadcount);
 	}
 
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeObject(filter);
+		out.writeInt(threadCount);
 	}
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		filter = (ClassFilter) in.readObject();
+		threadCount = in.readInt();
 	}
 
 	@Override
 	public int hashCode() {
-		return getClass().getName().hashCode();
+		return filter.hashCode();
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		return ObjectUtils.isSameClass(this, obj);
+		if (!ObjectUtils.isSameClass(this, obj)) {
+			return false;
+		}
+		OptimizerZipResourceTransformerFactory other = (OptimizerZipResourceTransformerFactory) obj;
+		return filter.equals(other.filter);
 	}
 
 	@Override
 	public String toString() {
-		return getClass().getSimpleName() + "[]";
+		return getClass().getSimpleName() + "[filter=" + filter + ", threadCount=" + threadCount + "]";
 	}
 
+	/**
+	 * Transformer that optimizes the class resources on a background thread pool.
+	 * <p>
+	 * The resources are read and queued as they are processed, while the class resources are optimized concurrently.
+	 * The queued resources are appended to the archive in the original order when the queue grows too large, or when
+	 * the transformer is flushed.
+	 */
+	private static final class OptimizerZipResourceTransformer implements ZipResourceTransformer {
+		private final ClassFilter filter;
+		private final int threadCount;
+		private final int maxPendingCount;
+		private final Deque<PendingResource> pendingResources = new ArrayDeque<>();
+		private final OptimizationStatistics statistics = new OptimizationStatistics();
+
+		public OptimizerZipResourceTransformer(ClassFilter filter, int threadCount) {
+			this.filter = filter;
+			this.threadCount = threadCount;
+			this.maxPendingCount = threadCount * 4;
+		}
+
+		@Override
+		public boolean process(ZipResourceTransformationContext context, SakerPath resourcepath,
+				InputStream resourceinput) throws IOException {
+			boolean classfile = filter.isIncludedResource(resourcepath.toString());
+			if (!classfile && pendingResources.isEmpty()) {
+				return false;
+			}
+			if (resourceinput == null) {
+				//not a file, let the archive creator handle it after the previous resources
+				flush(context);
+				return false;
+			}
+			final ByteArrayRegion contents = StreamUtils.readStreamFully(resourceinput);
+			if (!classfile) {
+				addPendingResource(context, new PendingResource(resourcepath, contents, null));
+				return true;
+			}
+			if (threadCount <= 1) {
+				byte[] optimized = optimize(contents, statistics);
+				if (optimized == null) {
+					//not optimized
+					return false;
+				}
+				write(context, resourcepath, optimized, 0, optimized.length);
+				return true;
+			}
+			Future<byte[]> optimized = getSharedExecutor(threadCount).submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return optimize(contents, statistics);
+				}
+			});
+			addPendingResource(context, new PendingResource(resourcepath, contents, optimized));
+			return true;
+		}
+
+		@Override
+		public void flush(ZipResourceTransformationContext context) throws IOException {
+			for (PendingResource resource; (resource = pendingResources.pollFirst()) != null;) {
+				resource.write(context);
+			}
+		}
+
+		@Override
+		public void end(ZipResourceTransformationContext context) throws IOException {
+			try {
+				flush(context);
+			} finally {
+				//the pool is shared, only cancel the optimizations of this transformer if the flushing failed
+				for (PendingResource resource; (resource = pendingResources.pollFirst()) != null;) {
+					resource.cancel();
+				}
+			}
+			OptimizerBuildTraceUtils.reportStatistics(statistics);
+		}
+
+		private void addPendingResource(ZipResourceTransformationContext context, PendingResource resource)
+				throws IOException {
+			pendingResources.addLast(resource);
+			while (pendingResources.size() > maxPendingCount) {
+				pendingResources.removeFirst().write(context);
+			}
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getSharedExecutor(int threadcount) {
+		if (sharedExecutor == null) {
+			sharedExecutor = new ThreadPoolExecutor(threadcount, threadcount, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "tailrec-zip-optimizer");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			//let the threads exit when there are no archives being created
+			sharedExecutor.allowCoreThreadTimeOut(true);
+		} else if (sharedExecutor.getMaximumPoolSize() < threadcount) {
+			sharedExecutor.setMaximumPoolSize(threadcount);
+			sharedExecutor.setCorePoolSize(threadcount);
+		}
+		return sharedExecutor;
+	}
+
+	private static final class PendingResource {
+		private final SakerPath resourcePath;
+		private final ByteArrayRegion contents;
+		/**
+		 * The optimized contents, or <code>null</code> if the resource is not a class file.
+		 */
+		private final Future<byte[]> optimized;
+
+		public PendingResource(SakerPath resourcePath, ByteArrayRegion contents, Future<byte[]> optimized) {
+			this.resourcePath = resourcePath;
+			this.contents = contents;
+			this.optimized = optimized;
+		}
+
+		public void write(ZipResourceTransformationContext context) throws IOException {
+			if (optimized != null) {
+				byte[] optimizedbytes = getOptimizedBytes();
+				if (optimizedbytes != null) {
+					OptimizerZipResourceTransformerFactory.write(context, resourcePath, optimizedbytes, 0,
+							optimizedbytes.length);
+					return;
+				}
+			}
+			OptimizerZipResourceTransformerFactory.write(context, resourcePath, contents.getArray(),
+					contents.getOffset(), contents.getLength());
+		}
+
+		public void cancel() {
+			if (optimized != null) {
+				optimized.cancel(true);
+			}
+		}
+
+		private byte[] getOptimizedBytes() throws IOException {
+			try {
+				return optimized.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while optimizing: " + resourcePath);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IOException("Failed to optimize: " + resourcePath, cause);
+			}
+		}
+	}
+
+	private static byte[] optimize(ByteArrayRegion contents, OptimizationStatistics statistics) throws IOException {
+		//the build environment is not accessible for the transformers, use the shared cache
+		return OptimizationResultCache.getSharedInstance().tryOptimizeMethods(contents.getArray(),
+				contents.getOffset(), contents.getLength(), statistics);
+	}
+
+	private static void write(ZipResourceTransformationContext context, SakerPath resourcepath, byte[] bytes,
+			int offset, int length) throws IOException {
+		try (OutputStream out = context.appendFile(resourcepath, null)) {
+			out.write(bytes, offset, length);
+		}
+	}
 }
@@ -1,72 +1,59 @@
 package sipka.jvm.tailrec.saker.build.zip;
 
-import java.io.Externalizable;
-import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
-import java.util.NavigableSet;
-import java.util.Set;
+import java.util.Collection;
 
 import saker.build.runtime.execution.ExecutionContext;
-import saker.build.task.Task;
+import saker.build.task.ParameterizableTask;
 import saker.build.task.TaskContext;
-import saker.build.task.TaskFactory;
-import saker.build.thirdparty.saker.util.ImmutableUtils;
-import saker.build.thirdparty.saker.util.ObjectUtils;
+import saker.build.task.utils.annot.SakerInput;
 import saker.build.trace.BuildTrace;
 import saker.nest.scriptinfo.reflection.annot.NestInformation;
+import saker.nest.scriptinfo.reflection.annot.NestParameterInformation;
+import saker.nest.scriptinfo.reflection.annot.NestTypeUsage;
+import saker.nest.utils.FrontendTaskFactory;
+import sipka.jvm.tailrec.ClassFilter;
 
 @NestInformation(
 		value = "Creates a ZIP resource transformer that performs tail recursion optimization on Java class files.\n"
 				+ "The output of this task can be used as the Transformer inputs to ZIP archive creation tasks. "
 				+ "(saker.zip.create and related tasks.)")
-public class OptimizerZipTransformerTaskFactory
-		implements TaskFactory<OptimizerZipResourceTransformerFactory>, Externalizable {
+@NestParameterInformation(value = "Includes",
+		type = @NestTypeUsage(value = Collection.class, elementTypes = String.class),
+		info = @NestInformation("Specifies the patterns of the classes that should be optimized.\n"
+				+ "The patterns are matched against the binary names of the classes. The * wildcard matches "
+				+ "any characters in a package or class name, while ** also matches the package separators. "
+				+ "E.g. com.example.** includes the classes in the com.example package and its subpackages.\n"
+				+ "If not specified, all classes are optimized that are not excluded.\n"
+				+ "The class files which are not optimized are not read by the transformer."))
+@NestParameterInformation(value = "Excludes",
+		type = @NestTypeUsage(value = Collection.class, elementTypes = String.class),
+		info = @NestInformation("Specifies the patterns of the classes that shouldn't be optimized.\n"
+				+ "The format of the patterns is the same as for the Includes parameter."))
+public class OptimizerZipTransformerTaskFactory extends FrontendTaskFactory<OptimizerZipResourceTransformerFactory> {
 	private static final long serialVersionUID = 1L;
 
-	private static final NavigableSet<String> CAPABILITIES = ImmutableUtils
-			.singletonNavigableSet(CAPABILITY_SHORT_TASK);
-
 	public static final String TASK_NAME = "sipka.jvm.tailrec.zip.transformer";
 
 	@Override
-	public Task<? extends OptimizerZipResourceTransformerFactory> createTask(ExecutionContext executioncontext) {
-		return new Task<OptimizerZipResourceTransformerFactory>() {
+	public ParameterizableTask<? extends OptimizerZipResourceTransformerFactory> createTask(
+			ExecutionContext executioncontext) {
+		return new ParameterizableTask<OptimizerZipResourceTransformerFactory>() {
+
+			@SakerInput(value = "Includes")
+			public Collection<String> includesOption;
+
+			@SakerInput(value = "Excludes")
+			public Collection<String> excludesOption;
+
 			@Override
 			public OptimizerZipResourceTransformerFactory run(TaskContext taskcontext) throws Exception {
 				if (saker.build.meta.Versions.VERSION_FULL_COMPOUND >= 8_006) {
 					BuildTrace.classifyTask(BuildTrace.CLASSIFICATION_CONFIGURATION);
 				}
-				return OptimizerZipResourceTransformerFactory.INSTANCE;
+				ClassFilter filter = ClassFilter.create(includesOption, excludesOption);
+				return new OptimizerZipResourceTransformerFactory(filter,
+						taskcontext.getExecutionContext().getEnvironment().getThreadFactor());
 			}
 		};
 	}
-
-	@Override
-	public Set<String> getCapabilities() {
-		return CAPABILITIES;
-	}
-
-	@Override
-	public void writeExternal(ObjectOutput out) throws IOException {
-	}
-
-	@Override
-	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-	}
-
-	@Override
-	public int hashCode() {
-		return getClass().getName().hashCode();
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		return ObjectUtils.isSameClass(this, obj);
-	}
-
-	@Override
-	public String toString() {
-		return getClass().getSimpleName() + "[]";
-	}
 }
@@ -0,0 +1,10 @@
+package test.lib;
+
+public class Counter {
+	public static void count(int n) {
+		if (n == 0) {
+			return;
+		}
+		count(n - 1);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,13 @@
+package test;
+
+public class Main {
+	//replaced by the test to make the class bytes different from the ones optimized in previous builds
+	public static final String BUILD_ID = "BUILD_ID";
+
+	public static void count(int n) {
+		if (n == 0) {
+			return;
+		}
+		count(n - 1);
+	}
+}
\ No newline at end of file
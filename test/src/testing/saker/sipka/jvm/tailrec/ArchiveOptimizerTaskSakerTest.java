@@ -0,0 +1,84 @@
+package testing.saker.sipka.jvm.tailrec;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import saker.build.file.path.SakerPath;
+import saker.build.thirdparty.saker.util.classloader.ClassLoaderDataFinder;
+import saker.build.thirdparty.saker.util.classloader.MultiDataClassLoader;
+import saker.build.thirdparty.saker.util.io.ByteArrayRegion;
+import saker.build.thirdparty.saker.util.io.ByteSourceInputStream;
+import saker.build.thirdparty.saker.util.io.StreamUtils;
+import testing.saker.SakerTest;
+import testing.saker.build.tests.TestUtils;
+import testing.saker.nest.util.NestRepositoryCachingEnvironmentTestCase;
+
+@SakerTest
+public class ArchiveOptimizerTaskSakerTest extends NestRepositoryCachingEnvironmentTestCase {
+
+	@Override
+	protected void runNestTaskTestImpl() throws Throwable {
+		SakerPath mainjavapath = PATH_WORKING_DIRECTORY.resolve("src/test/Main.java");
+
+		CombinedTargetTaskResult res = runScriptTask("build");
+		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+
+		res = runScriptTask("build");
+		assertEmpty(getMetric().getRunTaskIdResults());
+
+		files.putFile(mainjavapath, files.getAllBytes(mainjavapath).toString().replace("n - 1", "n - 2"));
+		res = runScriptTask("build");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+
+		//the output archive is recreated if it is modified
+		SakerPath outpath = (SakerPath) res.getTargetTaskResult("path");
+		files.putFile(outpath, "modified");
+		res = runScriptTask("build");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+	}
+
+	private void testOptimization(SakerPath outpath) throws Throwable {
+		Map<String, ByteArrayRegion> resourceBytes = new TreeMap<String, ByteArrayRegion>();
+		InputStream is = null;
+		try {
+			is = new ByteSourceInputStream(files.openInput(outpath));
+			ZipInputStream zis = null;
+			try {
+				zis = new ZipInputStream(is);
+				for (ZipEntry entry; (entry = zis.getNextEntry()) != null;) {
+					resourceBytes.put(entry.getName(), StreamUtils.readStreamFully(zis));
+				}
+			} finally {
+				if (zis != null) {
+					zis.close();
+				}
+			}
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+		}
+
+		ClassLoaderDataFinder jarfinder = null;
+		try {
+			jarfinder = new TestUtils.MemoryClassLoaderDataFinder(resourceBytes);
+			MultiDataClassLoader cl = new MultiDataClassLoader(jarfinder);
+			Class<?> c = Class.forName("test.Main", false, cl);
+			//this should succeed, as it was optimized
+			c.getMethod("count", int.class).invoke(null, 10000000);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			if (jarfinder != null) {
+				jarfinder.close();
+			}
+		}
+	}
+
+}
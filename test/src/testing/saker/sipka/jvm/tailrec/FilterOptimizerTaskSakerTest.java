@@ -0,0 +1,56 @@
+package testing.saker.sipka.jvm.tailrec;
+
+import java.lang.reflect.InvocationTargetException;
+
+import saker.build.file.path.SakerPath;
+import saker.build.thirdparty.saker.util.classloader.ClassLoaderDataFinder;
+import saker.build.thirdparty.saker.util.classloader.MultiDataClassLoader;
+import saker.build.util.classloader.SakerPathClassLoaderDataFinder;
+import testing.saker.SakerTest;
+import testing.saker.nest.util.NestRepositoryCachingEnvironmentTestCase;
+
+/**
+ * Tests that the excluded classes are not optimized.
+ */
+@SakerTest
+public class FilterOptimizerTaskSakerTest extends NestRepositoryCachingEnvironmentTestCase {
+
+	@Override
+	protected void runNestTaskTestImpl() throws Throwable {
+		CombinedTargetTaskResult res = runScriptTask("build");
+		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+
+		res = runScriptTask("build");
+		assertEmpty(getMetric().getRunTaskIdResults());
+		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+	}
+
+	private void testOptimization(SakerPath outpath) throws Throwable {
+		ClassLoaderDataFinder finder = null;
+		try {
+			finder = new SakerPathClassLoaderDataFinder(files, outpath);
+			MultiDataClassLoader cl = new MultiDataClassLoader(finder);
+			//this should succeed, as it was optimized
+			invokeCount(Class.forName("test.Main", false, cl));
+			try {
+				invokeCount(Class.forName("test.lib.Counter", false, cl));
+				fail("no stackoverflow caught");
+			} catch (StackOverflowError e) {
+				//this is expected, as the class is excluded
+			}
+		} finally {
+			if (finder != null) {
+				finder.close();
+			}
+		}
+	}
+
+	private static void invokeCount(Class<?> c) throws Throwable {
+		try {
+			c.getMethod("count", int.class).invoke(null, 10000000);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package testing.saker.sipka.jvm.tailrec;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.NoSuchFileException;
+
+import saker.build.file.path.SakerPath;
+import saker.build.thirdparty.saker.util.classloader.ClassLoaderDataFinder;
+import saker.build.thirdparty.saker.util.classloader.MultiDataClassLoader;
+import saker.build.util.classloader.SakerPathClassLoaderDataFinder;
+import testing.saker.SakerTest;
+import testing.saker.nest.util.NestRepositoryCachingEnvironmentTestCase;
+
+@SakerTest
+public class IncrementalOptimizerTaskSakerTest extends NestRepositoryCachingEnvironmentTestCase {
+
+	@Override
+	protected void runNestTaskTestImpl() throws Throwable {
+		SakerPath otherjavapath = PATH_WORKING_DIRECTORY.resolve("src/test/Other.java");
+
+		CombinedTargetTaskResult res = runScriptTask("build");
+		final SakerPath outpath = (SakerPath) res.getTargetTaskResult("path");
+		SakerPath mainoutpath = outpath.resolve("test/Main.class");
+		testOptimization(outpath, "test.Main");
+		long mainmodification = files.getFileAttributes(mainoutpath).getLastModifiedMillis();
+
+		//add a new class, the output should contain it
+		files.putFile(otherjavapath, "package test; public class Other { public static void count(int n) { "
+				+ "if (n == 0) { return; } count(n - 1); } }");
+		res = runScriptTask("build");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		testOptimization(outpath, "test.Main");
+		testOptimization(outpath, "test.Other");
+		//only the added class is processed, the output of the unchanged class is not rewritten
+		assertEquals(files.getFileAttributes(mainoutpath).getLastModifiedMillis(), mainmodification);
+
+		res = runScriptTask("build");
+		assertEmpty(getMetric().getRunTaskIdResults());
+
+		//remove the class, it should be removed from the output as well
+		files.delete(otherjavapath);
+		res = runScriptTask("build");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		testOptimization(outpath, "test.Main");
+		assertEquals(files.getFileAttributes(mainoutpath).getLastModifiedMillis(), mainmodification);
+		assertException(NoSuchFileException.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				files.getFileAttributes(outpath.resolve("test/Other.class"));
+			}
+		});
+
+		//modifying the output should cause it to be recreated
+		files.putFile(mainoutpath, "modified");
+		res = runScriptTask("build");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		testOptimization(outpath, "test.Main");
+	}
+
+	private void testOptimization(SakerPath outpath, String classname) throws Throwable {
+		ClassLoaderDataFinder finder = null;
+		try {
+			finder = new SakerPathClassLoaderDataFinder(files, outpath);
+			MultiDataClassLoader cl = new MultiDataClassLoader(finder);
+			Class<?> c = Class.forName(classname, false, cl);
+			//this should succeed, as it was optimized
+			c.getMethod("count", int.class).invoke(null, 10000000);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			if (finder != null) {
+				finder.close();
+			}
+		}
+	}
+
+}
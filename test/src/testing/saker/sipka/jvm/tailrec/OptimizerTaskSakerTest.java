@@ -19,6 +19,7 @@ public class OptimizerTaskSakerTest extends NestRepositoryCachingEnvironmentTest
 		CombinedTargetTaskResult res = runScriptTask("build");
 
 		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+		assertEquals(res.getTargetTaskResult("optimizedmethods"), 1L);
 
 		res = runScriptTask("build");
 		assertEmpty(getMetric().getRunTaskIdResults());
@@ -40,6 +41,7 @@ public class OptimizerTaskSakerTest extends NestRepositoryCachingEnvironmentTest
 		} catch (StackOverflowError e) {
 			//this is expected
 		}
+		assertEquals(res.getTargetTaskResult("optimizedmethods"), 0L);
 	}
 
 	private void testOptimization(SakerPath outpath) throws Throwable {
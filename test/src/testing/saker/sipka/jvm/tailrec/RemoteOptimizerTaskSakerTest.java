@@ -0,0 +1,78 @@
+package testing.saker.sipka.jvm.tailrec;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
+import java.util.UUID;
+
+import saker.build.file.path.SakerPath;
+import saker.build.thirdparty.saker.util.ImmutableUtils;
+import saker.build.thirdparty.saker.util.classloader.ClassLoaderDataFinder;
+import saker.build.thirdparty.saker.util.classloader.MultiDataClassLoader;
+import saker.build.util.classloader.SakerPathClassLoaderDataFinder;
+import testing.saker.SakerTest;
+import testing.saker.build.tests.EnvironmentTestCaseConfiguration;
+import testing.saker.nest.util.NestRepositoryCachingEnvironmentTestCase;
+
+/**
+ * Tests the optimization when the worker task is dispatched to a build cluster.
+ */
+@SakerTest
+public class RemoteOptimizerTaskSakerTest extends NestRepositoryCachingEnvironmentTestCase {
+
+	@Override
+	protected Set<EnvironmentTestCaseConfiguration> getTestConfigurations() {
+		return EnvironmentTestCaseConfiguration.builder(super.getTestConfigurations())
+				.setClusterNames(ImmutableUtils.singletonSet("cluster")).build();
+	}
+
+	@Override
+	protected void runNestTaskTestImpl() throws Throwable {
+		SakerPath mainjavapath = PATH_WORKING_DIRECTORY.resolve("src/test/Main.java");
+		files.putFile(mainjavapath, files.getAllBytes(mainjavapath).toString().replace("\"BUILD_ID\"",
+				"\"" + UUID.randomUUID() + "\""));
+
+		assertOptimizedRemotely();
+
+		runScriptTask("build");
+		assertEmpty(getMetric().getRunTaskIdResults());
+
+		files.putFile(mainjavapath, files.getAllBytes(mainjavapath).toString().replace("n - 1", "n - 2"));
+		assertOptimizedRemotely();
+	}
+
+	/**
+	 * Checks that the worker task is dispatched to the cluster.
+	 * <p>
+	 * The input is optimized locally first, which stores the results in the cache of the local environment. The
+	 * cluster has its own environment, so the results must not be retrieved from the cache when the optimization is
+	 * performed there.
+	 */
+	private void assertOptimizedRemotely() throws Throwable {
+		CombinedTargetTaskResult res = runScriptTask("local");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		assertEquals(res.getTargetTaskResult("cachedclasses"), 0L);
+
+		res = runScriptTask("build");
+		assertNotEmpty(getMetric().getRunTaskIdResults());
+		testOptimization((SakerPath) res.getTargetTaskResult("path"));
+		assertEquals(res.getTargetTaskResult("cachedclasses"), 0L);
+	}
+
+	private void testOptimization(SakerPath outpath) throws Throwable {
+		ClassLoaderDataFinder finder = null;
+		try {
+			finder = new SakerPathClassLoaderDataFinder(files, outpath);
+			MultiDataClassLoader cl = new MultiDataClassLoader(finder);
+			Class<?> c = Class.forName("test.Main", false, cl);
+			//this should succeed, as it was optimized
+			c.getMethod("count", int.class).invoke(null, 10000000);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			if (finder != null) {
+				finder.close();
+			}
+		}
+	}
+
+}
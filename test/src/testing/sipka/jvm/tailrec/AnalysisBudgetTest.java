@@ -0,0 +1,182 @@
+package testing.sipka.jvm.tailrec;
+
+import java.util.List;
+import java.util.Map;
+
+import sipka.jvm.tailrec.AnalysisBudget;
+import sipka.jvm.tailrec.ClassOptimizationResult;
+import sipka.jvm.tailrec.MethodOptimizationResult;
+import sipka.jvm.tailrec.OptimizationStatistics;
+import sipka.jvm.tailrec.RejectedCall;
+import sipka.jvm.tailrec.RejectionReason;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the methods which exceed the analysis budget are left unchanged, and that the class budget is shared
+ * between the methods.
+ */
+@SakerTest
+public class AnalysisBudgetTest extends TailRecOptimizerTestCase {
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		byte[] classbytes = getClassBytesUsingClassLoader(TestMethods.class);
+
+		ClassOptimizationResult defaultresult = TailRecursionOptimizer.optimizeClass(classbytes, 0,
+				classbytes.length);
+		assertEquals(defaultresult.getOptimizedMethodCount(), 2);
+		assertEquals(defaultresult.getBudgetExceededMethodCount(), 0);
+
+		//each method is given up
+		AnalysisBudget methodbudget = AnalysisBudget.create(1, Long.MAX_VALUE);
+		ClassOptimizationResult exceededresult = TailRecursionOptimizer.optimizeClass(classbytes, 0,
+				classbytes.length, true, methodbudget);
+		assertFalse(exceededresult.isOptimized());
+		assertNull(exceededresult.getOptimizedBytes());
+		assertEquals(exceededresult.getBudgetExceededMethodCount(), 2);
+		for (MethodOptimizationResult method : exceededresult.getMethods()) {
+			assertTrue(method.isBudgetExceeded());
+			assertEquals(method.getSelfCallCount(), 1);
+			List<RejectedCall> rejectedcalls = method.getRejectedCalls();
+			assertEquals(rejectedcalls.size(), 1);
+			assertEquals(rejectedcalls.get(0).getReason(), RejectionReason.BUDGET_EXCEEDED);
+		}
+
+		OptimizationStatistics statistics = new OptimizationStatistics();
+		assertNull(TailRecursionOptimizer.tryOptimizeMethods(classbytes, 0, classbytes.length, statistics,
+				methodbudget));
+		assertEquals(statistics.getBudgetExceededMethodCount(), 2L);
+		assertEquals(statistics.getOptimizedMethodCount(), 0L);
+
+		//find the smallest budget that is enough for the first method
+		//    the second method is the same, so the remaining class budget is not enough for it
+		long limit = 1;
+		while (!TailRecursionOptimizer.scanClass(classbytes, 0, classbytes.length, false,
+				AnalysisBudget.create(limit, Long.MAX_VALUE)).isOptimized()) {
+			++limit;
+		}
+		ClassOptimizationResult classbudgetresult = TailRecursionOptimizer.optimizeClass(classbytes, 0,
+				classbytes.length, false, AnalysisBudget.create(limit, limit));
+		assertTrue(classbudgetresult.isOptimized());
+		List<MethodOptimizationResult> methods = classbudgetresult.getMethods();
+		assertEquals(methods.size(), 2);
+		assertEquals(methods.get(0).getName(), "count");
+		assertTrue(methods.get(0).isOptimized());
+		assertEquals(methods.get(1).getName(), "countAgain");
+		assertFalse(methods.get(1).isOptimized());
+		assertTrue(methods.get(1).isBudgetExceeded());
+
+		//the first method is not stack overflowed, the second one still is
+		final Class<?> optimizedclass = definingClassLoader.defineUserClass(TestMethods.class.getName(),
+				classbudgetresult.getOptimizedBytes());
+		optimizedclass.getMethod("count", int.class).invoke(null, 10000000);
+		assertInvocationException(StackOverflowError.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				optimizedclass.getMethod("countAgain", int.class).invoke(null, 10000000);
+			}
+		});
+
+		//a method that is rejected based on its size doesn't use up the class budget
+		byte[] largebytes = getClassBytesUsingClassLoader(LargeFirstTestMethods.class);
+		long smalllimit = 1;
+		while (!TailRecursionOptimizer.scanClass(largebytes, 0, largebytes.length, false,
+				AnalysisBudget.create(smalllimit, Long.MAX_VALUE)).isOptimized()) {
+			++smalllimit;
+		}
+		ClassOptimizationResult largeresult = TailRecursionOptimizer.scanClass(largebytes, 0, largebytes.length,
+				false, AnalysisBudget.create(smalllimit, smalllimit));
+		List<MethodOptimizationResult> largemethods = largeresult.getMethods();
+		assertEquals(largemethods.size(), 2);
+		assertEquals(largemethods.get(0).getName(), "largeCount");
+		assertTrue(largemethods.get(0).isBudgetExceeded());
+		assertEquals(largemethods.get(1).getName(), "count");
+		assertTrue(largemethods.get(1).isOptimized());
+
+		assertException(IllegalArgumentException.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				AnalysisBudget.create(-1, 0);
+			}
+		});
+		assertIdentityEquals(AnalysisBudget.create(AnalysisBudget.DEFAULT_METHOD_VISIT_LIMIT,
+				AnalysisBudget.DEFAULT_CLASS_VISIT_LIMIT), AnalysisBudget.DEFAULT);
+	}
+
+	public static class TestMethods {
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+
+		public static void countAgain(int n) {
+			if (n == 0) {
+				return;
+			}
+			countAgain(n - 1);
+		}
+	}
+
+	public static class LargeFirstTestMethods {
+		public static void largeCount(int n) {
+			if (n == 0) {
+				return;
+			}
+			int a = n;
+			a = a * 3 + 1;
+			a = a * 3 + 2;
+			a = a * 3 + 3;
+			a = a * 3 + 4;
+			a = a * 3 + 5;
+			a = a * 3 + 6;
+			a = a * 3 + 7;
+			a = a * 3 + 8;
+			a = a * 3 + 9;
+			a = a * 3 + 10;
+			a = a * 3 + 11;
+			a = a * 3 + 12;
+			a = a * 3 + 13;
+			a = a * 3 + 14;
+			a = a * 3 + 15;
+			a = a * 3 + 16;
+			a = a * 3 + 17;
+			a = a * 3 + 18;
+			a = a * 3 + 19;
+			a = a * 3 + 20;
+			a = a * 3 + 21;
+			a = a * 3 + 22;
+			a = a * 3 + 23;
+			a = a * 3 + 24;
+			a = a * 3 + 25;
+			a = a * 3 + 26;
+			a = a * 3 + 27;
+			a = a * 3 + 28;
+			a = a * 3 + 29;
+			a = a * 3 + 30;
+			a = a * 3 + 31;
+			a = a * 3 + 32;
+			a = a * 3 + 33;
+			a = a * 3 + 34;
+			a = a * 3 + 35;
+			a = a * 3 + 36;
+			a = a * 3 + 37;
+			a = a * 3 + 38;
+			a = a * 3 + 39;
+			a = a * 3 + 40;
+			if (a == 0) {
+				return;
+			}
+			largeCount(n - 1);
+		}
+
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package testing.sipka.jvm.tailrec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sipka.jvm.tailrec.ClassOptimizationResult;
+import sipka.jvm.tailrec.MethodOptimizationResult;
+import sipka.jvm.tailrec.RejectedCall;
+import sipka.jvm.tailrec.RejectionReason;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the self-calls which are not optimized are reported with the appropriate reasons and locations when
+ * explaining is requested.
+ */
+@SakerTest
+public class ExplainTest extends TailRecOptimizerTestCase {
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		byte[] classbytes = getClassBytesUsingClassLoader(TestMethods.class);
+
+		ClassOptimizationResult result = TailRecursionOptimizer.scanClass(classbytes, 0, classbytes.length, true);
+		assertEquals(result.getSourceFile(), "ExplainTest.java");
+		Map<String, MethodOptimizationResult> methods = getMethodsByName(result);
+
+		assertEmpty(methods.get("count").getRejectedCalls());
+		assertTrue(methods.get("count").isOptimized());
+
+		assertBlockedOnNextLine(methods.get("arrayStore"), RejectionReason.ARRAY_STORE);
+		assertBlockedOnNextLine(methods.get("fieldStore"), RejectionReason.FIELD_STORE);
+		assertBlockedOnNextLine(methods.get("methodCall"), RejectionReason.METHOD_CALL);
+
+		RejectedCall modifiedcall = getSingleRejectedCall(methods.get("modified"));
+		assertEquals(modifiedcall.getReason(), RejectionReason.RESULT_NOT_RETURNED);
+		assertTrue(modifiedcall.getBlockingOffset() > modifiedcall.getOffset());
+
+		RejectedCall throwercall = getSingleRejectedCall(methods.get("thrower"));
+		assertEquals(throwercall.getReason(), RejectionReason.THROW);
+		assertEquals(throwercall.getBlockingLine(), throwercall.getLine() + 2);
+
+		RejectedCall trycatchcall = getSingleRejectedCall(methods.get("tryCatch"));
+		assertEquals(trycatchcall.getReason(), RejectionReason.TRY_CATCH);
+		assertTrue(trycatchcall.getOffset() > 0);
+		assertEquals(trycatchcall.getBlockingOffset(), -1);
+
+		RejectedCall synchronizedcall = getSingleRejectedCall(methods.get("synchronizedBlock"));
+		assertEquals(synchronizedcall.getReason(), RejectionReason.MONITOR);
+
+		RejectedCall virtualcall = getSingleRejectedCall(methods.get("virtual"));
+		assertEquals(virtualcall.getReason(), RejectionReason.NON_OPTIMIZABLE_METHOD);
+		assertEquals(virtualcall.getBlockingOffset(), -1);
+		assertTrue(virtualcall.getLine() > 0);
+
+		//the optimized class is the same regardless of explaining
+		ClassOptimizationResult optimizedresult = TailRecursionOptimizer.optimizeClass(classbytes, 0,
+				classbytes.length, true);
+		ClassOptimizationResult plainresult = TailRecursionOptimizer.optimizeClass(classbytes, 0, classbytes.length);
+		assertTrue(Arrays.equals(optimizedresult.getOptimizedBytes(), plainresult.getOptimizedBytes()));
+		assertEquals(getSingleRejectedCall(getMethodsByName(optimizedresult).get("arrayStore")).getOffset(),
+				getSingleRejectedCall(methods.get("arrayStore")).getOffset());
+
+		//nothing is recorded if not explaining
+		for (MethodOptimizationResult method : plainresult.getMethods()) {
+			assertEmpty(method.getRejectedCalls());
+		}
+		assertNull(getMethodsByName(plainresult).get("virtual"));
+	}
+
+	private static void assertBlockedOnNextLine(MethodOptimizationResult method, RejectionReason reason) {
+		RejectedCall call = getSingleRejectedCall(method);
+		assertEquals(call.getReason(), reason);
+		assertTrue(call.getOffset() > 0);
+		assertTrue(call.getBlockingOffset() > call.getOffset());
+		assertTrue(call.getLine() > 0);
+		assertEquals(call.getBlockingLine(), call.getLine() + 1);
+	}
+
+	private static RejectedCall getSingleRejectedCall(MethodOptimizationResult method) {
+		assertFalse(method.isOptimized());
+		List<RejectedCall> calls = method.getRejectedCalls();
+		assertEquals(calls.size(), 1);
+		return calls.get(0);
+	}
+
+	private static Map<String, MethodOptimizationResult> getMethodsByName(ClassOptimizationResult result) {
+		Map<String, MethodOptimizationResult> methods = new HashMap<String, MethodOptimizationResult>();
+		for (MethodOptimizationResult method : result.getMethods()) {
+			methods.put(method.getName(), method);
+		}
+		return methods;
+	}
+
+	public static class TestMethods {
+		private static int[] array = new int[1];
+		private static int field;
+
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+
+		public static int arrayStore(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			int r = arrayStore(n - 1);
+			array[0] = r;
+			return r;
+		}
+
+		public static int fieldStore(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			int r = fieldStore(n - 1);
+			field = r;
+			return r;
+		}
+
+		public static int methodCall(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			int r = methodCall(n - 1);
+			System.out.println(r);
+			return r;
+		}
+
+		public static int modified(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			return modified(n - 1) + 1;
+		}
+
+		public static int thrower(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			int r = thrower(n - 1);
+			if (r > 100) {
+				throw new IllegalStateException();
+			}
+			return r;
+		}
+
+		public static int tryCatch(int n) {
+			try {
+				if (n == 0) {
+					return 0;
+				}
+				return tryCatch(n - 1);
+			} catch (RuntimeException e) {
+				return -1;
+			}
+		}
+
+		public static int synchronizedBlock(int n, Object lock) {
+			if (n == 0) {
+				return 0;
+			}
+			synchronized (lock) {
+				return synchronizedBlock(n - 1, lock);
+			}
+		}
+
+		public int virtual(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			return virtual(n - 1);
+		}
+	}
+}
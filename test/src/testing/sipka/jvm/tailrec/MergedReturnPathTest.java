@@ -0,0 +1,44 @@
+package testing.sipka.jvm.tailrec;
+
+import java.util.Map;
+
+import testing.saker.SakerTest;
+
+/**
+ * Tests that paths which merge into an already visited part of the return path are still checked.
+ */
+@SakerTest
+public class MergedReturnPathTest extends TailRecOptimizerTestCase {
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		assertOptimizationResultEquals(TestMethods.class.getMethod("orFallback", int.class), 3);
+		assertOptimizationResultEquals(TestMethods.class.getMethod("countCallsInLoop", int.class), 3);
+	}
+
+	public static class TestMethods {
+		public static final Object FALLBACK = "fallback";
+
+		public static Object orFallback(int n) {
+			if (n == 0) {
+				return null;
+			}
+			Object r = orFallback(n - 1);
+			return r == null ? FALLBACK : r;
+		}
+
+		public static int countCallsInLoop(int n) {
+			int[] counter = { 0 };
+			countCalls(n, counter);
+			return counter[0];
+		}
+
+		public static void countCalls(int n, int[] counter) {
+			counter[0]++;
+			for (int i = 0; i < n; i++) {
+				if (counter != null) {
+					countCalls(n - 1, counter);
+				}
+			}
+		}
+	}
+}
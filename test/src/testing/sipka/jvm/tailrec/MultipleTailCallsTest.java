@@ -0,0 +1,36 @@
+package testing.sipka.jvm.tailrec;
+
+import java.util.Map;
+
+import testing.saker.SakerTest;
+
+@SakerTest
+public class MultipleTailCallsTest extends TailRecOptimizerTestCase {
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		assertSuccessfulOptimization(TestMethods.class.getMethod("count", int.class), 10000000);
+		assertSuccessfulOptimization(TestMethods.class.getMethod("count", long.class), 10000000);
+	}
+
+	public static class TestMethods {
+		public static int count(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			if ((n & 1) == 0) {
+				return count(n - 1);
+			}
+			return count(n - 1);
+		}
+
+		public static long count(long n) {
+			if (n == 0) {
+				return 0;
+			}
+			if ((n & 1) == 0) {
+				return count(n - 1);
+			}
+			return count(n - 1);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package testing.sipka.jvm.tailrec;
+
+import java.util.List;
+import java.util.Map;
+
+import sipka.jvm.tailrec.ClassOptimizationResult;
+import sipka.jvm.tailrec.MethodOptimizationResult;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+import testing.saker.SakerTest;
+
+/**
+ * Tests the per-method records of the optimization results, and that scanning a class gives the same results without
+ * the optimized bytes.
+ */
+@SakerTest
+public class OptimizationResultTest extends TailRecOptimizerTestCase {
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		byte[] classbytes = getClassBytesUsingClassLoader(TestMethods.class);
+
+		ClassOptimizationResult result = TailRecursionOptimizer.optimizeClass(classbytes, 0, classbytes.length);
+		assertEquals(result.getClassName(), TestMethods.class.getName());
+		assertTrue(result.isOptimized());
+		assertNonNull(result.getOptimizedBytes());
+		assertEquals(result.getInputLength(), classbytes.length);
+		assertEquals(result.getOutputLength(), result.getOptimizedBytes().length);
+		assertMethodResults(result);
+		assertEquals(result.getOptimizedMethodCount(), 1);
+		assertEquals(result.getOptimizedCallCount(), 1);
+		assertTrue(result.getParseNanos() >= 0);
+		assertTrue(result.getWriteNanos() > 0);
+
+		//doesn't overflow
+		definingClassLoader.defineUserClass(TestMethods.class.getName(), result.getOptimizedBytes())
+				.getMethod("count", int.class).invoke(null, 10000000);
+
+		ClassOptimizationResult scanresult = TailRecursionOptimizer.scanClass(classbytes, 0, classbytes.length);
+		assertTrue(scanresult.isOptimized());
+		assertNull(scanresult.getOptimizedBytes());
+		assertEquals(scanresult.getOutputLength(), classbytes.length);
+		assertEquals(scanresult.getWriteNanos(), 0L);
+		assertMethodResults(scanresult);
+
+		//the optimized class no longer has self-calls
+		byte[] optimizedbytes = result.getOptimizedBytes();
+		ClassOptimizationResult reoptimizedresult = TailRecursionOptimizer.optimizeClass(optimizedbytes, 0,
+				optimizedbytes.length);
+		assertFalse(reoptimizedresult.isOptimized());
+		assertNull(reoptimizedresult.getOptimizedBytes());
+		assertEquals(reoptimizedresult.getMethods().size(), 1);
+		assertEquals(reoptimizedresult.getMethods().get(0).getName(), "notTail");
+	}
+
+	private static void assertMethodResults(ClassOptimizationResult result) {
+		List<MethodOptimizationResult> methods = result.getMethods();
+		assertEquals(methods.size(), 2);
+
+		MethodOptimizationResult count = methods.get(0);
+		assertEquals(count.getName(), "count");
+		assertEquals(count.getDescriptor(), "(I)V");
+		assertTrue(count.isOptimized());
+		assertEquals(count.getSelfCallCount(), 1);
+		assertEquals(count.getOptimizedCallCount(), 1);
+
+		MethodOptimizationResult nottail = methods.get(1);
+		assertEquals(nottail.getName(), "notTail");
+		assertEquals(nottail.getDescriptor(), "(I)I");
+		assertFalse(nottail.isOptimized());
+		assertEquals(nottail.getSelfCallCount(), 2);
+		assertEquals(nottail.getOptimizedCallCount(), 0);
+	}
+
+	public static class TestMethods {
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+
+		public static int notTail(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			return notTail(n - 1) + notTail(n - 2);
+		}
+
+		public static int noSelfCall(int n) {
+			return n;
+		}
+
+		public static int callsNotTail(int n) {
+			return notTail(n);
+		}
+	}
+}
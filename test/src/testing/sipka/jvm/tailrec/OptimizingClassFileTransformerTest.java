@@ -0,0 +1,125 @@
+package testing.sipka.jvm.tailrec;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import sipka.jvm.tailrec.AnalysisBudget;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.agent.OptimizingClassFileTransformer;
+import sipka.jvm.tailrec.agent.TailRecursionAgent;
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the agent transformer optimizes the loaded classes, skips the ones that shouldn't be transformed, and
+ * counts them.
+ */
+@SakerTest
+public class OptimizingClassFileTransformerTest extends TailRecOptimizerTestCase {
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		byte[] classbytes = getClassBytesUsingClassLoader(TestMethods.class);
+		String internalname = TestMethods.class.getName().replace('.', '/');
+		ClassLoader loader = definingClassLoader;
+
+		OptimizingClassFileTransformer transformer = new OptimizingClassFileTransformer();
+		final byte[] optimizedbytes = transformer.transform(loader, internalname, null, null, classbytes);
+		assertNonNull(optimizedbytes);
+		assertEquals(transformer.getSeenClassCount(), 1L);
+		assertEquals(transformer.getTransformedClassCount(), 1L);
+		assertEquals(transformer.getOptimizedMethodCount(), 1L);
+		assertEquals(transformer.getSkippedClassCount(), 0L);
+		assertEquals(transformer.getFailedClassCount(), 0L);
+		assertTrue(transformer.getTransformNanos() > 0);
+
+		Class<?> optimizedclass = definingClassLoader.defineUserClass(TestMethods.class.getName(), optimizedbytes);
+		optimizedclass.getMethod("count", int.class).invoke(null, 10000000);
+
+		//not parsed as it doesn't call itself
+		byte[] nocallbytes = getClassBytesUsingClassLoader(NoSelfCalls.class);
+		assertNull(transformer.transform(loader, NoSelfCalls.class.getName().replace('.', '/'), null, null,
+				nocallbytes));
+		assertEquals(transformer.getSeenClassCount(), 2L);
+		assertEquals(transformer.getParsedClassCount(), 1L);
+		assertEquals(transformer.getTransformedClassCount(), 1L);
+
+		//bootstrap, redefined, and optimizer classes are skipped
+		assertNull(transformer.transform(null, internalname, null, null, classbytes));
+		assertNull(transformer.transform(loader, "sipka/jvm/tailrec/Example", null, null, classbytes));
+		assertNull(transformer.transform(loader, internalname, TestMethods.class, null, classbytes));
+		assertEquals(transformer.getSkippedClassCount(), 2L);
+		assertEquals(transformer.getTransformedClassCount(), 1L);
+
+		//excluded by the filter
+		OptimizingClassFileTransformer filteredtransformer = new OptimizingClassFileTransformer(
+				ClassFilter.create(null, Collections.singleton(TestMethods.class.getName())), null,
+				AnalysisBudget.DEFAULT);
+		assertNull(filteredtransformer.transform(loader, internalname, null, null, classbytes));
+		assertEquals(filteredtransformer.getSkippedClassCount(), 1L);
+
+		//failures are counted, and the class is loaded unchanged
+		byte[] corruptbytes = classbytes.clone();
+		for (int i = 10; i < corruptbytes.length; i++) {
+			corruptbytes[i] = (byte) 0xFF;
+		}
+		assertNull(transformer.transform(loader, internalname, null, null, corruptbytes));
+		assertEquals(transformer.getFailedClassCount(), 1L);
+
+		final List<ClassFileTransformer> addedtransformers = new ArrayList<ClassFileTransformer>();
+		Instrumentation inst = (Instrumentation) Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+				new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("addTransformer")) {
+							addedtransformers.add((ClassFileTransformer) args[0]);
+							return null;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		OptimizingClassFileTransformer installed = TailRecursionAgent.install(
+				"include=" + TailRecOptimizerTestCase.class.getPackage().getName() + ".**,jmx=false,method-visit-limit=1",
+				inst);
+		assertEquals(addedtransformers.size(), 1);
+		assertIdentityEquals(addedtransformers.get(0), installed);
+		//the method budget is exceeded
+		assertNull(installed.transform(loader, internalname, null, null, classbytes));
+		assertEquals(installed.getBudgetExceededMethodCount(), 1L);
+
+		assertException(IllegalArgumentException.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				TailRecursionAgent.install("unknown=value", null);
+			}
+		});
+		assertException(IllegalArgumentException.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				TailRecursionAgent.install("class-visit-limit=many", null);
+			}
+		});
+		assertEquals(addedtransformers.size(), 1);
+	}
+
+	public static class TestMethods {
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+	}
+
+	public static class NoSelfCalls {
+		public static int twice(int n) {
+			return n * 2;
+		}
+	}
+}
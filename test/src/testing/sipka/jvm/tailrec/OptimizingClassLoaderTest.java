@@ -0,0 +1,234 @@
+package testing.sipka.jvm.tailrec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import sipka.jvm.tailrec.AnalysisBudget;
+import sipka.jvm.tailrec.ClassFilter;
+import sipka.jvm.tailrec.OptimizationCache;
+import sipka.jvm.tailrec.OptimizationStatistics;
+import sipka.jvm.tailrec.OptimizingClassLoader;
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the optimizing class loader defines the optimized classes from JARs and directories, and that the loaders
+ * can share a cache.
+ */
+@SakerTest
+public class OptimizingClassLoaderTest extends TailRecOptimizerTestCase {
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		String classname = TestMethods.class.getName();
+		String resourcepath = classname.replace('.', '/') + ".class";
+		byte[] classbytes = getClassBytesUsingClassLoader(TestMethods.class);
+		String otherclassname = OtherMethods.class.getName();
+		String otherresourcepath = otherclassname.replace('.', '/') + ".class";
+		String recursiveclassname = RecursiveMethods.class.getName();
+		String recursiveresourcepath = recursiveclassname.replace('.', '/') + ".class";
+
+		File jarfile = File.createTempFile("tailrec-loader", ".jar");
+		jarfile.deleteOnExit();
+		JarOutputStream jaros = new JarOutputStream(new FileOutputStream(jarfile));
+		try {
+			jaros.putNextEntry(new JarEntry(resourcepath));
+			jaros.write(classbytes);
+			jaros.closeEntry();
+			jaros.putNextEntry(new JarEntry(otherresourcepath));
+			jaros.write(getClassBytesUsingClassLoader(OtherMethods.class));
+			jaros.closeEntry();
+			jaros.putNextEntry(new JarEntry(recursiveresourcepath));
+			jaros.write(getClassBytesUsingClassLoader(RecursiveMethods.class));
+			jaros.closeEntry();
+		} finally {
+			jaros.close();
+		}
+		URL[] jarurls = { jarfile.toURI().toURL() };
+
+		OptimizationCache cache = OptimizationCache.createInMemory();
+		final OptimizingClassLoader loader = new OptimizingClassLoader(jarurls, null, ClassFilter.ALL, cache,
+				AnalysisBudget.DEFAULT);
+		try {
+			Class<?> c = Class.forName(classname, false, loader);
+			assertIdentityEquals(c.getClassLoader(), loader);
+			assertEquals(c.getPackage().getName(), TestMethods.class.getPackage().getName());
+			assertEquals(c.getProtectionDomain().getCodeSource().getLocation(), jarurls[0]);
+			assertNoStackOverflow(c);
+			assertEquals(loader.getStatistics().getOptimizedClassCount(), 1L);
+			assertEquals(loader.getStatistics().getCachedClassCount(), 0L);
+			assertEquals(loader.getFailedClassCount(), 0L);
+
+			assertException(ClassNotFoundException.class, new ExceptionAssertion() {
+				@Override
+				public void run() throws Throwable {
+					Class.forName("testing.sipka.jvm.tailrec.NonExistent", false, loader);
+				}
+			});
+		} finally {
+			loader.close();
+		}
+
+		//the second loader uses the result of the first one
+		OptimizingClassLoader cachedloader = new OptimizingClassLoader(jarurls, null, ClassFilter.ALL, cache,
+				AnalysisBudget.DEFAULT);
+		try {
+			assertNoStackOverflow(Class.forName(classname, false, cachedloader));
+			assertEquals(cachedloader.getStatistics().getCachedClassCount(), 1L);
+			assertEquals(cachedloader.getStatistics().getOptimizedClassCount(), 1L);
+		} finally {
+			cachedloader.close();
+		}
+
+		//excluded classes are loaded unchanged
+		OptimizingClassLoader excludingloader = new OptimizingClassLoader(jarurls, null,
+				ClassFilter.create(null, Collections.singleton(classname)), null, AnalysisBudget.DEFAULT);
+		try {
+			final Method countmethod = Class.forName(classname, false, excludingloader).getMethod("count", int.class);
+			assertInvocationException(StackOverflowError.class, new ExceptionAssertion() {
+				@Override
+				public void run() throws Throwable {
+					countmethod.invoke(null, 10000000);
+				}
+			});
+			assertEquals(excludingloader.getStatistics().getClassCount(), 0L);
+		} finally {
+			excludingloader.close();
+		}
+
+		assertConcurrentLoaders(jarurls, cache, classname, otherclassname);
+
+		assertMemoryCacheEviction(jarurls, classname, recursiveclassname);
+
+		//class directory
+		File classdir = new File(jarfile.getPath() + ".dir");
+		File classfile = new File(classdir, resourcepath);
+		classfile.getParentFile().mkdirs();
+		FileOutputStream fos = new FileOutputStream(classfile);
+		try {
+			fos.write(classbytes);
+		} finally {
+			fos.close();
+		}
+		URL[] dirurls = { classdir.toURI().toURL() };
+		OptimizingClassLoader dirloader = new OptimizingClassLoader(dirurls, null);
+		try {
+			Class<?> c = Class.forName(classname, false, dirloader);
+			assertEquals(c.getProtectionDomain().getCodeSource().getLocation(), dirurls[0]);
+			assertNoStackOverflow(c);
+		} finally {
+			dirloader.close();
+			for (File f = classfile; f != null && !f.equals(classdir.getParentFile()); f = f.getParentFile()) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Loads the classes from the same jar with multiple class loaders concurrently, and closes them while the others
+	 * are still loading.
+	 */
+	private static void assertConcurrentLoaders(final URL[] jarurls, final OptimizationCache cache,
+			final String... classnames) throws Throwable {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int c = 0; c < 300 && failure.get() == null; c++) {
+							OptimizingClassLoader loader = new OptimizingClassLoader(jarurls, null, ClassFilter.ALL,
+									cache, AnalysisBudget.DEFAULT);
+							try {
+								for (String cname : classnames) {
+									assertIdentityEquals(Class.forName(cname, false, loader).getClassLoader(),
+											loader);
+								}
+							} finally {
+								loader.close();
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	/**
+	 * Loads the classes with a cache that can hold only one of them, and checks that the least recently used one is
+	 * evicted.
+	 */
+	private static void assertMemoryCacheEviction(URL[] jarurls, String classname, String otherclassname)
+			throws Throwable {
+		assertException(IllegalArgumentException.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				OptimizationCache.createInMemory(0);
+			}
+		});
+		OptimizationCache cache = OptimizationCache.createInMemory(1);
+		assertEquals(loadWithCache(jarurls, cache, classname).getCachedClassCount(), 0L);
+		assertEquals(loadWithCache(jarurls, cache, classname).getCachedClassCount(), 1L);
+		//evicts the first class
+		assertEquals(loadWithCache(jarurls, cache, otherclassname).getCachedClassCount(), 0L);
+		assertEquals(loadWithCache(jarurls, cache, classname).getCachedClassCount(), 0L);
+		assertEquals(loadWithCache(jarurls, cache, otherclassname).getCachedClassCount(), 0L);
+	}
+
+	private static OptimizationStatistics loadWithCache(URL[] jarurls, OptimizationCache cache, String classname)
+			throws Exception {
+		OptimizingClassLoader loader = new OptimizingClassLoader(jarurls, null, ClassFilter.ALL, cache,
+				AnalysisBudget.DEFAULT);
+		try {
+			assertNoStackOverflow(Class.forName(classname, false, loader));
+			assertEquals(loader.getStatistics().getOptimizedClassCount(), 1L);
+			return loader.getStatistics();
+		} finally {
+			loader.close();
+		}
+	}
+
+	private static void assertNoStackOverflow(Class<?> c) throws Exception {
+		c.getMethod("count", int.class).invoke(null, 10000000);
+	}
+
+	public static class TestMethods {
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+	}
+
+	public static class RecursiveMethods {
+		public static void count(int n) {
+			if (n == 0) {
+				return;
+			}
+			count(n - 1);
+		}
+	}
+
+	public static class OtherMethods {
+		public static int twice(int n) {
+			return n * 2;
+		}
+	}
+}
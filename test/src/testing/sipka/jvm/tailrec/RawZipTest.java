@@ -0,0 +1,274 @@
+package testing.sipka.jvm.tailrec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import sipka.jvm.tailrec.RawZipInput;
+import sipka.jvm.tailrec.RawZipOutput;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Tests that the archives copied and rewritten with {@link RawZipInput} and {@link RawZipOutput} can be read by the
+ * JDK, and that the unsupported archives are rejected.
+ */
+@SakerTest
+public class RawZipTest extends SakerTestCase {
+	private static final byte[] ARCHIVE_COMMENT = "archive comment".getBytes();
+	/**
+	 * The JAR marker extra field.
+	 */
+	private static final byte[] EXTRA_FIELD = { (byte) 0xFE, (byte) 0xCA, 0, 0 };
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+		contents.put("dir/", new byte[0]);
+		contents.put("dir/stored.txt", "stored contents".getBytes());
+		contents.put("dir/deflated.txt", repeat("deflated contents ", 100));
+		contents.put("extra.txt", repeat("extra field ", 50));
+		contents.put("empty.txt", new byte[0]);
+		contents.put("last.txt", repeat("last ", 20));
+
+		File input = createTempFile();
+		writeArchive(input, contents);
+
+		//copy every entry as is
+		File copied = createTempFile();
+		roundTrip(input, copied, Collections.<String, byte[]> emptyMap());
+		assertArchiveContents(copied, contents);
+
+		//rewrite some entries, including the first stored and data descriptor entries, moving the ones after them
+		Map<String, byte[]> rewritten = new LinkedHashMap<String, byte[]>();
+		rewritten.put("dir/stored.txt", repeat("rewritten stored ", 10));
+		rewritten.put("dir/deflated.txt", "shorter".getBytes());
+		rewritten.put("extra.txt", repeat("rewritten extra ", 30));
+		File output = createTempFile();
+		roundTrip(input, output, rewritten);
+		Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>(contents);
+		expected.putAll(rewritten);
+		assertArchiveContents(output, expected);
+
+		//the rewritten archive has no data descriptors, copying it results in the same bytes
+		File recopied = createTempFile();
+		roundTrip(output, recopied, Collections.<String, byte[]> emptyMap());
+		assertTrue(Arrays.equals(readFile(recopied), readFile(output)));
+
+		assertUnsupportedArchives(contents);
+		assertTooManyEntries(input);
+	}
+
+	private static void roundTrip(File input, File output, Map<String, byte[]> rewritten) throws IOException {
+		RawZipInput zipin = RawZipInput.open(input.toPath());
+		assertNonNull(zipin);
+		try {
+			RawZipOutput zipout = new RawZipOutput(output.toPath());
+			try {
+				for (RawZipInput.Entry entry : zipin.getEntries()) {
+					byte[] newcontents = rewritten.get(entry.getName());
+					if (newcontents == null) {
+						zipout.copyRaw(zipin, entry);
+					} else {
+						zipout.writeDeflated(zipin, entry, newcontents);
+					}
+				}
+				assertTrue(zipout.finish(zipin.getComment()));
+			} finally {
+				zipout.close();
+			}
+		} finally {
+			zipin.close();
+		}
+	}
+
+	private static void assertArchiveContents(File archive, Map<String, byte[]> expected) throws IOException {
+		List<String> names = new ArrayList<String>();
+		ZipFile zf = new ZipFile(archive);
+		try {
+			assertEquals(zf.getComment(), new String(ARCHIVE_COMMENT));
+			for (ZipEntry entry : Collections.list(zf.entries())) {
+				names.add(entry.getName());
+				byte[] bytes = expected.get(entry.getName());
+				assertNonNull(bytes);
+				assertEquals(entry.getSize(), (long) bytes.length);
+				assertEquals(entry.getCrc(), crc(bytes));
+				InputStream in = zf.getInputStream(entry);
+				try {
+					assertTrue(Arrays.equals(readFully(in), bytes), entry.getName());
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zf.close();
+		}
+		assertEquals(names, new ArrayList<String>(expected.keySet()));
+
+		RawZipInput zipin = RawZipInput.open(archive.toPath());
+		try {
+			assertTrue(Arrays.equals(zipin.getComment(), ARCHIVE_COMMENT));
+			for (RawZipInput.Entry entry : zipin.getEntries()) {
+				byte[] bytes = expected.get(entry.getName());
+				assertEquals(entry.getCrc(), crc(bytes));
+				assertTrue(Arrays.equals(zipin.readContents(entry), bytes), entry.getName());
+			}
+		} finally {
+			zipin.close();
+		}
+
+		//the local headers are checked by the stream
+		names.clear();
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(archive));
+		try {
+			for (ZipEntry entry; (entry = zis.getNextEntry()) != null;) {
+				names.add(entry.getName());
+				assertTrue(Arrays.equals(readFully(zis), expected.get(entry.getName())), entry.getName());
+			}
+		} finally {
+			zis.close();
+		}
+		assertEquals(names, new ArrayList<String>(expected.keySet()));
+	}
+
+	private static void assertUnsupportedArchives(Map<String, byte[]> contents) throws IOException {
+		//ZIP64 due to the number of entries
+		File zip64 = createTempFile();
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip64));
+		try {
+			for (int i = 0; i < 0xFFFF; i++) {
+				zos.putNextEntry(new ZipEntry("d" + i + "/"));
+				zos.closeEntry();
+			}
+		} finally {
+			zos.close();
+		}
+		assertNull(RawZipInput.open(zip64.toPath()));
+
+		//set the encrypted flag of an entry in the central directory
+		File encrypted = createTempFile();
+		writeArchive(encrypted, contents);
+		byte[] bytes = readFile(encrypted);
+		boolean found = false;
+		for (int i = 0; i + 8 < bytes.length; i++) {
+			if (bytes[i] == 'P' && bytes[i + 1] == 'K' && bytes[i + 2] == 1 && bytes[i + 3] == 2) {
+				bytes[i + 8] |= 1;
+				found = true;
+				break;
+			}
+		}
+		assertTrue(found);
+		FileOutputStream fos = new FileOutputStream(encrypted);
+		try {
+			fos.write(bytes);
+		} finally {
+			fos.close();
+		}
+		assertNull(RawZipInput.open(encrypted.toPath()));
+	}
+
+	/**
+	 * Checks that the output is not finished if it would need the ZIP64 format for the number of entries.
+	 */
+	private static void assertTooManyEntries(File input) throws IOException {
+		RawZipInput zipin = RawZipInput.open(input.toPath());
+		try {
+			RawZipInput.Entry entry = zipin.getEntries().get(0);
+			RawZipOutput zipout = new RawZipOutput(Channels.newChannel(new ByteArrayOutputStream()));
+			try {
+				for (int i = 0; i < 0xFFFF; i++) {
+					zipout.copyRaw(zipin, entry);
+				}
+				assertFalse(zipout.finish(zipin.getComment()));
+			} finally {
+				zipout.close();
+			}
+		} finally {
+			zipin.close();
+		}
+	}
+
+	/**
+	 * Writes the archive with the deflated entries having data descriptors, except for the one with the extra field
+	 * which is stored.
+	 */
+	private static void writeArchive(File file, Map<String, byte[]> contents) throws IOException {
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			zos.setComment(new String(ARCHIVE_COMMENT));
+			for (Entry<String, byte[]> entry : contents.entrySet()) {
+				String name = entry.getKey();
+				byte[] bytes = entry.getValue();
+				ZipEntry zipentry = new ZipEntry(name);
+				if (name.endsWith("/") || name.contains("stored") || name.startsWith("extra")) {
+					zipentry.setMethod(ZipEntry.STORED);
+					zipentry.setSize(bytes.length);
+					zipentry.setCompressedSize(bytes.length);
+					zipentry.setCrc(crc(bytes));
+				}
+				if (name.startsWith("extra")) {
+					zipentry.setExtra(EXTRA_FIELD);
+				}
+				zos.putNextEntry(zipentry);
+				zos.write(bytes);
+				zos.closeEntry();
+			}
+		} finally {
+			zos.close();
+		}
+	}
+
+	private static File createTempFile() throws IOException {
+		File result = File.createTempFile("tailrec-rawzip", ".zip");
+		result.deleteOnExit();
+		return result;
+	}
+
+	private static long crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+	private static byte[] repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString().getBytes();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return readFully(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024 * 8];
+		for (int read; (read = in.read(buffer)) > 0;) {
+			baos.write(buffer, 0, read);
+		}
+		return baos.toByteArray();
+	}
+}
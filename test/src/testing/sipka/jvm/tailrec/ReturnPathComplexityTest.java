@@ -0,0 +1,175 @@
+package testing.sipka.jvm.tailrec;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import sipka.jvm.tailrec.AnalysisBudget;
+import sipka.jvm.tailrec.ClassOptimizationResult;
+import sipka.jvm.tailrec.TailRecursionOptimizer;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.ClassReader;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.ClassWriter;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Label;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.MethodVisitor;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.Opcodes;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.ClassNode;
+import sipka.jvm.tailrec.thirdparty.org.objectweb.asm.tree.MethodNode;
+import testing.saker.SakerTest;
+
+/**
+ * Tests the optimization of a generated method which has exponentially many return paths after the tail recursive
+ * call.
+ * <p>
+ * The return path consists of a long sequence of if-else diamonds with loops, followed by a wide lookup switch, while
+ * the result is copied between many local variables. Analyzing each path separately wouldn't finish.
+ * <p>
+ * The analysis is expected to be linear in the size of the method, so it must succeed with a budget that is a small
+ * multiple of the instruction count and the words of the analyzed state.
+ */
+@SakerTest
+public class ReturnPathComplexityTest extends TailRecOptimizerTestCase {
+	private static final String CLASS_NAME = "testing.sipka.jvm.tailrec.ReturnPathComplexityTest$Generated";
+	private static final String METHOD_NAME = "complex";
+	private static final String METHOD_DESCRIPTOR = "(III)I";
+
+	private static final int BRANCH_DEPTH = 256;
+	private static final int SWITCH_WIDTH = 512;
+	private static final int LOCAL_COUNT = 64;
+
+	private static final int LINEAR_BUDGET_FACTOR = 4;
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		byte[] classbytes = generateClass();
+		byte[] optimizedbytes = TailRecursionOptimizer.optimizeMethods(classbytes);
+		assertNotIdentityEquals(classbytes, optimizedbytes);
+		assertIdentityEquals(optimizedbytes, TailRecursionOptimizer.optimizeMethods(optimizedbytes));
+
+		long linearlimit = LINEAR_BUDGET_FACTOR * getLinearVisitCount(classbytes);
+		ClassOptimizationResult budgetresult = TailRecursionOptimizer.optimizeClass(classbytes, 0, classbytes.length,
+				false, AnalysisBudget.create(linearlimit, linearlimit));
+		assertEquals(budgetresult.getBudgetExceededMethodCount(), 0);
+		assertEquals(budgetresult.getOptimizedMethodCount(), 1);
+
+		final Method unoptimized = getMethod(new DefiningClassLoader().defineUserClass(CLASS_NAME, classbytes));
+		Method optimized = getMethod(definingClassLoader.defineUserClass(CLASS_NAME, optimizedbytes));
+
+		assertEquals(optimized.invoke(null, 1000, 5, 0), unoptimized.invoke(null, 1000, 5, 0));
+		assertEquals(optimized.invoke(null, 1000, 5, 3), unoptimized.invoke(null, 1000, 5, 3));
+		assertInvocationException(StackOverflowError.class, new ExceptionAssertion() {
+			@Override
+			public void run() throws Throwable {
+				unoptimized.invoke(null, 10000000, 0, 3);
+			}
+		});
+		assertEquals(10000000, optimized.invoke(null, 10000000, 0, 3));
+	}
+
+	private static Method getMethod(Class<?> c) throws NoSuchMethodException {
+		return c.getMethod(METHOD_NAME, int.class, int.class, int.class);
+	}
+
+	/**
+	 * Gets the number of instructions multiplied by the number of 64 bit words that the analysis uses for the state of
+	 * the return value, the stack and the locals.
+	 */
+	private static long getLinearVisitCount(byte[] classbytes) {
+		ClassNode cn = new ClassNode();
+		new ClassReader(classbytes).accept(cn, ClassReader.EXPAND_FRAMES);
+		for (MethodNode mn : cn.methods) {
+			if (mn.name.equals(METHOD_NAME)) {
+				int words = (1 + mn.maxStack + mn.maxLocals + 63) / 64;
+				return (long) mn.instructions.size() * words;
+			}
+		}
+		throw new AssertionError("Method not found: " + METHOD_NAME);
+	}
+
+	private static byte[] generateClass() {
+		int nvar = 0;
+		int accvar = 1;
+		int xvar = 2;
+		int ivar = 3;
+		int resultbase = 4;
+		String internalname = CLASS_NAME.replace('.', '/');
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalname, null, "java/lang/Object",
+				null);
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, METHOD_NAME, METHOD_DESCRIPTOR,
+				null, null);
+		mv.visitCode();
+		Label notzero = new Label();
+		mv.visitVarInsn(Opcodes.ILOAD, nvar);
+		mv.visitJumpInsn(Opcodes.IFNE, notzero);
+		mv.visitVarInsn(Opcodes.ILOAD, accvar);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitLabel(notzero);
+
+		mv.visitVarInsn(Opcodes.ILOAD, nvar);
+		mv.visitInsn(Opcodes.ICONST_1);
+		mv.visitInsn(Opcodes.ISUB);
+		mv.visitVarInsn(Opcodes.ILOAD, accvar);
+		mv.visitInsn(Opcodes.ICONST_1);
+		mv.visitInsn(Opcodes.IADD);
+		mv.visitVarInsn(Opcodes.ILOAD, xvar);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, internalname, METHOD_NAME, METHOD_DESCRIPTOR, false);
+		int resultvar = resultbase;
+		mv.visitVarInsn(Opcodes.ISTORE, resultvar);
+		mv.visitVarInsn(Opcodes.ILOAD, xvar);
+		mv.visitVarInsn(Opcodes.ISTORE, ivar);
+
+		int step = 0;
+		for (int d = 0; d < BRANCH_DEPTH; d++) {
+			int nextresultvar = resultbase + (++step % LOCAL_COUNT);
+			Label elselabel = new Label();
+			Label looplabel = new Label();
+			Label loopend = new Label();
+			Label endlabel = new Label();
+			mv.visitVarInsn(Opcodes.ILOAD, ivar);
+			mv.visitJumpInsn(Opcodes.IFEQ, elselabel);
+			mv.visitLabel(looplabel);
+			mv.visitVarInsn(Opcodes.ILOAD, ivar);
+			mv.visitJumpInsn(Opcodes.IFLE, loopend);
+			mv.visitIincInsn(ivar, -1);
+			mv.visitJumpInsn(Opcodes.GOTO, looplabel);
+			mv.visitLabel(loopend);
+			mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+			mv.visitVarInsn(Opcodes.ISTORE, nextresultvar);
+			mv.visitJumpInsn(Opcodes.GOTO, endlabel);
+			mv.visitLabel(elselabel);
+			mv.visitIincInsn(ivar, 1);
+			mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+			mv.visitVarInsn(Opcodes.ISTORE, nextresultvar);
+			mv.visitLabel(endlabel);
+			resultvar = nextresultvar;
+		}
+
+		int switchresultvar = resultbase + (++step % LOCAL_COUNT);
+		Label switchend = new Label();
+		Label defaultlabel = new Label();
+		int[] keys = new int[SWITCH_WIDTH];
+		Label[] caselabels = new Label[SWITCH_WIDTH];
+		for (int i = 0; i < SWITCH_WIDTH; i++) {
+			keys[i] = i * 3;
+			caselabels[i] = new Label();
+		}
+		mv.visitVarInsn(Opcodes.ILOAD, xvar);
+		mv.visitLookupSwitchInsn(defaultlabel, keys, caselabels);
+		for (int i = 0; i < SWITCH_WIDTH; i++) {
+			mv.visitLabel(caselabels[i]);
+			mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+			mv.visitVarInsn(Opcodes.ISTORE, switchresultvar);
+			mv.visitJumpInsn(Opcodes.GOTO, switchend);
+		}
+		mv.visitLabel(defaultlabel);
+		mv.visitVarInsn(Opcodes.ILOAD, resultvar);
+		mv.visitVarInsn(Opcodes.ISTORE, switchresultvar);
+		mv.visitLabel(switchend);
+		mv.visitVarInsn(Opcodes.ILOAD, switchresultvar);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+}